@@ -5,6 +5,7 @@ import com.codahale.metrics.*;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by jmussler on 4/21/15.
@@ -53,11 +54,40 @@ public class DataServiceMetrics {
     private final Meter kairosErrorMeter;
     private final Meter kairosHostErrorMeter;
     private final Meter redisErrorMeter;
+    private final Meter redisScriptReloadMeter;
+    private final Histogram redisBatchCommands;
+    private final Histogram redisBatchResults;
+    private final Histogram redisFlushLatency;
+    private final Meter redisQueueOverflow;
+    private final Meter redisMembershipSkipped;
+    private final Meter redisAlertWriteSkipped;
     private final Meter parseError;
 
     private final Meter trialRunDataCount;
     private final Meter trialRunDataError;
     private final Meter kairosDbDataPointsCount;
+    private final Meter kairosDbSeriesCount;
+    private final Histogram kairosDbBatchQueries;
+    private final Histogram kairosDbBatchPoints;
+    private final Histogram kairosDbBatchBytes;
+    private final Histogram kairosDbBatchLatency;
+    private final Meter kairosDbBatchOverflow;
+    private final Histogram kairosDbGzipUncompressed;
+    private final Histogram kairosDbGzipCompressed;
+    private final Meter kairosDbHostOpened;
+    private final Meter dataPointsSpooled;
+    private final Meter kairosDbSeriesDropped;
+    private final Meter kairosDbSeriesStripped;
+    private final Meter dataPointsSpoolDropped;
+    private final Meter dataPointsReplayed;
+    private final Meter dataPointsShardFallback;
+    private final Histogram dataPointsPushBatch;
+    private final Histogram dataPointsPushWait;
+    private final Meter dataPointsPushDropped;
+    private final Meter dataPointsPushErrors;
+    private final Meter dataPointsBackpressureSampled;
+    private final Meter dataPointsBackpressureSpooled;
+    private final Meter dataPointsBackpressureShed;
 
     private final Timer kairosDBTimer;
 
@@ -67,6 +97,7 @@ public class DataServiceMetrics {
     private final Meter workerResultsCount;
     private final Meter workerResultsBatchedCount;
     private final Meter workerResultsEmptyCount;
+    private final Meter nonFiniteValues;
 
     private final Meter jobMetricsTotal;
     private final Meter jobMetricsIngestionDropped;
@@ -81,16 +112,46 @@ public class DataServiceMetrics {
         this.kairosErrorMeter = metrics.meter("data-service.kairos-errors");
         this.kairosHostErrorMeter = metrics.meter("data-service.kairos-host-errors");
         this.redisErrorMeter = metrics.meter("data-service.redis-errors");
+        this.redisScriptReloadMeter = metrics.meter("data-service.redis-script-reloads");
+        this.redisBatchCommands = metrics.histogram("data-service.redis-coalescing.batch-commands");
+        this.redisBatchResults = metrics.histogram("data-service.redis-coalescing.batch-results");
+        this.redisFlushLatency = metrics.histogram("data-service.redis-coalescing.flush-latency");
+        this.redisQueueOverflow = metrics.meter("data-service.redis-coalescing.overflow");
+        this.redisMembershipSkipped = metrics.meter("data-service.redis-membership-cache.skipped");
+        this.redisAlertWriteSkipped = metrics.meter("data-service.redis-alert-state-cache.skipped");
         this.trialRunDataCount = metrics.meter("data-service.trial-run.data");
         this.trialRunDataError = metrics.meter("data-service.trial-run.data.error");
         this.kairosDBTimer = metrics.timer("data-service.kairosdb.timer");
         this.proxyErrorMeter = metrics.meter("data-service.proxy-errors");
         this.eventlogErrorMeter = metrics.meter("data-service.eventlog-errors");
         this.kairosDbDataPointsCount = metrics.meter("data-service.kairosdb-points.written");
+        this.kairosDbSeriesCount = metrics.meter("data-service.kairosdb-series.written");
+        this.kairosDbBatchQueries = metrics.histogram("data-service.kairosdb-batching.batch-queries");
+        this.kairosDbBatchPoints = metrics.histogram("data-service.kairosdb-batching.batch-points");
+        this.kairosDbBatchBytes = metrics.histogram("data-service.kairosdb-batching.batch-bytes");
+        this.kairosDbBatchLatency = metrics.histogram("data-service.kairosdb-batching.flush-latency");
+        this.kairosDbBatchOverflow = metrics.meter("data-service.kairosdb-batching.overflow");
+        this.kairosDbGzipUncompressed = metrics.histogram("data-service.kairosdb-gzip.uncompressed-bytes");
+        this.kairosDbGzipCompressed = metrics.histogram("data-service.kairosdb-gzip.compressed-bytes");
+        this.kairosDbHostOpened = metrics.meter("data-service.kairosdb-host.opened");
+        this.kairosDbSeriesDropped = metrics.meter("data-service.kairosdb-cardinality.dropped");
+        this.kairosDbSeriesStripped = metrics.meter("data-service.kairosdb-cardinality.stripped");
+        this.dataPointsSpooled = metrics.meter("data-service.datapoints-spool.spooled-bytes");
+        this.dataPointsSpoolDropped = metrics.meter("data-service.datapoints-spool.dropped");
+        this.dataPointsReplayed = metrics.meter("data-service.datapoints-spool.replayed-bytes");
+        this.dataPointsShardFallback = metrics.meter("data-service.datapoints-shard.fallback");
+        this.dataPointsPushBatch = metrics.histogram("data-service.datapoints-push.batch-size");
+        this.dataPointsPushWait = metrics.histogram("data-service.datapoints-push.queue-wait");
+        this.dataPointsPushDropped = metrics.meter("data-service.datapoints-push.dropped");
+        this.dataPointsPushErrors = metrics.meter("data-service.datapoints-push.errors");
+        this.dataPointsBackpressureSampled = metrics.meter("data-service.datapoints-backpressure.sampled");
+        this.dataPointsBackpressureSpooled = metrics.meter("data-service.datapoints-backpressure.spooled");
+        this.dataPointsBackpressureShed = metrics.meter("data-service.datapoints-backpressure.shed");
         this.alertDurations = metrics.histogram("data-service.alert-durations");
         this.workerResultsCount = metrics.meter("data-service.worker-results");
         this.workerResultsBatchedCount = metrics.meter("data-service.worker-results-batched");
         this.workerResultsEmptyCount = metrics.meter("data-service.worker-results-empty");
+        this.nonFiniteValues = metrics.meter("data-service.non-finite-values");
         this.jobMetricsTotal = metrics.meter("data-service.job-metrics.total");
         this.jobMetricsIngestionDropped = metrics.meter("data-service.job-metrics-ingestion.dropped");
         this.jobMetricsIngestionTotal = metrics.meter("data-service.job-metrics-ingestion.total");
@@ -171,6 +232,34 @@ public class DataServiceMetrics {
         redisErrorMeter.mark();
     }
 
+    public void markRedisScriptReload() {
+        redisScriptReloadMeter.mark();
+    }
+
+    public void updateRedisBatch(int results, int commands) {
+        redisBatchResults.update(results);
+        redisBatchCommands.update(commands);
+    }
+
+    /**
+     * @param latencyMs time from queueing the oldest worker result of a batch until the pipeline was synced
+     */
+    public void updateRedisFlushLatency(long latencyMs) {
+        redisFlushLatency.update(latencyMs);
+    }
+
+    public void markRedisQueueOverflow() {
+        redisQueueOverflow.mark();
+    }
+
+    public void markRedisMembershipSkipped(int commands) {
+        redisMembershipSkipped.mark(commands);
+    }
+
+    public void markRedisAlertWriteSkipped() {
+        redisAlertWriteSkipped.mark();
+    }
+
     public void markAccount(String account, Optional<String> region, int size) {
         if(region.isPresent()) {
             getOrCreateMeter(accountByteMeters, "ds.acc." + account + "." + region.get() + ".check.data-rate").mark(size);
@@ -236,11 +325,193 @@ public class DataServiceMetrics {
         workerResultsEmptyCount.mark(c);
     }
 
+    public void incNonFiniteValues(long c) {
+        nonFiniteValues.mark(c);
+    }
+
 
     public void incKairosDBDataPoints(long c) {
         kairosDbDataPointsCount.mark(c);
     }
 
+    public void incKairosDBSeries(long c) {
+        kairosDbSeriesCount.mark(c);
+    }
+
+    public void updateKairosBatch(int queries, int points, int bytes) {
+        kairosDbBatchQueries.update(queries);
+        kairosDbBatchPoints.update(points);
+        kairosDbBatchBytes.update(bytes);
+    }
+
+    /**
+     * @param latencyMs time the oldest query of a batch waited until its batch was written
+     */
+    public void updateKairosBatchLatency(long latencyMs) {
+        kairosDbBatchLatency.update(latencyMs);
+    }
+
+    public void markKairosBatchOverflow() {
+        kairosDbBatchOverflow.mark();
+    }
+
+    /**
+     * @param group index of the KairosDB write url group
+     */
+    public void updateKairosGroupLatency(int group, long latencyMs) {
+        metrics.timer("data-service.kairosdb-group." + group + ".write").update(latencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void markKairosGroupError(int group) {
+        metrics.meter("data-service.kairosdb-group." + group + ".errors").mark();
+    }
+
+    /**
+     * Marks a query the KairosDB write url group rejected permanently, it is dropped.
+     */
+    public void markKairosGroupRejected(int group) {
+        metrics.meter("data-service.kairosdb-group." + group + ".rejected").mark();
+    }
+
+    /**
+     * Registers gauges of the circuit state (0 closed, 1 half open, 2 open) and the latency average of a KairosDB host.
+     */
+    public void registerKairosHost(int group, String host, Gauge<Integer> state, Gauge<Double> latency) {
+        final String baseName = "data-service.kairosdb-host." + group + "." + host.replaceAll("^https?://", "")
+                .replaceAll("[^A-Za-z0-9-]", "_");
+        // replaced if the store is created again
+        metrics.remove(baseName + ".state");
+        metrics.remove(baseName + ".latency");
+        metrics.register(baseName + ".state", state);
+        metrics.register(baseName + ".latency", latency);
+    }
+
+    public void markKairosHostOpened() {
+        kairosDbHostOpened.mark();
+    }
+
+    /**
+     * Registers gauges of the number of checks over their series budget and the highest series estimate of a check.
+     */
+    public void registerKairosCardinality(Gauge<Integer> checksOverBudget, Gauge<Long> maxSeries) {
+        final String baseName = "data-service.kairosdb-cardinality.";
+        metrics.remove(baseName + "checks-over-budget");
+        metrics.remove(baseName + "max-series");
+        metrics.register(baseName + "checks-over-budget", checksOverBudget);
+        metrics.register(baseName + "max-series", maxSeries);
+    }
+
+    public void markKairosSeriesDropped() {
+        kairosDbSeriesDropped.mark();
+    }
+
+    public void markKairosSeriesStripped() {
+        kairosDbSeriesStripped.mark();
+    }
+
+    /**
+     * Registers gauges of the pending queries, pending bytes and age in ms of the oldest pending query.
+     */
+    public void registerDataPointsSpool(Gauge<Integer> queries, Gauge<Long> bytes, Gauge<Long> age) {
+        final String baseName = "data-service.datapoints-spool.";
+        metrics.remove(baseName + "pending-queries");
+        metrics.remove(baseName + "pending-bytes");
+        metrics.remove(baseName + "age");
+        metrics.register(baseName + "pending-queries", queries);
+        metrics.register(baseName + "pending-bytes", bytes);
+        metrics.register(baseName + "age", age);
+    }
+
+    /**
+     * Registers gauges of the entries in the datapoints stream and the entries pending in its consumer group.
+     */
+    public void registerDataPointsStream(Gauge<Long> length, Gauge<Long> pending) {
+        final String baseName = "data-service.datapoints-stream.";
+        metrics.remove(baseName + "length");
+        metrics.remove(baseName + "pending");
+        metrics.register(baseName + "length", length);
+        metrics.register(baseName + "pending", pending);
+    }
+
+    /**
+     * Registers gauges of the queue depth (-1 until read) and the health (1 healthy, 0 cooling down) of a datapoints
+     * shard.
+     */
+    public void registerDataPointsShard(int shard, Gauge<Long> depth, Gauge<Integer> healthy) {
+        final String baseName = "data-service.datapoints-shard." + shard;
+        metrics.remove(baseName + ".depth");
+        metrics.remove(baseName + ".healthy");
+        metrics.register(baseName + ".depth", depth);
+        metrics.register(baseName + ".healthy", healthy);
+    }
+
+    public void markDataPointsShardFallback() {
+        dataPointsShardFallback.mark();
+    }
+
+    public void updateDataPointsPushBatch(int payloads) {
+        dataPointsPushBatch.update(payloads);
+    }
+
+    public void updateDataPointsPushWait(long waitMs) {
+        dataPointsPushWait.update(waitMs);
+    }
+
+    public void markDataPointsPushDropped() {
+        dataPointsPushDropped.mark();
+    }
+
+    public void markDataPointsPushDropped(long count) {
+        dataPointsPushDropped.mark(count);
+    }
+
+    public void markDataPointsPushError() {
+        dataPointsPushErrors.mark();
+    }
+
+    /**
+     * Registers gauges of the backpressure stage (0 normal, 1 sample, 2 spool, 3 shed), the depth of the Redis queue
+     * and the share of maxmemory used by Redis.
+     */
+    public void registerDataPointsBackpressure(Gauge<Integer> stage, Gauge<Long> depth, Gauge<Double> memory) {
+        final String baseName = "data-service.datapoints-backpressure.";
+        metrics.remove(baseName + "stage");
+        metrics.remove(baseName + "depth");
+        metrics.remove(baseName + "memory");
+        metrics.register(baseName + "stage", stage);
+        metrics.register(baseName + "depth", depth);
+        metrics.register(baseName + "memory", memory);
+    }
+
+    public void markDataPointsBackpressureSampled() {
+        dataPointsBackpressureSampled.mark();
+    }
+
+    public void markDataPointsBackpressureSpooled() {
+        dataPointsBackpressureSpooled.mark();
+    }
+
+    public void markDataPointsBackpressureShed() {
+        dataPointsBackpressureShed.mark();
+    }
+
+    public void markDataPointsSpooled(int bytes) {
+        dataPointsSpooled.mark(bytes);
+    }
+
+    public void markDataPointsSpoolDropped() {
+        dataPointsSpoolDropped.mark();
+    }
+
+    public void markDataPointsReplayed(int bytes) {
+        dataPointsReplayed.mark(bytes);
+    }
+
+    public void updateKairosGzip(int uncompressed, int compressed) {
+        kairosDbGzipUncompressed.update(uncompressed);
+        kairosDbGzipCompressed.update(compressed);
+    }
+
 
 
     public void updateAlertDurations(long duration) {
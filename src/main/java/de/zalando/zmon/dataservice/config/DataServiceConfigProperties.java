@@ -16,6 +16,23 @@ public class DataServiceConfigProperties {
     private String redisHost = "localhost";
     private int redisPort = 6378;
     private int redisPoolSize = 20;
+    // one atomic script call per check/entity instead of separate commands
+    private boolean redisStoreScript = false;
+    // collect worker results of many requests into shared pipelines
+    private boolean redisCoalescingEnabled = false;
+    private int redisCoalescingThreads = 2;
+    private int redisCoalescingQueueSize = 10000;
+    private int redisCoalescingMaxCommands = 5000;
+    private int redisCoalescingMaxBytes = 1024 * 1024;
+    private int redisCoalescingMaxDelay = 20; // ms
+    // skip SADDs of check and entity memberships added recently, 0 disables
+    private int redisMembershipCacheSize = 0;
+    private int redisMembershipCacheTtl = 300; // seconds
+    // drop all membership and alert state caches, repairs keys changed from outside
+    private int redisMembershipCacheRefresh = 3600; // seconds
+    // skip alert writes if state and captures did not change, 0 disables
+    private int redisAlertStateCacheSize = 0;
+    private int redisAlertRewriteInterval = 600; // seconds
 
     // Datapoints Redis buffer (queue) for KairosDB
     @NestedConfigurationProperty
@@ -23,6 +40,42 @@ public class DataServiceConfigProperties {
 
     private List<List<String>> kairosdbWriteUrls;
     private List<String> kairosdbTagFields;
+    // cached tags per entity and per value key, 0 disables
+    private int kairosdbTagCacheSize = 10000;
+
+    // distinct series per check, estimated over one to two windows
+    private boolean kairosdbCardinalityEnabled = false;
+    private int kairosdbCardinalityWindow = 3600; // seconds
+    // series per check, 0 for no budget
+    private int kairosdbCardinalityBudget = 0;
+    private Map<Integer, Integer> kairosdbCardinalityCheckBudgets = new HashMap<>();
+    // for new series over budget: none, drop, sample or strip (the key and path tags)
+    private String kairosdbCardinalityAction = "none";
+    private double kairosdbCardinalitySampleRate = 0.1;
+
+    // merge datapoints queries of many requests into one write
+    private boolean kairosdbBatchingEnabled = false;
+    private int kairosdbBatchingThreads = 2;
+    private int kairosdbBatchingQueueSize = 1000;
+    private int kairosdbBatchingMaxPoints = 20000;
+    private int kairosdbBatchingMaxBytes = 4 * 1024 * 1024;
+    private int kairosdbBatchingMaxLinger = 100; // ms
+    private int kairosdbBatchingOfferTimeout = 50; // ms
+
+    // send datapoints to KairosDB as application/gzip
+    private boolean kairosdbGzipEnabled = false;
+    private int kairosdbGzipLevel = 6; // 1 (fastest) to 9 (smallest)
+
+    // hosts of a write url group are skipped for the cool-down once their error rate average reaches the threshold
+    private double kairosdbHostErrorThreshold = 0.5;
+    private int kairosdbHostCoolDown = 10000; // ms
+
+    // spool failed datapoints writes to disk and replay them, for KairosDB and the Redis queue
+    private boolean datapointsSpoolEnabled = false;
+    private String datapointsSpoolDirectory = "/tmp/zmon-data-service/spool";
+    private int datapointsSpoolSegmentSize = 64 * 1024 * 1024;
+    private long datapointsSpoolMaxBytes = 1024L * 1024 * 1024; // 0 for no limit
+    private int datapointsSpoolReplayRate = 1024 * 1024; // bytes per second
 
     private boolean proxyController = false;
     private boolean proxyControllerCache = true;
@@ -302,6 +355,102 @@ public class DataServiceConfigProperties {
         this.redisPoolSize = redisPoolSize;
     }
 
+    public boolean isRedisStoreScript() {
+        return redisStoreScript;
+    }
+
+    public void setRedisStoreScript(boolean redisStoreScript) {
+        this.redisStoreScript = redisStoreScript;
+    }
+
+    public boolean isRedisCoalescingEnabled() {
+        return redisCoalescingEnabled;
+    }
+
+    public void setRedisCoalescingEnabled(boolean redisCoalescingEnabled) {
+        this.redisCoalescingEnabled = redisCoalescingEnabled;
+    }
+
+    public int getRedisCoalescingThreads() {
+        return redisCoalescingThreads;
+    }
+
+    public void setRedisCoalescingThreads(int redisCoalescingThreads) {
+        this.redisCoalescingThreads = redisCoalescingThreads;
+    }
+
+    public int getRedisCoalescingQueueSize() {
+        return redisCoalescingQueueSize;
+    }
+
+    public void setRedisCoalescingQueueSize(int redisCoalescingQueueSize) {
+        this.redisCoalescingQueueSize = redisCoalescingQueueSize;
+    }
+
+    public int getRedisCoalescingMaxCommands() {
+        return redisCoalescingMaxCommands;
+    }
+
+    public void setRedisCoalescingMaxCommands(int redisCoalescingMaxCommands) {
+        this.redisCoalescingMaxCommands = redisCoalescingMaxCommands;
+    }
+
+    public int getRedisCoalescingMaxBytes() {
+        return redisCoalescingMaxBytes;
+    }
+
+    public void setRedisCoalescingMaxBytes(int redisCoalescingMaxBytes) {
+        this.redisCoalescingMaxBytes = redisCoalescingMaxBytes;
+    }
+
+    public int getRedisCoalescingMaxDelay() {
+        return redisCoalescingMaxDelay;
+    }
+
+    public void setRedisCoalescingMaxDelay(int redisCoalescingMaxDelay) {
+        this.redisCoalescingMaxDelay = redisCoalescingMaxDelay;
+    }
+
+    public int getRedisMembershipCacheSize() {
+        return redisMembershipCacheSize;
+    }
+
+    public void setRedisMembershipCacheSize(int redisMembershipCacheSize) {
+        this.redisMembershipCacheSize = redisMembershipCacheSize;
+    }
+
+    public int getRedisMembershipCacheTtl() {
+        return redisMembershipCacheTtl;
+    }
+
+    public void setRedisMembershipCacheTtl(int redisMembershipCacheTtl) {
+        this.redisMembershipCacheTtl = redisMembershipCacheTtl;
+    }
+
+    public int getRedisMembershipCacheRefresh() {
+        return redisMembershipCacheRefresh;
+    }
+
+    public void setRedisMembershipCacheRefresh(int redisMembershipCacheRefresh) {
+        this.redisMembershipCacheRefresh = redisMembershipCacheRefresh;
+    }
+
+    public int getRedisAlertStateCacheSize() {
+        return redisAlertStateCacheSize;
+    }
+
+    public void setRedisAlertStateCacheSize(int redisAlertStateCacheSize) {
+        this.redisAlertStateCacheSize = redisAlertStateCacheSize;
+    }
+
+    public int getRedisAlertRewriteInterval() {
+        return redisAlertRewriteInterval;
+    }
+
+    public void setRedisAlertRewriteInterval(int redisAlertRewriteInterval) {
+        this.redisAlertRewriteInterval = redisAlertRewriteInterval;
+    }
+
     public boolean isProxyController() {
         return proxyController;
     }
@@ -582,6 +731,70 @@ public class DataServiceConfigProperties {
         this.kairosdbTagFields = kairosdbTagFields;
     }
 
+    public int getKairosdbTagCacheSize() {
+        return kairosdbTagCacheSize;
+    }
+
+    public void setKairosdbTagCacheSize(int kairosdbTagCacheSize) {
+        this.kairosdbTagCacheSize = kairosdbTagCacheSize;
+    }
+
+    public boolean isKairosdbBatchingEnabled() {
+        return kairosdbBatchingEnabled;
+    }
+
+    public void setKairosdbBatchingEnabled(boolean kairosdbBatchingEnabled) {
+        this.kairosdbBatchingEnabled = kairosdbBatchingEnabled;
+    }
+
+    public int getKairosdbBatchingThreads() {
+        return kairosdbBatchingThreads;
+    }
+
+    public void setKairosdbBatchingThreads(int kairosdbBatchingThreads) {
+        this.kairosdbBatchingThreads = kairosdbBatchingThreads;
+    }
+
+    public int getKairosdbBatchingQueueSize() {
+        return kairosdbBatchingQueueSize;
+    }
+
+    public void setKairosdbBatchingQueueSize(int kairosdbBatchingQueueSize) {
+        this.kairosdbBatchingQueueSize = kairosdbBatchingQueueSize;
+    }
+
+    public int getKairosdbBatchingMaxPoints() {
+        return kairosdbBatchingMaxPoints;
+    }
+
+    public void setKairosdbBatchingMaxPoints(int kairosdbBatchingMaxPoints) {
+        this.kairosdbBatchingMaxPoints = kairosdbBatchingMaxPoints;
+    }
+
+    public int getKairosdbBatchingMaxBytes() {
+        return kairosdbBatchingMaxBytes;
+    }
+
+    public void setKairosdbBatchingMaxBytes(int kairosdbBatchingMaxBytes) {
+        this.kairosdbBatchingMaxBytes = kairosdbBatchingMaxBytes;
+    }
+
+    public int getKairosdbBatchingMaxLinger() {
+        return kairosdbBatchingMaxLinger;
+    }
+
+    public void setKairosdbBatchingMaxLinger(int kairosdbBatchingMaxLinger) {
+        this.kairosdbBatchingMaxLinger = kairosdbBatchingMaxLinger;
+    }
+
+    public int getKairosdbBatchingOfferTimeout() {
+        return kairosdbBatchingOfferTimeout;
+    }
+
+    public void setKairosdbBatchingOfferTimeout(int kairosdbBatchingOfferTimeout) {
+        this.kairosdbBatchingOfferTimeout = kairosdbBatchingOfferTimeout;
+    }
+
     public RedisDataPointsStoreProperties getDataPointsStoreProperties() {
         return dataPointsStoreProperties;
     }
@@ -597,5 +810,124 @@ public class DataServiceConfigProperties {
     public void setConnectionsTimeToLive(long connectionsTimeToLive) {
         this.connectionsTimeToLive = connectionsTimeToLive;
     }
-}
 
+    public boolean isKairosdbGzipEnabled() {
+        return kairosdbGzipEnabled;
+    }
+
+    public void setKairosdbGzipEnabled(boolean kairosdbGzipEnabled) {
+        this.kairosdbGzipEnabled = kairosdbGzipEnabled;
+    }
+
+    public int getKairosdbGzipLevel() {
+        return kairosdbGzipLevel;
+    }
+
+    public void setKairosdbGzipLevel(int kairosdbGzipLevel) {
+        this.kairosdbGzipLevel = kairosdbGzipLevel;
+    }
+
+    public double getKairosdbHostErrorThreshold() {
+        return kairosdbHostErrorThreshold;
+    }
+
+    public void setKairosdbHostErrorThreshold(double kairosdbHostErrorThreshold) {
+        this.kairosdbHostErrorThreshold = kairosdbHostErrorThreshold;
+    }
+
+    public int getKairosdbHostCoolDown() {
+        return kairosdbHostCoolDown;
+    }
+
+    public void setKairosdbHostCoolDown(int kairosdbHostCoolDown) {
+        this.kairosdbHostCoolDown = kairosdbHostCoolDown;
+    }
+
+    public boolean isDatapointsSpoolEnabled() {
+        return datapointsSpoolEnabled;
+    }
+
+    public void setDatapointsSpoolEnabled(boolean datapointsSpoolEnabled) {
+        this.datapointsSpoolEnabled = datapointsSpoolEnabled;
+    }
+
+    public String getDatapointsSpoolDirectory() {
+        return datapointsSpoolDirectory;
+    }
+
+    public void setDatapointsSpoolDirectory(String datapointsSpoolDirectory) {
+        this.datapointsSpoolDirectory = datapointsSpoolDirectory;
+    }
+
+    public int getDatapointsSpoolSegmentSize() {
+        return datapointsSpoolSegmentSize;
+    }
+
+    public void setDatapointsSpoolSegmentSize(int datapointsSpoolSegmentSize) {
+        this.datapointsSpoolSegmentSize = datapointsSpoolSegmentSize;
+    }
+
+    public long getDatapointsSpoolMaxBytes() {
+        return datapointsSpoolMaxBytes;
+    }
+
+    public void setDatapointsSpoolMaxBytes(long datapointsSpoolMaxBytes) {
+        this.datapointsSpoolMaxBytes = datapointsSpoolMaxBytes;
+    }
+
+    public int getDatapointsSpoolReplayRate() {
+        return datapointsSpoolReplayRate;
+    }
+
+    public void setDatapointsSpoolReplayRate(int datapointsSpoolReplayRate) {
+        this.datapointsSpoolReplayRate = datapointsSpoolReplayRate;
+    }
+
+    public boolean isKairosdbCardinalityEnabled() {
+        return kairosdbCardinalityEnabled;
+    }
+
+    public void setKairosdbCardinalityEnabled(boolean kairosdbCardinalityEnabled) {
+        this.kairosdbCardinalityEnabled = kairosdbCardinalityEnabled;
+    }
+
+    public int getKairosdbCardinalityWindow() {
+        return kairosdbCardinalityWindow;
+    }
+
+    public void setKairosdbCardinalityWindow(int kairosdbCardinalityWindow) {
+        this.kairosdbCardinalityWindow = kairosdbCardinalityWindow;
+    }
+
+    public int getKairosdbCardinalityBudget() {
+        return kairosdbCardinalityBudget;
+    }
+
+    public void setKairosdbCardinalityBudget(int kairosdbCardinalityBudget) {
+        this.kairosdbCardinalityBudget = kairosdbCardinalityBudget;
+    }
+
+    public Map<Integer, Integer> getKairosdbCardinalityCheckBudgets() {
+        return kairosdbCardinalityCheckBudgets;
+    }
+
+    public void setKairosdbCardinalityCheckBudgets(Map<Integer, Integer> kairosdbCardinalityCheckBudgets) {
+        this.kairosdbCardinalityCheckBudgets = kairosdbCardinalityCheckBudgets;
+    }
+
+    public String getKairosdbCardinalityAction() {
+        return kairosdbCardinalityAction;
+    }
+
+    public void setKairosdbCardinalityAction(String kairosdbCardinalityAction) {
+        this.kairosdbCardinalityAction = kairosdbCardinalityAction;
+    }
+
+    public double getKairosdbCardinalitySampleRate() {
+        return kairosdbCardinalitySampleRate;
+    }
+
+    public void setKairosdbCardinalitySampleRate(double kairosdbCardinalitySampleRate) {
+        this.kairosdbCardinalitySampleRate = kairosdbCardinalitySampleRate;
+    }
+}
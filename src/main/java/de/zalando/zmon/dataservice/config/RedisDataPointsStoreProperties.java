@@ -1,5 +1,8 @@
 package de.zalando.zmon.dataservice.config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class RedisDataPointsStoreProperties {
     private static final String DEFAULT_HOST = "localhost";
     private static final int DEFAULT_PORT = 6379;
@@ -11,6 +14,39 @@ public class RedisDataPointsStoreProperties {
     private int poolSize = DEFAULT_POOL_SIZE;
     private boolean enabled = true;
     private int timeOut = DEFAULT_TIME_OUT;
+    // host:port of every Redis node, host and port are used if empty
+    private List<String> endpoints = new ArrayList<>();
+    // queues per node, more than one are named zmon:datapoints:0, zmon:datapoints:1, ...
+    private int shardKeys = 1;
+    // round-robin or check
+    private String shardRouting = "round-robin";
+    private int shardCoolDown = 10000; // ms a failed shard is skipped
+    // queries are pushed by a background thread with one LPUSH per interval if > 0
+    private int pushFlushInterval = 0; // ms
+    private int pushQueueSize = 10000;
+    private int pushMaxBatch = 500;
+    // stages of backpressure by queue depth and share of Redis maxmemory, 0 to ignore a threshold
+    private boolean backpressureEnabled = false;
+    private long backpressureSampleDepth = 100000;
+    private long backpressureSpoolDepth = 500000;
+    private long backpressureShedDepth = 2000000;
+    private double backpressureSampleMemory = 0.6;
+    private double backpressureSpoolMemory = 0.75;
+    private double backpressureShedMemory = 0.9;
+    private double backpressureSampleRate = 0.2; // share of non-critical checks kept
+    private int backpressureSampleInterval = 5000; // ms
+    // gzip, lz4 or zstd, anything but gzip needs consumers reading the codec envelope
+    private String codec = "gzip";
+    private int codecLevel = 0; // codec default
+    private boolean codecEnvelope = false;
+    // file with a zstd dictionary trained on datapoints queries, optional
+    private String zstdDictionary;
+    // write to a Redis stream instead of the list queue, needs Redis 5
+    private boolean stream = false;
+    private String streamKey = "zmon:datapoints:stream";
+    private long streamMaxLength = 1000000; // approximate
+    // created if missing, its pending entries are reported as metric, optional
+    private String streamConsumerGroup;
 
     public String getHost() {
         return host;
@@ -51,4 +87,195 @@ public class RedisDataPointsStoreProperties {
     public void setTimeOut(final int timeOut) {
         this.timeOut = timeOut;
     }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(final String codec) {
+        this.codec = codec;
+    }
+
+    public int getCodecLevel() {
+        return codecLevel;
+    }
+
+    public void setCodecLevel(final int codecLevel) {
+        this.codecLevel = codecLevel;
+    }
+
+    public boolean isCodecEnvelope() {
+        return codecEnvelope;
+    }
+
+    public void setCodecEnvelope(final boolean codecEnvelope) {
+        this.codecEnvelope = codecEnvelope;
+    }
+
+    public String getZstdDictionary() {
+        return zstdDictionary;
+    }
+
+    public void setZstdDictionary(final String zstdDictionary) {
+        this.zstdDictionary = zstdDictionary;
+    }
+
+    public boolean isStream() {
+        return stream;
+    }
+
+    public void setStream(final boolean stream) {
+        this.stream = stream;
+    }
+
+    public String getStreamKey() {
+        return streamKey;
+    }
+
+    public void setStreamKey(final String streamKey) {
+        this.streamKey = streamKey;
+    }
+
+    public long getStreamMaxLength() {
+        return streamMaxLength;
+    }
+
+    public void setStreamMaxLength(final long streamMaxLength) {
+        this.streamMaxLength = streamMaxLength;
+    }
+
+    public String getStreamConsumerGroup() {
+        return streamConsumerGroup;
+    }
+
+    public void setStreamConsumerGroup(final String streamConsumerGroup) {
+        this.streamConsumerGroup = streamConsumerGroup;
+    }
+
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(final List<String> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public int getShardKeys() {
+        return shardKeys;
+    }
+
+    public void setShardKeys(final int shardKeys) {
+        this.shardKeys = shardKeys;
+    }
+
+    public String getShardRouting() {
+        return shardRouting;
+    }
+
+    public void setShardRouting(final String shardRouting) {
+        this.shardRouting = shardRouting;
+    }
+
+    public int getShardCoolDown() {
+        return shardCoolDown;
+    }
+
+    public void setShardCoolDown(final int shardCoolDown) {
+        this.shardCoolDown = shardCoolDown;
+    }
+
+    public int getPushFlushInterval() {
+        return pushFlushInterval;
+    }
+
+    public void setPushFlushInterval(final int pushFlushInterval) {
+        this.pushFlushInterval = pushFlushInterval;
+    }
+
+    public int getPushQueueSize() {
+        return pushQueueSize;
+    }
+
+    public void setPushQueueSize(final int pushQueueSize) {
+        this.pushQueueSize = pushQueueSize;
+    }
+
+    public int getPushMaxBatch() {
+        return pushMaxBatch;
+    }
+
+    public void setPushMaxBatch(final int pushMaxBatch) {
+        this.pushMaxBatch = pushMaxBatch;
+    }
+    public boolean isBackpressureEnabled() {
+        return backpressureEnabled;
+    }
+
+    public void setBackpressureEnabled(final boolean backpressureEnabled) {
+        this.backpressureEnabled = backpressureEnabled;
+    }
+
+    public long getBackpressureSampleDepth() {
+        return backpressureSampleDepth;
+    }
+
+    public void setBackpressureSampleDepth(final long backpressureSampleDepth) {
+        this.backpressureSampleDepth = backpressureSampleDepth;
+    }
+
+    public long getBackpressureSpoolDepth() {
+        return backpressureSpoolDepth;
+    }
+
+    public void setBackpressureSpoolDepth(final long backpressureSpoolDepth) {
+        this.backpressureSpoolDepth = backpressureSpoolDepth;
+    }
+
+    public long getBackpressureShedDepth() {
+        return backpressureShedDepth;
+    }
+
+    public void setBackpressureShedDepth(final long backpressureShedDepth) {
+        this.backpressureShedDepth = backpressureShedDepth;
+    }
+
+    public double getBackpressureSampleMemory() {
+        return backpressureSampleMemory;
+    }
+
+    public void setBackpressureSampleMemory(final double backpressureSampleMemory) {
+        this.backpressureSampleMemory = backpressureSampleMemory;
+    }
+
+    public double getBackpressureSpoolMemory() {
+        return backpressureSpoolMemory;
+    }
+
+    public void setBackpressureSpoolMemory(final double backpressureSpoolMemory) {
+        this.backpressureSpoolMemory = backpressureSpoolMemory;
+    }
+
+    public double getBackpressureShedMemory() {
+        return backpressureShedMemory;
+    }
+
+    public void setBackpressureShedMemory(final double backpressureShedMemory) {
+        this.backpressureShedMemory = backpressureShedMemory;
+    }
+
+    public double getBackpressureSampleRate() {
+        return backpressureSampleRate;
+    }
+
+    public void setBackpressureSampleRate(final double backpressureSampleRate) {
+        this.backpressureSampleRate = backpressureSampleRate;
+    }
+
+    public int getBackpressureSampleInterval() {
+        return backpressureSampleInterval;
+    }
+
+    public void setBackpressureSampleInterval(final int backpressureSampleInterval) {
+        this.backpressureSampleInterval = backpressureSampleInterval;
+    }
 }
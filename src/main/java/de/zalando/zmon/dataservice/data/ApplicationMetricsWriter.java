@@ -9,7 +9,9 @@ import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Component
 class ApplicationMetricsWriter implements WorkResultWriter {
@@ -34,12 +36,7 @@ class ApplicationMetricsWriter implements WorkResultWriter {
         log.debug("write application-metrics ...");
         if (writeData.getWorkerResultOptional().isPresent() && config.getRestMetricHosts() != null && config.getRestMetricHosts().size() > 0) {
             try {
-                Map<Integer, List<CheckData>> partitions = writeData.getWorkerResultOptional().get().results.stream()
-                        .filter(x -> config.getActuatorMetricChecks().contains(x.checkId)).filter(x -> !x.exception)
-                        .collect(Collectors.groupingBy(x -> Math
-                                .abs(x.entity.get("application_id").hashCode() % config.getRestMetricHosts().size())));
-
-                applicationMetricsClient.receiveData(partitions);
+                applicationMetricsClient.receiveData(partition(writeData.getWorkerResultOptional().get().results.stream()));
                 log.debug("application-metrics written");
             } catch (Exception ex) {
                 // TODO, do we have a metric for this error too
@@ -48,4 +45,28 @@ class ApplicationMetricsWriter implements WorkResultWriter {
         }
     }
 
+    @Async
+    @Override
+    public void writeBatch(List<WriteData> batch) {
+        log.debug("write application-metrics batch ...");
+        if (config.getRestMetricHosts() != null && config.getRestMetricHosts().size() > 0) {
+            try {
+                applicationMetricsClient.receiveData(partition(batch.stream()
+                        .map(WriteData::getWorkerResultOptional)
+                        .filter(Optional::isPresent)
+                        .flatMap(wr -> wr.get().results.stream())));
+                log.debug("application-metrics batch written");
+            } catch (Exception ex) {
+                log.error("Failed to write batch of size={} to REST metrics", batch.size(), ex);
+            }
+        }
+    }
+
+    private Map<Integer, List<CheckData>> partition(Stream<CheckData> results) {
+        return results
+                .filter(x -> config.getActuatorMetricChecks().contains(x.checkId)).filter(x -> !x.exception)
+                .collect(Collectors.groupingBy(x -> Math
+                        .abs(x.entity.get("application_id").hashCode() % config.getRestMetricHosts().size())));
+    }
+
 }
@@ -0,0 +1,63 @@
+package de.zalando.zmon.dataservice.data;
+
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Keeps queries away from Redis while {@link DataPointsBackpressure} is in the SPOOL or SHED stage.
+ * <p>
+ * In SPOOL a query is reported as failed without a write, the spool above takes it and its replay fails the same way
+ * until the stage is lower again. Without spool SPOOL is treated as SHED, the query is dropped and reported as written.
+ */
+public class BackpressureDataPointsQueryStore implements DataPointsQueryStore, Closeable {
+
+    private final DataPointsQueryStore delegate;
+
+    private final DataPointsBackpressure backpressure;
+
+    private final boolean spooling;
+
+    private final DataServiceMetrics metrics;
+
+    /**
+     * @param spooling true if a spool wraps this store
+     */
+    BackpressureDataPointsQueryStore(DataPointsQueryStore delegate, DataPointsBackpressure backpressure,
+                                     boolean spooling, DataServiceMetrics metrics) {
+        this.delegate = delegate;
+        this.backpressure = backpressure;
+        this.spooling = spooling;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    @Override
+    public int store(byte[] query) {
+        return store(query, 0);
+    }
+
+    @Override
+    public int store(byte[] query, int points) {
+        switch (backpressure.getStage()) {
+            case SPOOL:
+                if (spooling) {
+                    metrics.markDataPointsBackpressureSpooled();
+                    return 1;
+                }
+                // fall through
+            case SHED:
+                metrics.markDataPointsBackpressureShed();
+                return 0;
+            default:
+                return delegate.store(query, points);
+        }
+    }
+}
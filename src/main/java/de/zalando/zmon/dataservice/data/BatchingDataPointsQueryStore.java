@@ -0,0 +1,198 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the datapoints queries of many requests into one write of the wrapped store.
+ * <p>
+ * Queries are queued and taken by a few writer threads. A batch is written once it reaches the point or byte limit,
+ * or when its oldest query waited for the max linger time. If the queue is full the caller waits up to the offer
+ * timeout, after that the query is written directly by the caller. Both slow down the request threads instead of
+ * buffering without limit.
+ * <p>
+ * Write errors of batches are only reported as metrics, {@link #store(byte[], int)} returns 0 for queued queries.
+ */
+public class BatchingDataPointsQueryStore implements DataPointsQueryStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingDataPointsQueryStore.class);
+
+    private final DataPointsQueryStore delegate;
+
+    private final DataServiceMetrics metrics;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final int threads;
+
+    private final int maxPoints;
+
+    private final int maxBytes;
+
+    private final long maxLingerNanos;
+
+    private final long offerTimeoutMillis;
+
+    private final List<Thread> writers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    BatchingDataPointsQueryStore(DataPointsQueryStore delegate, DataServiceMetrics metrics,
+                                 DataServiceConfigProperties config) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.queue = new LinkedBlockingQueue<>(config.getKairosdbBatchingQueueSize());
+        this.threads = config.getKairosdbBatchingThreads();
+        this.maxPoints = config.getKairosdbBatchingMaxPoints();
+        this.maxBytes = config.getKairosdbBatchingMaxBytes();
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(config.getKairosdbBatchingMaxLinger());
+        this.offerTimeoutMillis = config.getKairosdbBatchingOfferTimeout();
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        final ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("kairosdb-batching-%d").setDaemon(true).build();
+        for (int i = 0; i < threads; i++) {
+            final Thread writer = factory.newThread(this::run);
+            writers.add(writer);
+            writer.start();
+        }
+        LOG.info("started {} batching kairosdb writers, max points={} bytes={} linger={}ms",
+                threads, maxPoints, maxBytes, TimeUnit.NANOSECONDS.toMillis(maxLingerNanos));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        // the wrapped store is no bean of its own
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    /**
+     * Without a point count the query is counted as a single point.
+     */
+    @Override
+    public int store(byte[] query) {
+        return store(query, 1);
+    }
+
+    @Override
+    public int store(byte[] query, int points) {
+        if (!isArray(query)) {
+            return delegate.store(query, points);
+        }
+        try {
+            if (queue.offer(new Entry(query, points, System.nanoTime()), offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.markKairosBatchOverflow();
+        return delegate.store(query, points);
+    }
+
+    private void run() {
+        try {
+            while (running || !queue.isEmpty()) {
+                final Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                final long deadline = first.queued + maxLingerNanos;
+                final List<byte[]> batch = new ArrayList<>();
+                int points = first.points;
+                int bytes = first.query.length;
+                batch.add(first.query);
+
+                while (points < maxPoints && bytes < maxBytes) {
+                    final long remaining = deadline - System.nanoTime();
+                    final Entry next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (null == next) {
+                        break;
+                    }
+                    points += next.points;
+                    bytes += next.query.length;
+                    batch.add(next.query);
+                }
+
+                flush(batch, points, bytes, first.queued);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush(List<byte[]> batch, int points, int bytes, long oldestQueued) {
+        try {
+            final int errors = delegate.store(merge(batch, bytes), points);
+            if (errors > 0) {
+                metrics.markKairosHostErrors(errors);
+            }
+            metrics.updateKairosBatch(batch.size(), points, bytes);
+            metrics.updateKairosBatchLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldestQueued));
+        } catch (Exception e) {
+            LOG.error("failed batched kairosdb write of queries={} points={}", batch.size(), points, e);
+            metrics.markKairosError();
+        }
+    }
+
+    /**
+     * Joins JSON arrays into one array, the elements are copied as they are.
+     */
+    static byte[] merge(List<byte[]> queries, int bytes) {
+        if (queries.size() == 1) {
+            return queries.get(0);
+        }
+        // every query loses its brackets, all but the first are prefixed with a comma
+        final byte[] merged = new byte[bytes - queries.size() + 1];
+        int offset = 0;
+        merged[offset++] = '[';
+        for (byte[] query : queries) {
+            if (offset > 1) {
+                merged[offset++] = ',';
+            }
+            System.arraycopy(query, 1, merged, offset, query.length - 2);
+            offset += query.length - 2;
+        }
+        merged[offset] = ']';
+        return merged;
+    }
+
+    // non-empty JSON array without surrounding whitespace, as written by DataPointsSerializer
+    private static boolean isArray(byte[] query) {
+        return query.length > 2 && query[0] == '[' && query[query.length - 1] == ']';
+    }
+
+    private static class Entry {
+        private final byte[] query;
+        private final int points;
+        private final long queued;
+
+        Entry(byte[] query, int points, long queued) {
+            this.query = query;
+            this.points = points;
+            this.queued = queued;
+        }
+    }
+}
@@ -1,15 +1,29 @@
 package de.zalando.zmon.dataservice.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Created by jmussler on 4/22/15.
  */
 public class CheckData {
+
+    private static final ObjectReader NODE_READER = new ObjectMapper().readerFor(JsonNode.class);
+
     public String time;
     public String worker;
     @JsonProperty("check_id")
@@ -19,8 +33,16 @@ public class CheckData {
     public Map<String,String> entity = new HashMap<>();
     @JsonProperty("run_time")
     public double runTime;
-    @JsonProperty("check_result")
+    /**
+     * Only set if the check result was bound as tree, see {@link #checkResultJson}.
+     */
+    @JsonIgnore
     public JsonNode checkResult;
+    /**
+     * Compact JSON of the check result as read from the request, the tree is only decoded on demand.
+     */
+    @JsonIgnore
+    public byte[] checkResultJson;
     public boolean exception;
     public Map<String, AlertData> alerts = new HashMap<>(0);
     @JsonProperty("is_sampled")
@@ -29,4 +51,55 @@ public class CheckData {
     public boolean isJobMetric = false;
     @JsonProperty("store_job_metric")
     public boolean isStoreJobMetric = false;
+
+    /**
+     * The check result as tree, decoded from the raw JSON on every call if there is no tree.
+     */
+    @JsonProperty("check_result")
+    public JsonNode getCheckResult() {
+        if (null != checkResult || null == checkResultJson) {
+            return checkResult;
+        }
+        try {
+            return NODE_READER.readValue(checkResultJson);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @JsonProperty("check_result")
+    public void setCheckResult(JsonNode checkResult) {
+        this.checkResult = checkResult;
+        this.checkResultJson = null;
+    }
+
+    /**
+     * Decodes only the given top level fields of the check result, all other values are skipped.
+     * <p>
+     * Missing fields are absent in the returned node, a check result that is not an object gives an empty node.
+     */
+    public JsonNode getCheckResultFields(String... names) {
+        if (null != checkResult || null == checkResultJson) {
+            return null != checkResult ? checkResult : JsonNodeFactory.instance.objectNode();
+        }
+        final List<String> selected = Arrays.asList(names);
+        final ObjectNode fields = JsonNodeFactory.instance.objectNode();
+        try (JsonParser parser = NODE_READER.getFactory().createParser(checkResultJson)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return fields;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME && fields.size() < selected.size()) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+                if (selected.contains(name)) {
+                    fields.set(name, NODE_READER.readValue(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fields;
+    }
 }
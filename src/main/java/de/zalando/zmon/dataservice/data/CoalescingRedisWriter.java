@@ -0,0 +1,184 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replaces {@link RedisWorkerResultWriter} if enabled: worker results of many requests are queued and written by a
+ * few writer threads with shared pipelines.
+ * <p>
+ * A pipeline is flushed once it reaches the command or byte limit, or when the oldest queued result waited for the
+ * max delay. Every writer thread keeps its own connection for its whole lifetime. If the queue is full the result is
+ * dropped, the request thread never waits for Redis. The next run of the check writes the check and alert keys again,
+ * but alert transitions are flagged only once: their events are created on the request thread before the drop.
+ */
+@Component
+@ConditionalOnProperty(name = "dataservice.redis-coalescing-enabled", havingValue = "true")
+public class CoalescingRedisWriter implements WorkResultWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingRedisWriter.class);
+
+    private final RedisDataStore redisDataStore;
+
+    private final JedisPool pool;
+
+    private final DataServiceMetrics metrics;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final int threads;
+
+    private final int maxCommands;
+
+    private final int maxBytes;
+
+    private final long maxDelayNanos;
+
+    private final List<Thread> writers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    @Autowired
+    public CoalescingRedisWriter(RedisDataStore redisDataStore, @Qualifier("redisMainJedisPool") JedisPool pool,
+                                 DataServiceMetrics metrics, DataServiceConfigProperties config) {
+        this.redisDataStore = redisDataStore;
+        this.pool = pool;
+        this.metrics = metrics;
+        this.queue = new LinkedBlockingQueue<>(config.getRedisCoalescingQueueSize());
+        this.threads = config.getRedisCoalescingThreads();
+        this.maxCommands = config.getRedisCoalescingMaxCommands();
+        this.maxBytes = config.getRedisCoalescingMaxBytes();
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getRedisCoalescingMaxDelay());
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        final ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("redis-coalescing-%d").setDaemon(true).build();
+        for (int i = 0; i < threads; i++) {
+            final Thread writer = factory.newThread(this::run);
+            writers.add(writer);
+            writer.start();
+        }
+        LOG.info("started {} coalescing redis writers, max commands={} bytes={} delay={}ms",
+                threads, maxCommands, maxBytes, TimeUnit.NANOSECONDS.toMillis(maxDelayNanos));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    @Override
+    public void write(WriteData writeData) {
+        writeData.getWorkerResultOptional().ifPresent(wr -> enqueue(wr, writeData.getDataSize()));
+    }
+
+    @Override
+    public void writeBatch(List<WriteData> batch) {
+        for (WriteData writeData : batch) {
+            write(writeData);
+        }
+    }
+
+    private void enqueue(WorkerResult wr, int bytes) {
+        if (!queue.offer(new Entry(wr, redisDataStore.commandCount(wr), bytes, System.nanoTime()))) {
+            metrics.markRedisQueueOverflow();
+            redisDataStore.createEvents(wr);
+        }
+    }
+
+    private void run() {
+        Jedis jedis = null;
+        try {
+            while (running || !queue.isEmpty()) {
+                final Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                final long deadline = first.queued + maxDelayNanos;
+                final List<WorkerResult> batch = new ArrayList<>();
+                int commands = first.commands;
+                int bytes = first.bytes;
+                batch.add(first.workerResult);
+
+                while (commands < maxCommands && bytes < maxBytes) {
+                    final long remaining = deadline - System.nanoTime();
+                    final Entry next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (null == next) {
+                        break;
+                    }
+                    commands += next.commands;
+                    bytes += next.bytes;
+                    batch.add(next.workerResult);
+                }
+
+                jedis = flush(jedis, batch, commands, first.queued);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (null != jedis) {
+                jedis.close();
+            }
+        }
+    }
+
+    /**
+     * @return the connection to use for the next flush, a failed connection is returned to the pool
+     */
+    private Jedis flush(Jedis jedis, List<WorkerResult> batch, int commands, long oldestQueued) {
+        try {
+            if (null == jedis) {
+                jedis = pool.getResource();
+            }
+            redisDataStore.store(jedis, batch);
+            metrics.updateRedisBatch(batch.size(), commands);
+            metrics.updateRedisFlushLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldestQueued));
+            return jedis;
+        } catch (Exception e) {
+            LOG.error("failed coalesced redis write of results={} commands={}", batch.size(), commands, e);
+            metrics.markRedisError();
+            if (null != jedis) {
+                // the connection state is unknown after a failed pipeline
+                jedis.close();
+            }
+            return null;
+        }
+    }
+
+    private static class Entry {
+        private final WorkerResult workerResult;
+        private final int commands;
+        private final int bytes;
+        private final long queued;
+
+        Entry(WorkerResult workerResult, int commands, int bytes, long queued) {
+            this.workerResult = workerResult;
+            this.commands = commands;
+            this.bytes = bytes;
+            this.queued = queued;
+        }
+    }
+}
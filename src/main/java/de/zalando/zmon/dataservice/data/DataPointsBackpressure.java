@@ -0,0 +1,173 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the depth of the Redis datapoints queues and the memory of Redis, and sets the stage of backpressure.
+ * <p>
+ * Every stage has a depth and a memory threshold (share of maxmemory), the highest stage crossed by either is taken:
+ * <pre>
+ * NORMAL  all queries are pushed
+ * SAMPLE  checks not marked critical in the metric tiers are sampled, a stable share of checks is kept
+ * SPOOL   the sampled queries are written to the local disk spool instead of Redis, shed if the spool is disabled
+ * SHED    queries are dropped
+ * </pre>
+ * Sampling goes on in every stage above SAMPLE, so a SPOOL stage does not fill the spool with the checks sampled out.
+ * The stage follows the samples both ways, spooled queries are replayed once it is below SPOOL again. The stage,
+ * depth and memory are reported as gauges and as health details.
+ */
+public class DataPointsBackpressure implements HealthIndicator, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataPointsBackpressure.class);
+
+    enum Stage {
+        NORMAL, SAMPLE, SPOOL, SHED
+    }
+
+    private final JedisPool pool;
+
+    private final List<String> queues;
+
+    private final MetricTiers metricTiers;
+
+    private final DataServiceMetrics metrics;
+
+    // depth and memory thresholds of SAMPLE, SPOOL and SHED, 0 to ignore one
+    private final long[] depths;
+
+    private final double[] memoryRatios;
+
+    // share of the 24 low hash bits
+    private final int sampleThreshold;
+
+    private final ScheduledExecutorService sampler;
+
+    private volatile Stage stage = Stage.NORMAL;
+
+    private volatile long depth;
+
+    private volatile double memoryRatio;
+
+    /**
+     * @param queues       Redis lists summed up as depth
+     * @param depths       depth thresholds of SAMPLE, SPOOL and SHED
+     * @param memoryRatios share of maxmemory of SAMPLE, SPOOL and SHED
+     * @param sampleRate   share of non-critical checks kept in SAMPLE
+     */
+    DataPointsBackpressure(JedisPool pool, List<String> queues, MetricTiers metricTiers, DataServiceMetrics metrics,
+                           long[] depths, double[] memoryRatios, double sampleRate, long sampleIntervalMillis) {
+        this.pool = pool;
+        this.queues = new ArrayList<>(queues);
+        this.metricTiers = metricTiers;
+        this.metrics = metrics;
+        this.depths = depths.clone();
+        this.memoryRatios = memoryRatios.clone();
+        this.sampleThreshold = (int) (sampleRate * (1 << 24));
+
+        metrics.registerDataPointsBackpressure(() -> stage.ordinal(), () -> depth, () -> memoryRatio);
+        sampler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("datapoints-backpressure").setDaemon(true).build());
+        sampler.scheduleWithFixedDelay(this::sample, sampleIntervalMillis, sampleIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+    }
+
+    Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * @return true if the data points of the check are not written in the current stage
+     */
+    boolean isSampledOut(int checkId) {
+        if (stage.compareTo(Stage.SAMPLE) < 0 || metricTiers.isCritical(checkId)) {
+            return false;
+        }
+        return (Hashing.murmur3_32().hashInt(checkId).asInt() & 0xffffff) >= sampleThreshold;
+    }
+
+    @Override
+    public Health health() {
+        return Health.up()
+                .withDetail("stage", stage.name().toLowerCase(Locale.ENGLISH))
+                .withDetail("depth", depth)
+                .withDetail("memoryRatio", memoryRatio)
+                .build();
+    }
+
+    void sample() {
+        try (Jedis jedis = pool.getResource()) {
+            final Pipeline p = jedis.pipelined();
+            final List<Response<Long>> lengths = new ArrayList<>(queues.size());
+            for (String queue : queues) {
+                lengths.add(p.llen(queue));
+            }
+            final Response<String> memory = p.info("memory");
+            p.sync();
+
+            long total = 0;
+            for (Response<Long> length : lengths) {
+                total += length.get();
+            }
+            update(total, memoryRatio(memory.get()));
+        } catch (Exception ex) {
+            LOG.warn("failed to sample the depth of the datapoints queue", ex);
+        }
+    }
+
+    void update(long depth, double memoryRatio) {
+        this.depth = depth;
+        this.memoryRatio = memoryRatio;
+        Stage next = Stage.NORMAL;
+        for (int i = 0; i < depths.length; i++) {
+            if ((depths[i] > 0 && depth >= depths[i]) || (memoryRatios[i] > 0 && memoryRatio >= memoryRatios[i])) {
+                next = Stage.values()[i + 1];
+            }
+        }
+        if (next != stage) {
+            LOG.warn("datapoints backpressure changed from {} to {} with depth={} memory={}", stage, next, depth,
+                    memoryRatio);
+            stage = next;
+        }
+    }
+
+    /**
+     * @return used_memory / maxmemory of an INFO memory reply, 0 without maxmemory
+     */
+    static double memoryRatio(String info) {
+        long used = 0;
+        long max = 0;
+        for (String line : info.split("\r?\n")) {
+            if (line.startsWith("used_memory:")) {
+                used = Long.parseLong(line.substring("used_memory:".length()).trim());
+            } else if (line.startsWith("maxmemory:")) {
+                max = Long.parseLong(line.substring("maxmemory:".length()).trim());
+            }
+        }
+        return max > 0 ? (double) used / max : 0;
+    }
+}
@@ -0,0 +1,209 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.google.common.io.ByteStreams;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression of datapoints queries pushed to the Redis queue.
+ * <p>
+ * With the envelope a queue entry is
+ * <pre>
+ * byte    0xE1, envelope version 1
+ * byte    codec id: 1 gzip, 2 lz4, 3 zstd (with or without dictionary, the zstd frame holds the dictionary id)
+ * byte    flags: bit 0 set if a trace header follows
+ * ...     trace header as before: format byte, int length, span context
+ * ...     compressed query
+ * </pre>
+ * Entries without envelope start with the gzip magic 0x1f or with the trace format byte 0 or 1, so consumers can tell
+ * both apart. Compressor state is kept per thread.
+ */
+abstract class DataPointsCodec {
+
+    static final byte ENVELOPE_V1 = (byte) 0xE1;
+
+    static final byte FLAG_TRACE = 1;
+
+    static final byte GZIP = 1;
+
+    static final byte LZ4 = 2;
+
+    static final byte ZSTD = 3;
+
+    /**
+     * @param name       gzip, lz4 or zstd
+     * @param level      compression level, 0 for the codec default
+     * @param dictionary zstd dictionary, may be null
+     */
+    static DataPointsCodec create(String name, int level, byte[] dictionary) {
+        switch (name.toLowerCase(Locale.ENGLISH)) {
+            case "gzip":
+                return new Gzip(level > 0 ? level : 6);
+            case "lz4":
+                return new Lz4(level);
+            case "zstd":
+                return new ZstdCodec(level > 0 ? level : 3, dictionary);
+            default:
+                throw new IllegalArgumentException("unknown datapoints codec " + name);
+        }
+    }
+
+    /**
+     * Trains a zstd dictionary on sample queries, e.g. taken from the Redis queue.
+     */
+    static byte[] trainZstdDictionary(List<byte[]> samples, int dictionarySize) {
+        int total = 0;
+        for (byte[] sample : samples) {
+            total += sample.length;
+        }
+        final ZstdDictTrainer trainer = new ZstdDictTrainer(total, dictionarySize);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        return trainer.trainSamples();
+    }
+
+    abstract byte id();
+
+    /**
+     * @param prefix copied in front of the compressed data
+     */
+    abstract byte[] encode(byte[] data, byte[] prefix);
+
+    /**
+     * @param offset start of the compressed data
+     */
+    abstract byte[] decode(byte[] encoded, int offset) throws IOException;
+
+    private static final class Gzip extends DataPointsCodec {
+        private final GzipEncoder encoder;
+
+        Gzip(int level) {
+            this.encoder = new GzipEncoder(level);
+        }
+
+        @Override
+        byte id() {
+            return GZIP;
+        }
+
+        @Override
+        byte[] encode(byte[] data, byte[] prefix) {
+            return encoder.encode(data, prefix);
+        }
+
+        @Override
+        byte[] decode(byte[] encoded, int offset) throws IOException {
+            try (GZIPInputStream in = new GZIPInputStream(
+                    new ByteArrayInputStream(encoded, offset, encoded.length - offset))) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+    }
+
+    /**
+     * LZ4 block prefixed by the uncompressed length as int.
+     */
+    private static final class Lz4 extends DataPointsCodec {
+        private final LZ4Compressor compressor;
+        private final LZ4FastDecompressor decompressor;
+
+        Lz4(int level) {
+            final LZ4Factory factory = LZ4Factory.fastestInstance();
+            // stateless and thread safe
+            this.compressor = level > 0 ? factory.highCompressor(level) : factory.fastCompressor();
+            this.decompressor = factory.fastDecompressor();
+        }
+
+        @Override
+        byte id() {
+            return LZ4;
+        }
+
+        @Override
+        byte[] encode(byte[] data, byte[] prefix) {
+            final byte[] out = new byte[prefix.length + 4 + compressor.maxCompressedLength(data.length)];
+            System.arraycopy(prefix, 0, out, 0, prefix.length);
+            writeInt(out, prefix.length, data.length);
+            final int length = compressor.compress(data, 0, data.length, out, prefix.length + 4,
+                    out.length - prefix.length - 4);
+            return Arrays.copyOf(out, prefix.length + 4 + length);
+        }
+
+        @Override
+        byte[] decode(byte[] encoded, int offset) {
+            final byte[] data = new byte[readInt(encoded, offset)];
+            decompressor.decompress(encoded, offset + 4, data, 0, data.length);
+            return data;
+        }
+    }
+
+    private static final class ZstdCodec extends DataPointsCodec {
+        private final ThreadLocal<ZstdCompressCtx> compressors;
+        private final ThreadLocal<ZstdDecompressCtx> decompressors;
+
+        ZstdCodec(int level, byte[] dictionary) {
+            final ZstdDictCompress compressDictionary = null != dictionary ? new ZstdDictCompress(dictionary, level) : null;
+            final ZstdDictDecompress decompressDictionary = null != dictionary ? new ZstdDictDecompress(dictionary) : null;
+            this.compressors = ThreadLocal.withInitial(() -> {
+                final ZstdCompressCtx ctx = new ZstdCompressCtx().setLevel(level);
+                return null != compressDictionary ? ctx.loadDict(compressDictionary) : ctx;
+            });
+            this.decompressors = ThreadLocal.withInitial(() -> {
+                final ZstdDecompressCtx ctx = new ZstdDecompressCtx();
+                return null != decompressDictionary ? ctx.loadDict(decompressDictionary) : ctx;
+            });
+        }
+
+        @Override
+        byte id() {
+            return ZSTD;
+        }
+
+        @Override
+        byte[] encode(byte[] data, byte[] prefix) {
+            final byte[] out = new byte[prefix.length + (int) Zstd.compressBound(data.length)];
+            System.arraycopy(prefix, 0, out, 0, prefix.length);
+            final int length = compressors.get().compressByteArray(out, prefix.length, out.length - prefix.length,
+                    data, 0, data.length);
+            return Arrays.copyOf(out, prefix.length + length);
+        }
+
+        @Override
+        byte[] decode(byte[] encoded, int offset) throws IOException {
+            final long size = Zstd.getFrameContentSize(encoded, offset, encoded.length - offset);
+            if (size < 0 || size > Integer.MAX_VALUE) {
+                throw new IOException("zstd frame without content size");
+            }
+            final byte[] data = new byte[(int) size];
+            decompressors.get().decompressByteArray(data, 0, data.length, encoded, offset, encoded.length - offset);
+            return data;
+        }
+    }
+
+    private static void writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >> 24);
+        out[offset + 1] = (byte) (value >> 16);
+        out[offset + 2] = (byte) (value >> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] in, int offset) {
+        return (in[offset] & 0xff) << 24 | (in[offset + 1] & 0xff) << 16 | (in[offset + 2] & 0xff) << 8
+                | (in[offset + 3] & 0xff);
+    }
+}
@@ -1,9 +1,26 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Created by mabdelhameed on 14/11/2017.
  */
 public interface DataPointsQueryStore {
 
-    int store(String query);
+    /**
+     * @param query UTF-8 encoded KairosDB datapoints query
+     * @return number of failed writes
+     */
+    int store(byte[] query);
+
+    /**
+     * @param points number of data points in the query
+     */
+    default int store(byte[] query, int points) {
+        return store(query);
+    }
+
+    default int store(String query) {
+        return store(query.getBytes(StandardCharsets.UTF_8));
+    }
 }
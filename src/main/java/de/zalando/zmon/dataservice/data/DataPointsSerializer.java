@@ -0,0 +1,141 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a KairosDB datapoints query as JSON with one entry per series:
+ * <pre>
+ * [{"name":"zmon.check.1","tags":{"entity":"..."},"datapoints":[[1490000000000,1.5],[1490000060000,1.7]]}, ...]
+ * </pre>
+ * Points with the same name and tags are grouped into the same series. Tags are passed as pre-encoded JSON
+ * fragments, see {@link TagFragments}, which are also the series key and copied as they are into the query.
+ * <p>
+ * The output buffer is kept per thread and reused for the next query, only the final query is copied out.
+ * A serializer is used by a single thread from construction until {@link #toByteArray()}.
+ */
+class DataPointsSerializer {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<ByteArrayBuilder> BUFFERS =
+            ThreadLocal.withInitial(() -> new ByteArrayBuilder(INITIAL_BUFFER_SIZE));
+
+    // series by name, entity tags and key tags
+    private final Map<String, Map<String, Map<String, Series>>> series = new LinkedHashMap<>();
+
+    private int points;
+
+    private int seriesCount;
+
+    /**
+     * @param entityTags entity part of the tags, see {@link TagFragments#entityTags(String, Map)}
+     * @param keyTags key part of the tags, see {@link TagFragments.KeyTags#getFragment()}
+     */
+    void add(String name, String entityTags, String keyTags, long timestamp, long value) {
+        series(name, entityTags, keyTags).add(timestamp, value, true);
+    }
+
+    void add(String name, String entityTags, String keyTags, long timestamp, double value) {
+        series(name, entityTags, keyTags).add(timestamp, Double.doubleToRawLongBits(value), false);
+    }
+
+    private Series series(String name, String entityTags, String keyTags) {
+        final Map<String, Series> byKey = series.computeIfAbsent(name, x -> new LinkedHashMap<>())
+                .computeIfAbsent(entityTags, x -> new LinkedHashMap<>());
+        Series s = byKey.get(keyTags);
+        if (null == s) {
+            s = new Series(entityTags, keyTags);
+            byKey.put(keyTags, s);
+            seriesCount++;
+        }
+        points++;
+        return s;
+    }
+
+    /**
+     * @return number of points added so far
+     */
+    int size() {
+        return points;
+    }
+
+    /**
+     * @return number of distinct series added so far
+     */
+    int seriesCount() {
+        return seriesCount;
+    }
+
+    /**
+     * Writes the query, the serializer can not be used afterwards.
+     */
+    byte[] toByteArray() throws IOException {
+        final ByteArrayBuilder buffer = BUFFERS.get();
+        buffer.reset();
+        try (JsonGenerator generator = FACTORY.createGenerator(buffer)) {
+            generator.writeStartArray();
+            for (Map.Entry<String, Map<String, Map<String, Series>>> byName : series.entrySet()) {
+                for (Map<String, Series> byKey : byName.getValue().values()) {
+                    for (Series s : byKey.values()) {
+                        generator.writeStartObject();
+                        generator.writeStringField("name", byName.getKey());
+                        generator.writeFieldName("tags");
+                        generator.writeRawValue(s.entityTags);
+                        generator.writeRaw(s.keyTags);
+                        generator.writeArrayFieldStart("datapoints");
+                        for (int i = 0; i < s.size; i++) {
+                            generator.writeStartArray();
+                            generator.writeNumber(s.timestamps[i]);
+                            if (s.integral[i]) {
+                                generator.writeNumber(s.values[i]);
+                            } else {
+                                generator.writeNumber(Double.longBitsToDouble(s.values[i]));
+                            }
+                            generator.writeEndArray();
+                        }
+                        generator.writeEndArray();
+                        generator.writeEndObject();
+                    }
+                }
+            }
+            generator.writeEndArray();
+        }
+        return buffer.toByteArray();
+    }
+
+    private static class Series {
+        private final String entityTags;
+        private final String keyTags;
+        private long[] timestamps = new long[1];
+        // long value or raw bits of a double value
+        private long[] values = new long[1];
+        private boolean[] integral = new boolean[1];
+        private int size;
+
+        Series(String entityTags, String keyTags) {
+            this.entityTags = entityTags;
+            this.keyTags = keyTags;
+        }
+
+        void add(long timestamp, long value, boolean isIntegral) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                integral = Arrays.copyOf(integral, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            integral[size] = isIntegral;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Write-ahead spool of datapoints queries in memory-mapped segment files.
+ * <p>
+ * Every record is a header of payload length, point count and append time followed by the payload. The length is
+ * written last, so a record cut off by a crash is never read. Replayed records are marked by negating their length in
+ * place, on restart only records not yet marked are pending. A segment is deleted once all its records are replayed
+ * and a newer segment exists.
+ * <p>
+ * Records are kept in the page cache, a crash of the process loses nothing but a crash of the host may.
+ */
+final class DataPointsSpool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataPointsSpool.class);
+
+    // length, points, append time
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private static final String PREFIX = "datapoints-";
+
+    private static final String SUFFIX = ".spool";
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    // 0 for no limit
+    private final long maxBytes;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long nextSegment;
+
+    private long mappedBytes;
+
+    private int pendingQueries;
+
+    private long pendingBytes;
+
+    DataPointsSpool(File directory, int segmentSize, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create spool directory " + directory);
+        }
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        Arrays.sort(files, (a, b) -> Long.compare(segmentId(a), segmentId(b)));
+        for (File file : files) {
+            final Segment segment = new Segment(file, (int) file.length());
+            segments.add(segment);
+            mappedBytes += segment.capacity;
+            nextSegment = segmentId(file) + 1;
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("recovered datapoints spool with segments={} queries={} bytes={}", segments.size(),
+                    pendingQueries, pendingBytes);
+        }
+    }
+
+    /**
+     * @return false if the spool is full, empty queries are not spooled
+     */
+    synchronized boolean append(byte[] query, int points) throws IOException {
+        if (query.length == 0) {
+            return true;
+        }
+        final int size = HEADER_SIZE + query.length;
+        Segment tail = segments.peekLast();
+        if (null == tail || tail.writePosition + size > tail.capacity) {
+            final int capacity = Math.max(segmentSize, size);
+            if (maxBytes > 0 && mappedBytes + capacity > maxBytes) {
+                return false;
+            }
+            final File file = new File(directory, String.format("%s%019d%s", PREFIX, nextSegment++, SUFFIX));
+            tail = new Segment(file, capacity);
+            segments.add(tail);
+            mappedBytes += capacity;
+        }
+        tail.append(query, points, System.currentTimeMillis());
+        pendingQueries++;
+        pendingBytes += query.length;
+        return true;
+    }
+
+    /**
+     * @return oldest pending record, stays pending until {@link #commit()}
+     */
+    synchronized Entry peek() {
+        final Segment head = head();
+        if (null == head) {
+            return null;
+        }
+        final MappedByteBuffer buffer = head.buffer;
+        final int position = head.readPosition;
+        final byte[] query = new byte[buffer.getInt(position)];
+        final int points = buffer.getInt(position + 4);
+        final long appended = buffer.getLong(position + 8);
+        ((ByteBuffer) buffer.duplicate().position(position + HEADER_SIZE)).get(query);
+        return new Entry(query, points, appended);
+    }
+
+    /**
+     * Marks the record returned by the last {@link #peek()} as replayed.
+     */
+    synchronized void commit() {
+        final Segment head = head();
+        if (null == head) {
+            return;
+        }
+        final int length = head.buffer.getInt(head.readPosition);
+        head.buffer.putInt(head.readPosition, -length);
+        head.readPosition += HEADER_SIZE + length;
+        pendingQueries--;
+        pendingBytes -= length;
+    }
+
+    synchronized int getPendingQueries() {
+        return pendingQueries;
+    }
+
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return age in ms of the oldest pending record, 0 if there is none
+     */
+    synchronized long getOldestAge() {
+        final Segment head = head();
+        return null == head ? 0 : Math.max(0, System.currentTimeMillis() - head.buffer.getLong(head.readPosition + 8));
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    // segment of the oldest pending record, replayed segments in front of it are deleted
+    private Segment head() {
+        while (!segments.isEmpty()) {
+            final Segment head = segments.peekFirst();
+            head.skipReplayed();
+            if (head.hasPending()) {
+                return head;
+            }
+            if (segments.size() == 1) {
+                return null;
+            }
+            segments.pollFirst();
+            mappedBytes -= head.capacity;
+            if (!head.file.delete()) {
+                LOG.warn("could not delete replayed spool segment {}", head.file);
+            }
+        }
+        return null;
+    }
+
+    private static long segmentId(File file) {
+        final String name = file.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private final class Segment {
+        private final File file;
+        private final int capacity;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+
+        Segment(File file, int capacity) throws IOException {
+            this.file = file;
+            this.capacity = capacity;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(capacity);
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            // recover positions and pending records of an existing file, a new one is all zero
+            skipReplayed();
+            writePosition = readPosition;
+            while (writePosition + HEADER_SIZE <= capacity) {
+                final int length = buffer.getInt(writePosition);
+                if (length == 0) {
+                    break;
+                }
+                if (length > 0) {
+                    pendingQueries++;
+                    pendingBytes += length;
+                }
+                writePosition += HEADER_SIZE + Math.abs(length);
+            }
+        }
+
+        void append(byte[] query, int points, long now) {
+            buffer.putInt(writePosition + 4, points);
+            buffer.putLong(writePosition + 8, now);
+            ((ByteBuffer) buffer.duplicate().position(writePosition + HEADER_SIZE)).put(query);
+            buffer.putInt(writePosition, query.length);
+            writePosition += HEADER_SIZE + query.length;
+        }
+
+        void skipReplayed() {
+            while (readPosition + HEADER_SIZE <= capacity) {
+                final int length = buffer.getInt(readPosition);
+                if (length >= 0) {
+                    break;
+                }
+                readPosition += HEADER_SIZE - length;
+            }
+        }
+
+        boolean hasPending() {
+            return readPosition + HEADER_SIZE <= capacity && buffer.getInt(readPosition) > 0;
+        }
+    }
+
+    static final class Entry {
+        final byte[] query;
+        final int points;
+        final long appended;
+
+        Entry(byte[] query, int points, long appended) {
+            this.query = query;
+            this.points = points;
+            this.appended = appended;
+        }
+    }
+}
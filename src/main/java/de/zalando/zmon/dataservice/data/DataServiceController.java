@@ -1,8 +1,13 @@
 package de.zalando.zmon.dataservice.data;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CountingInputStream;
 import de.zalando.zmon.dataservice.ApplianceVersionService;
 import de.zalando.zmon.dataservice.DataServiceMetrics;
 import de.zalando.zmon.dataservice.components.CustomObjectMapper;
@@ -15,11 +20,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api")
@@ -27,6 +39,10 @@ public class DataServiceController {
 
     private final Logger log = LoggerFactory.getLogger(DataServiceController.class);
 
+    private static final Pattern NEW_LINE = Pattern.compile("\r?\n");
+
+    private static final SerializedString NEW_LINE_SEPARATOR = new SerializedString("\n");
+
     private final DataServiceMetrics metrics;
 
     private final RedisDataStore storage;
@@ -35,6 +51,8 @@ public class DataServiceController {
 
     private final ObjectMapper valueMapper;
 
+    private final WorkerResultParser workerResultParser;
+
     private final List<WorkResultWriter> workResultWriter;
 
     private final ProxyWriter proxyWriter;
@@ -51,6 +69,7 @@ public class DataServiceController {
         this.metrics = dataServiceMetrics;
         this.mapper = defaultObjectMapper;
         this.valueMapper = customObjectMapper;
+        this.workerResultParser = new WorkerResultParser(customObjectMapper);
         this.workResultWriter = workResultWriter;
         this.proxyWriter = proxyWriter;
         this.applianceVersionService = applianceVersionService;
@@ -80,62 +99,256 @@ public class DataServiceController {
     }
 
     @RequestMapping(value = {"/v1/data/{account}/{checkid}/", "/v1/data/{account}/{checkid}"}, method = RequestMethod.PUT, consumes = {"text/plain",
-            "application/json"})
+            "application/json", WireFormat.SMILE_VALUE, WireFormat.CBOR_VALUE})
     void putData(@PathVariable(value = "checkid") int checkId, @PathVariable(value = "account") String accountId,
-                 @RequestBody String data, @RequestHeader(HttpHeaders.AUTHORIZATION) String authHeader) {
+                 InputStream body, @RequestHeader(HttpHeaders.AUTHORIZATION) String authHeader,
+                 @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                 @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType) throws IOException {
+
+        ingest(authHeader, accountId, Optional.empty(), checkId, RequestBodyDecoder.decode(body, contentEncoding),
+                WireFormat.fromContentType(contentType));
+    }
 
-        proxyData(authHeader, accountId, String.valueOf(checkId), data);
+    /*
+    * The body is only buffered if a consumer needs the raw data, otherwise it is parsed straight from the stream.
+    * Compressed bodies are already decoded here, sizes are counted uncompressed.
+    * Smile and CBOR bodies are transcoded to JSON only if the raw data is needed, proxy and logs always see JSON.
+    * */
+    protected void ingest(String authHeader, String accountId, Optional<String> region, int checkId, InputStream body,
+                          WireFormat format) throws IOException {
+        final WriteData writeData;
+        if (isRawDataRequired()) {
+            final byte[] raw = StreamUtils.copyToByteArray(body);
+            final String data = toJson(raw, format, checkId);
+            if (null == data) {
+                return;
+            }
+
+            proxyData(authHeader, accountId, String.valueOf(checkId), data);
 
-        Optional<WorkerResult> wrOptional = extractAndFilter(data, accountId, checkId);
-        WriteData writeData = new WriteData(wrOptional, accountId, Optional.empty(), checkId, data);
+            Optional<WorkerResult> wrOptional = extractAndFilter(data, accountId, checkId);
+            writeData = new WriteData(wrOptional, accountId, region, checkId, data, raw.length);
+        } else {
+            final CountingInputStream counting = new CountingInputStream(body);
+
+            Optional<WorkerResult> wrOptional = extractAndFilterStream(counting, format, accountId, checkId);
+            writeData = new WriteData(wrOptional, accountId, region, checkId, null, (int) counting.getCount());
+        }
 
         // some writer are async, keep in mind
         workResultWriter.forEach(writer -> writer.write(writeData));
     }
 
+    protected boolean isRawDataRequired() {
+        if (proxyWriter.isEnabled()) {
+            return true;
+        }
+        for (WorkResultWriter writer : workResultWriter) {
+            if (writer.requiresData()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected void proxyData(String authHeader, String accountId, String checkId, String data) {
         BearerToken.extractFromHeader(authHeader).ifPresent(t -> proxyWriter.write(t, accountId, checkId, data));
     }
 
     protected Optional<WorkerResult> extractAndFilter(String data, String accountId, int checkId) {
-        Optional<WorkerResult> wrOptional = Optional.empty();
+        try (JsonParser parser = valueMapper.getFactory().createParser(data)) {
+            return Optional.ofNullable(parseDocument(parser, accountId));
+        } catch (Exception e) {
+            log.error("failed parse for check={} data={}", checkId, data, e);
+            metrics.markParseError();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Parses one line of a batch, a failure is logged with the account and the index of the line.
+     */
+    private Optional<WorkerResult> extractAndFilterLine(String line, String accountId, int index) {
+        try (JsonParser parser = valueMapper.getFactory().createParser(line)) {
+            return Optional.ofNullable(parseDocument(parser, accountId));
+        } catch (Exception e) {
+            log.error("failed parse of batch line={} account={} data={}", index, accountId, line, e);
+            metrics.markParseError();
+            return Optional.empty();
+        }
+    }
+
+    protected String toJson(byte[] raw, WireFormat format, int checkId) {
         try {
-            wrOptional = Optional.ofNullable(valueMapper.readValue(data, new TypeReference<WorkerResult>() {
-            }));
-            if (wrOptional.isPresent()) {
-
-                metrics.markRate(wrOptional.get().results.size());
-
-                // arbitrary entities might be pushed from on-premise data centers "dc:..."
-                if (!accountId.startsWith("dc:")) {
-                    // make sure that the unique account it is actually in th
-                    // aws:<accountid> string
-                    // this should protect us from wrongly configured schedulers
-                    // that
-                    // execute the wrong checks
-                    wrOptional.get().results = wrOptional.get().results.stream()
-                            .filter(x -> x.entityId.contains(accountId)).collect(Collectors.toList());
-                }
+            return transcode(raw, format);
+        } catch (Exception e) {
+            log.error("failed transcoding of {} for check={}", format, checkId, e);
+            metrics.markParseError();
+            return null;
+        }
+    }
+
+    private String toJson(byte[] raw, WireFormat format, String accountId) {
+        try {
+            return transcode(raw, format);
+        } catch (Exception e) {
+            log.error("failed transcoding of {} batch for account={}", format, accountId, e);
+            metrics.markParseError();
+            return null;
+        }
+    }
+
+    private String transcode(byte[] raw, WireFormat format) throws IOException {
+        if (!format.isBinary()) {
+            return new String(raw, StandardCharsets.UTF_8);
+        }
+        final StringWriter json = new StringWriter(raw.length * 2);
+        try (JsonParser parser = format.getFactory(valueMapper).createParser(raw);
+             JsonGenerator generator = valueMapper.getFactory().createGenerator(json)) {
+            // multiple root values (batch requests) end up one per line
+            generator.setRootValueSeparator(NEW_LINE_SEPARATOR);
+            while (null != nextRootValue(parser)) {
+                generator.copyCurrentStructure(parser);
             }
-            return wrOptional;
+        }
+        return json.toString();
+    }
+
+    protected Optional<WorkerResult> extractAndFilterStream(InputStream data, String accountId, int checkId) {
+        return extractAndFilterStream(data, WireFormat.JSON, accountId, checkId);
+    }
+
+    protected Optional<WorkerResult> extractAndFilterStream(InputStream data, WireFormat format, String accountId, int checkId) {
+        try (JsonParser parser = format.getFactory(valueMapper).createParser(data)) {
+            return Optional.ofNullable(parseDocument(parser, accountId));
         } catch (Exception e) {
-            log.error("failed parse for check={} data={}", checkId, data, e);
+            log.error("failed parse for check={}", checkId, e);
             metrics.markParseError();
-            return wrOptional;
+            return Optional.empty();
+        }
+    }
+
+    private WorkerResult parseDocument(JsonParser parser, String accountId) throws IOException {
+        if (null == parser.nextToken()) {
+            throw JsonMappingException.from(parser, "No content to map due to end-of-input");
+        }
+        return parseAndFilter(parser, accountId);
+    }
+
+    private WorkerResult parseAndFilter(JsonParser parser, String accountId) throws IOException {
+        final AtomicInteger seen = new AtomicInteger();
+        final WorkerResult wr = workerResultParser.parse(parser, entityId -> {
+            seen.incrementAndGet();
+            return acceptEntity(accountId, entityId);
+        });
+        if (null != wr) {
+            metrics.markRate(seen.get());
+        }
+        return wr;
+    }
+
+    private static JsonToken nextRootValue(JsonParser parser) throws IOException {
+        final JsonToken token = parser.nextToken();
+        // Smile returns a single null at the header of each concatenated document
+        return null != token ? token : parser.nextToken();
+    }
+
+    private static boolean acceptEntity(String accountId, String entityId) {
+        // arbitrary entities might be pushed from on-premise data centers "dc:..."
+        if (accountId.startsWith("dc:")) {
+            return true;
         }
+        // make sure that the unique account it is actually in th
+        // aws:<accountid> string
+        // this should protect us from wrongly configured schedulers
+        // that
+        // execute the wrong checks
+        return null != entityId && entityId.contains(accountId);
     }
 
     @RequestMapping(value = {"/v2/data/{account}/{checkid}/{region}/", "/v2/data/{account}/{checkid}/{region}"}, method = RequestMethod.PUT, consumes = {"text/plain",
-            "application/json"})
+            "application/json", WireFormat.SMILE_VALUE, WireFormat.CBOR_VALUE})
     void putData(@PathVariable(value = "checkid") int checkId, @PathVariable(value = "account") String accountId, @PathVariable(value = "region") String region,
-                 @RequestBody String data, @RequestHeader(HttpHeaders.AUTHORIZATION) String authHeader) {
+                 InputStream body, @RequestHeader(HttpHeaders.AUTHORIZATION) String authHeader,
+                 @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                 @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType) throws IOException {
 
-        proxyData(authHeader, accountId, String.valueOf(checkId), data);
+        ingest(authHeader, accountId, Optional.of(region), checkId, RequestBodyDecoder.decode(body, contentEncoding),
+                WireFormat.fromContentType(contentType));
+    }
 
-        Optional<WorkerResult> wrOptional = extractAndFilter(data, accountId, checkId);
-        WriteData writeData = new WriteData(wrOptional, accountId, Optional.of(region), checkId, data);
+    /*
+    * Batch ingestion: newline delimited JSON, one worker result per line, results may belong to different checks.
+    * Smile and CBOR batches are a sequence of root values instead.
+    * */
+    @RequestMapping(value = {"/v3/data/{account}/{region}/", "/v3/data/{account}/{region}"}, method = RequestMethod.PUT, consumes = {"application/x-ndjson",
+            "text/plain", WireFormat.SMILE_VALUE, WireFormat.CBOR_VALUE})
+    void putBatchData(@PathVariable(value = "account") String accountId, @PathVariable(value = "region") String region,
+                      InputStream body, @RequestHeader(HttpHeaders.AUTHORIZATION) String authHeader,
+                      @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                      @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType) throws IOException {
 
-        // some writer are async, keep in mind
-        workResultWriter.forEach(writer -> writer.write(writeData));
+        final InputStream decoded = RequestBodyDecoder.decode(body, contentEncoding);
+        final WireFormat format = WireFormat.fromContentType(contentType);
+
+        final List<WriteData> batch;
+        if (isRawDataRequired()) {
+            batch = new ArrayList<>();
+            final String data = toJson(StreamUtils.copyToByteArray(decoded), format, accountId);
+            if (null == data) {
+                return;
+            }
+            final String[] lines = NEW_LINE.split(data);
+            for (int i = 0; i < lines.length; i++) {
+                final String line = lines[i];
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Optional<WorkerResult> wrOptional = extractAndFilterLine(line, accountId, i);
+                int checkId = wrOptional.map(DataServiceController::getCheckId).orElse(0);
+
+                proxyData(authHeader, accountId, String.valueOf(checkId), line);
+
+                batch.add(new WriteData(wrOptional, accountId, Optional.of(region), checkId, line,
+                        line.getBytes(StandardCharsets.UTF_8).length));
+            }
+        } else {
+            batch = extractBatchStream(decoded, format, accountId, Optional.of(region));
+        }
+
+        if (!batch.isEmpty()) {
+            // some writer are async, keep in mind
+            workResultWriter.forEach(writer -> writer.writeBatch(batch));
+        }
+    }
+
+    protected List<WriteData> extractBatchStream(InputStream data, String accountId, Optional<String> region) {
+        return extractBatchStream(data, WireFormat.JSON, accountId, region);
+    }
+
+    protected List<WriteData> extractBatchStream(InputStream data, WireFormat format, String accountId, Optional<String> region) {
+        final List<WriteData> batch = new ArrayList<>();
+        try (JsonParser parser = format.getFactory(valueMapper).createParser(data)) {
+            while (null != nextRootValue(parser)) {
+                final long start = parser.getTokenLocation().getByteOffset();
+                final WorkerResult wr = parseAndFilter(parser, accountId);
+                final long end = parser.getCurrentLocation().getByteOffset();
+                if (null != wr) {
+                    batch.add(new WriteData(Optional.of(wr), accountId, region, getCheckId(wr), null, (int) (end - start)));
+                }
+            }
+        } catch (Exception e) {
+            log.error("failed parse of batch after records={}", batch.size(), e);
+            metrics.markParseError();
+        }
+        return batch;
+    }
+
+    /**
+     * Check id of a batch line, taken from its first result. It is only used to proxy the line and for logs, the per
+     * check metrics of {@link MarkWriter} count every result for its own check.
+     */
+    private static int getCheckId(WorkerResult wr) {
+        return wr.results.isEmpty() ? 0 : wr.results.get(0).checkId;
     }
 }
@@ -0,0 +1,139 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded map of primitive longs to longs with a fixed time to live per entry, used to remember what has been written
+ * to Redis recently.
+ * <p>
+ * Open addressing with linear probing over parallel arrays. Entries are never removed one by one, once the map is full
+ * it is cleared as a whole. Composite keys like check/entity pairs are reduced to a 64 bit murmur3 hash.
+ */
+class ExpiringLongMap {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    // 0 marks a free slot, keys are stored with the lowest bit set
+    private static final long FREE = 0;
+
+    private final int maxEntries;
+
+    private final long ttlMillis;
+
+    private final LongSupplier clock;
+
+    private final long[] keys;
+
+    private final long[] values;
+
+    private final long[] expiries;
+
+    private final int mask;
+
+    private int size;
+
+    ExpiringLongMap(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, System::currentTimeMillis);
+    }
+
+    ExpiringLongMap(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        // load factor of at most 0.5
+        final int capacity = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.expiries = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    static long hash(int id, String name) {
+        return HASH.newHasher().putInt(id).putString(name, StandardCharsets.UTF_8).hash().asLong();
+    }
+
+    /**
+     * @return true if the key was put within the time to live
+     */
+    synchronized boolean containsKey(long key) {
+        final int i = find(stored(key));
+        return i >= 0 && expiries[i] > clock.getAsLong();
+    }
+
+    /**
+     * @return true if the key was put with the same value within the time to live
+     */
+    synchronized boolean contains(long key, long value) {
+        final int i = find(stored(key));
+        return i >= 0 && values[i] == value && expiries[i] > clock.getAsLong();
+    }
+
+    void put(long key) {
+        put(key, 0);
+    }
+
+    synchronized void put(long key, long value) {
+        final long stored = stored(key);
+        final long expiry = clock.getAsLong() + ttlMillis;
+        for (int i = slot(stored); ; i = (i + 1) & mask) {
+            if (keys[i] == stored) {
+                values[i] = value;
+                expiries[i] = expiry;
+                return;
+            }
+            if (keys[i] == FREE) {
+                if (size >= maxEntries) {
+                    clear();
+                    put(key, value);
+                    return;
+                }
+                keys[i] = stored;
+                values[i] = value;
+                expiries[i] = expiry;
+                size++;
+                return;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private int find(long stored) {
+        for (int i = slot(stored); ; i = (i + 1) & mask) {
+            if (keys[i] == FREE) {
+                return -1;
+            }
+            if (keys[i] == stored) {
+                return i;
+            }
+        }
+    }
+
+    private static long stored(long key) {
+        // the dropped top bit only costs another 63 bits of hash space
+        return (key << 1) | 1;
+    }
+
+    private int slot(long stored) {
+        // murmur3 finalizer, check ids are sequential
+        long h = stored;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+}
@@ -0,0 +1,81 @@
+package de.zalando.zmon.dataservice.data;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression of request bodies without the stream wrappers of {@link java.util.zip.GZIPOutputStream}.
+ * <p>
+ * Every thread keeps its own {@link Deflater} and CRC, they are reset instead of allocated for every body. The
+ * deflated output is written straight into the result array, which grows only if the body compresses badly.
+ */
+final class GzipEncoder {
+
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, // magic
+            Deflater.DEFLATED, // method
+            0, 0, 0, 0, 0, // flags, mtime
+            0, // extra flags
+            (byte) 0xff // unknown OS
+    };
+
+    private static final int TRAILER_SIZE = 8;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    private final ThreadLocal<CRC32> checksums = ThreadLocal.withInitial(CRC32::new);
+
+    GzipEncoder(int level) {
+        // nowrap, header and trailer are written by encode()
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    byte[] encode(byte[] data) {
+        return encode(data, EMPTY);
+    }
+
+    /**
+     * @param prefix copied in front of the gzip stream
+     */
+    byte[] encode(byte[] data, byte[] prefix) {
+        final Deflater deflater = deflaters.get();
+        final CRC32 crc = checksums.get();
+        deflater.reset();
+        crc.reset();
+        crc.update(data, 0, data.length);
+
+        deflater.setInput(data, 0, data.length);
+        deflater.finish();
+
+        // JSON datapoints compress well, start small and grow on demand
+        byte[] out = new byte[prefix.length + HEADER.length + data.length / 4 + 64];
+        System.arraycopy(prefix, 0, out, 0, prefix.length);
+        System.arraycopy(HEADER, 0, out, prefix.length, HEADER.length);
+        int offset = prefix.length + HEADER.length;
+        while (!deflater.finished()) {
+            if (offset == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            offset += deflater.deflate(out, offset, out.length - offset);
+        }
+
+        if (out.length < offset + TRAILER_SIZE) {
+            out = Arrays.copyOf(out, offset + TRAILER_SIZE);
+        }
+        offset = writeInt(out, offset, (int) crc.getValue());
+        offset = writeInt(out, offset, data.length);
+        return offset == out.length ? out : Arrays.copyOf(out, offset);
+    }
+
+    // little endian, as required by RFC 1952
+    private static int writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+        out[offset + 2] = (byte) (value >> 16);
+        out[offset + 3] = (byte) (value >> 24);
+        return offset + 4;
+    }
+}
@@ -4,6 +4,17 @@ import io.opentracing.contrib.apache.http.client.TracingHttpClientBuilder;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.fluent.Executor;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
 
 import java.util.concurrent.TimeUnit;
 
@@ -21,6 +32,35 @@ public class HttpClientFactory {
                 .build();
     }
 
+    /**
+     * Non-blocking client with the same timeouts, waiting for a pooled connection is limited by the connect timeout.
+     * The client is already started.
+     */
+    public static CloseableHttpAsyncClient getAsyncHttpClient(int socketTimeout, int timeout, int maxConnections,
+                                                              long connectionsTimeToLive) throws IOReactorException {
+        final RequestConfig config = RequestConfig.custom()
+                .setSocketTimeout(socketTimeout)
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .build();
+        final Registry<SchemeIOSessionStrategy> strategies = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                .build();
+        final PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT), null, strategies, null, null,
+                connectionsTimeToLive, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(config)
+                .build();
+        client.start();
+        return client;
+    }
+
     public  static Executor getExecutor(int socketTimeout, int timeout, int maxConnections, long connectionsTimeToLive) {
         final HttpClient httpClient = getHttpClient(socketTimeout, timeout, maxConnections, connectionsTimeToLive);
         return Executor.newInstance(httpClient);
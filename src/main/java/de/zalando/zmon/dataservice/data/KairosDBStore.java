@@ -1,8 +1,6 @@
 package de.zalando.zmon.dataservice.data;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.*;
 import com.google.common.collect.ImmutableSet;
 import de.zalando.zmon.dataservice.DataServiceMetrics;
 import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
@@ -13,9 +11,9 @@ import org.springframework.stereotype.Service;
 
 import javax.validation.constraints.Null;
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 import java.lang.Math;
 
 
@@ -26,7 +24,6 @@ import java.lang.Math;
 public class KairosDBStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(KairosDBStore.class);
-    private static final ObjectMapper mapper = new ObjectMapper();
     private final DataServiceConfigProperties config;
 
     private final DataPointsQueryStore dataPointsQueryStore;
@@ -39,46 +36,16 @@ public class KairosDBStore {
             ImmutableSet.of("application_id", "application_version", "stack_name", "stack_version", "application",
                     "version", "account_alias", "cluster_alias", "alias", "namespace", "component"));
 
-    private static final String REPLACE_CHAR = "_";
-    private static final Pattern KAIROSDB_INVALID_TAG_CHARS = Pattern.compile("[?@:=\\[\\]]");
-
-    public void fillFlatValueMap(Map<String, NumericNode> values, String prefix, JsonNode base) {
-        if (base instanceof NumericNode) {
-            values.put(prefix, (NumericNode) base);
-        } else if (base instanceof TextNode) {
-            // try to convert string node in case it is numeric
-            try {
-                TextNode t = (TextNode) base;
-                BigDecimal db = new BigDecimal(t.textValue());
-                DecimalNode dn = new DecimalNode(db);
-                values.put(prefix, dn);
-            } catch (NumberFormatException ex) {
-                // Ignore
-            }
-        } else if (base instanceof ObjectNode) {
-            Iterator<String> i = base.fieldNames();
-            while (i.hasNext()) {
-                String k = i.next();
-
-                if (prefix.length() == 0) {
-                    fillFlatValueMap(values, k, base.get(k));
-                } else {
-                    fillFlatValueMap(values, prefix + "." + k, base.get(k));
-                }
-            }
-        }
-    }
 
     private final DataServiceMetrics metrics;
     private final int resultSizeWarning;
     private final int resultSizeMetricThreshold;
     private MetricTiers metricTiers;
-
-    private static class DataPoint {
-        public String name;
-        public List<ArrayNode> datapoints = new LinkedList<>();
-        public Map<String, String> tags = new HashMap<>();
-    }
+    private final TagFragments tagFragments;
+    // null if disabled
+    private final SeriesCardinality cardinality;
+    // null if disabled
+    private DataPointsBackpressure backpressure;
 
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
     @Autowired
@@ -98,6 +65,29 @@ public class KairosDBStore {
         } else {
             this.entityTagFields = new HashSet<>(config.getKairosdbTagFields());
         }
+        this.tagFragments = new TagFragments(entityTagFields, config.getKairosdbTagCacheSize());
+
+        if (config.isKairosdbCardinalityEnabled()) {
+            this.cardinality = new SeriesCardinality(config.getKairosdbCardinalityBudget(),
+                    config.getKairosdbCardinalityCheckBudgets(), config.getKairosdbCardinalityAction(),
+                    config.getKairosdbCardinalitySampleRate(),
+                    TimeUnit.SECONDS.toMillis(config.getKairosdbCardinalityWindow()));
+            metrics.registerKairosCardinality(cardinality::getChecksOverBudget, cardinality::getMaxSeries);
+        } else {
+            this.cardinality = null;
+        }
+    }
+
+    @Autowired(required = false)
+    void setBackpressure(DataPointsBackpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * @return null if cardinality tracking is disabled
+     */
+    SeriesCardinality getCardinality() {
+        return cardinality;
     }
 
     public static String extractMetricName(String key) {
@@ -125,7 +115,7 @@ public class KairosDBStore {
 
     public Map<String, String> getTags(String key, String entityId, Map<String, String> entity) {
         Map<String, String> tags = new HashMap<>();
-        tags.put("entity", KAIROSDB_INVALID_TAG_CHARS.matcher(entityId).replaceAll(REPLACE_CHAR));
+        tags.put("entity", TagFragments.sanitize(entityId));
 
         for (String field : entityTagFields) {
             if (entity.containsKey(field)) {
@@ -137,151 +127,208 @@ public class KairosDBStore {
         }
 
         if (null != key && !"".equals(key)) {
-            tags.put("key", KAIROSDB_INVALID_TAG_CHARS.matcher(key).replaceAll(REPLACE_CHAR));
+            tags.put("key", TagFragments.sanitize(key));
         }
 
         String metricName = extractMetricName(key);
         if (null != metricName) {
-            tags.put("metric", KAIROSDB_INVALID_TAG_CHARS.matcher(metricName).replaceAll(REPLACE_CHAR));
+            tags.put("metric", TagFragments.sanitize(metricName));
         }
 
         return tags;
     }
 
     void store(WorkerResult wr) {
-        if (!config.isKairosdbEnabled()) {
-            return;
-        }
+        store(Collections.singletonList(wr));
+    }
 
-        if (wr == null || wr.results == null || wr.results.isEmpty()) {
-            LOG.warn("Received a request with invalid results: {}", wr);
+    /**
+     * Writes the data points of all worker results with a single query, points of the same series share one entry.
+     */
+    void store(List<WorkerResult> results) {
+        if (!config.isKairosdbEnabled()) {
             return;
         }
 
         try {
-            metrics.incWorkerResultsCount(1);
-            List<DataPoint> points = new LinkedList<>();
-            for (CheckData cd : wr.results) {
-
-                if (!cd.isSampled) {
-                    metrics.incNonSampledDropped(1);
-                    LOG.debug("Dropping non-sampled metrics for checkid={}", cd.checkId);
+            final DataPointsSerializer points = new DataPointsSerializer();
+            final ValueFlattener flattener = new ValueFlattener();
+            for (WorkerResult wr : results) {
+                if (wr == null || wr.results == null || wr.results.isEmpty()) {
+                    LOG.warn("Received a request with invalid results: {}", wr);
                     continue;
                 }
 
-                if (metricTiers.isMetricDisabled(cd.checkId)) {
-                    LOG.warn("Dropping non critical checkid={} ", cd.checkId);
-                    continue;
+                metrics.incWorkerResultsCount(1);
+                addDataPoints(wr, points, flattener);
+            }
+            if (flattener.getNonFinite() > 0) {
+                metrics.incNonFiniteValues(flattener.getNonFinite());
+            }
+
+            if (points.size()>0){
+                metrics.incKairosDBDataPoints(points.size());
+                metrics.incKairosDBSeries(points.seriesCount());
+
+                final byte[] query = points.toByteArray();
+                if (config.isLogKairosdbRequests()) {
+                    LOG.info("KairosDB Query: {}", new String(query, StandardCharsets.UTF_8));
                 }
 
-                boolean isJobRelated = false;
-                if (!config.isWriteAllJobMetrics()) {
-                    if (cd.isJobMetric) {
-                        metrics.incJobMetricsIngestionTotal(1);
-                        isJobRelated = true;
-                        if (!cd.isStoreJobMetric) {
-                            metrics.incJobMetricsIngestionDropped(1);
-                            continue;
-                        }
-                    }
+                // Store datapoints query!
+                int err = dataPointsQueryStore.store(query, points.size());
+                if (err > 0) {
+                    metrics.markKairosHostErrors(err);
                 }
+            }
 
-                metrics.incWorkerResultsBatchedCount(1);
+        } catch (IOException ex) {
+            if (config.isLogKairosdbErrors()) {
+                LOG.error("KairosDB write path failed", ex);
+            }
+            metrics.markKairosError();
+        }
+    }
 
-                final Map<String, NumericNode> values = new HashMap<>();
-                final String timeSeries = "zmon.check." + cd.checkId;
+    private void addDataPoints(WorkerResult wr, DataPointsSerializer points, ValueFlattener flattener) {
+        for (CheckData cd : wr.results) {
 
-                Double ts = cd.checkResult.get("ts").asDouble();
-                ts = ts * 1000.;
-                Long tsL = ts.longValue();
+            if (!cd.isSampled) {
+                metrics.incNonSampledDropped(1);
+                LOG.debug("Dropping non-sampled metrics for checkid={}", cd.checkId);
+                continue;
+            }
 
-                fillFlatValueMap(values, "", cd.checkResult.get("value"));
-                if (values.size() == 0) {
-                    metrics.incWorkerResultsEmptyCount(1);
-                }
+            if (metricTiers.isMetricDisabled(cd.checkId)) {
+                LOG.warn("Dropping non critical checkid={} ", cd.checkId);
+                continue;
+            }
+
+            if (null != backpressure && backpressure.isSampledOut(cd.checkId)) {
+                metrics.markDataPointsBackpressureSampled();
+                continue;
+            }
 
-                int cdResultSize = 0;
-                for (Map.Entry<String, NumericNode> e : values.entrySet()) {
-                    DataPoint p = new DataPoint();
-                    p.name = timeSeries;
-
-                    p.tags.putAll(getTags(e.getKey(), cd.entityId, cd.entity));
-
-                    // handle zmon actuator metrics and extract the http status code into its own field
-                    // put the first character of the status code into "status group" sg, this is only for easy kairosdb query
-                    if (config.getActuatorMetricChecks().contains(cd.checkId)) {
-                        final String[] keyParts = e.getKey().split("\\.");
-
-                        if (keyParts.length >= 3 && "health".equals(keyParts[0]) && "200".equals(keyParts[2])) {
-                            // remove the 200 health check data points, with 1/sec * instances with elb checks they just confuse
-                            continue;
-                        }
-
-                        if (keyParts.length >= 3) {
-                            final String statusCode = keyParts[keyParts.length - 2];
-                            p.tags.put("sc", statusCode);
-                            p.tags.put("sg", statusCode.substring(0, 1));
-
-                            if (keyParts.length >= 4) {
-                                StringBuilder b = new StringBuilder();
-                                for (int i = 0; i < keyParts.length - 3; ++i) {
-                                    if (i > 0) {
-                                        b.append(".");
-                                    }
-                                    b.append(keyParts[i]);
-                                }
-
-                                p.tags.put("path", b.toString());
-                            }
-                        }
+            boolean isJobRelated = false;
+            if (!config.isWriteAllJobMetrics()) {
+                if (cd.isJobMetric) {
+                    metrics.incJobMetricsIngestionTotal(1);
+                    isJobRelated = true;
+                    if (!cd.isStoreJobMetric) {
+                        metrics.incJobMetricsIngestionDropped(1);
+                        continue;
                     }
+                }
+            }
 
-                    ArrayNode arrayNode = mapper.createArrayNode();
-                    arrayNode.add(tsL);
-                    arrayNode.add(e.getValue());
+            metrics.incWorkerResultsBatchedCount(1);
 
-                    p.datapoints.add(arrayNode);
-                    points.add(p);
-                    cdResultSize += 1;
-                }
+            final String timeSeries = "zmon.check." + cd.checkId;
 
-                if (isJobRelated) {
-                    metrics.incJobMetricsTotal(cdResultSize);
-                }
+            final JsonNode checkResult = cd.getCheckResultFields("ts", "value");
+            Double ts = checkResult.get("ts").asDouble();
+            ts = ts * 1000.;
+            Long tsL = ts.longValue();
 
-                if (cdResultSize > resultSizeWarning) {
-                    LOG.warn("result size warning: check={} data-points={} job-related={} entity={} tags={}", cd.checkId, cdResultSize, isJobRelated, cd.entityId, getEntityTags(cd.entity));
-                }
+            final boolean sampled = cd.checkId == config.getCheckMetricsWatchId() && Math.random() <= 0.1;
+            final CheckPoints checkPoints = new CheckPoints(points, timeSeries,
+                    tagFragments.entityTags(cd.entityId, cd.entity), tsL,
+                    config.getActuatorMetricChecks().contains(cd.checkId), sampled,
+                    null != cardinality ? cardinality.check(cd.checkId, System.currentTimeMillis()) : null);
 
-                if (cdResultSize > resultSizeMetricThreshold) {
-                    metrics.markCriticalCheck(cd.checkId, wr.account, cdResultSize);
-                }
+            if (flattener.flatten(checkResult.get("value"), checkPoints) == 0) {
+                metrics.incWorkerResultsEmptyCount(1);
+            }
 
-                if (cd.checkId == config.getCheckMetricsWatchId() && Math.random() <= 0.1) {
-                    LOG.info("sample for check={} {}", cd.checkId, values.keySet());
-                }
+            final int cdResultSize = checkPoints.written;
+
+            if (isJobRelated) {
+                metrics.incJobMetricsTotal(cdResultSize);
             }
 
-            if (points.size()>0){
-                metrics.incKairosDBDataPoints(points.size());
+            if (cdResultSize > resultSizeWarning) {
+                LOG.warn("result size warning: check={} data-points={} job-related={} entity={} tags={}", cd.checkId, cdResultSize, isJobRelated, cd.entityId, getEntityTags(cd.entity));
+            }
 
-                String query = mapper.writeValueAsString(points);
-                if (config.isLogKairosdbRequests()) {
-                    LOG.info("KairosDB Query: {}", query);
-                }
+            if (cdResultSize > resultSizeMetricThreshold) {
+                metrics.markCriticalCheck(cd.checkId, wr.account, cdResultSize);
+            }
 
-                // Store datapoints query!
-                int err = dataPointsQueryStore.store(query);
-                if (err > 0) {
-                    metrics.markKairosHostErrors(err);
-                }
+            if (sampled) {
+                LOG.info("sample for check={} {}", cd.checkId, checkPoints.keys);
             }
+        }
+    }
 
-        } catch (IOException ex) {
-            if (config.isLogKairosdbErrors()) {
-                LOG.error("KairosDB write path failed", ex);
+    /**
+     * Adds the flattened values of one check result as data points.
+     */
+    private class CheckPoints implements ValueFlattener.Visitor {
+        private final DataPointsSerializer points;
+        private final String timeSeries;
+        private final String entityTags;
+        private final long ts;
+        private final boolean isActuatorMetric;
+        // all keys, only if sampled
+        private final List<String> keys;
+        // null if cardinality tracking is disabled
+        private final SeriesCardinality.Check cardinality;
+        private final long entityHash;
+        private int written;
+
+        CheckPoints(DataPointsSerializer points, String timeSeries, String entityTags, long ts,
+                    boolean isActuatorMetric, boolean sampled, SeriesCardinality.Check cardinality) {
+            this.points = points;
+            this.timeSeries = timeSeries;
+            this.entityTags = entityTags;
+            this.ts = ts;
+            this.isActuatorMetric = isActuatorMetric;
+            this.keys = sampled ? new ArrayList<>() : null;
+            this.cardinality = cardinality;
+            this.entityHash = null != cardinality ? TagFragments.hash(entityTags) : 0;
+        }
+
+        @Override
+        public void value(String key, long value) {
+            final String keyTags = keyTags(key);
+            if (null != keyTags) {
+                points.add(timeSeries, entityTags, keyTags, ts, value);
+                written++;
+            }
+        }
+
+        @Override
+        public void value(String key, double value) {
+            final String keyTags = keyTags(key);
+            if (null != keyTags) {
+                points.add(timeSeries, entityTags, keyTags, ts, value);
+                written++;
+            }
+        }
+
+        // key part of the tags, null if the data point is dropped
+        private String keyTags(String key) {
+            if (null != keys) {
+                keys.add(key);
+            }
+            final TagFragments.KeyTags keyTags = tagFragments.keyTags(key, isActuatorMetric);
+            if (keyTags.isDropped()) {
+                return null;
+            }
+            if (null == cardinality) {
+                return keyTags.getFragment();
+            }
+
+            switch (cardinality.offer(SeriesCardinality.seriesHash(entityHash, keyTags.getHash()))) {
+                case DROP:
+                    metrics.markKairosSeriesDropped();
+                    return null;
+                case STRIP:
+                    metrics.markKairosSeriesStripped();
+                    return keyTags.getStrippedFragment();
+                default:
+                    return keyTags.getFragment();
             }
-            metrics.markKairosError();
         }
     }
 }
@@ -1,36 +1,92 @@
 package de.zalando.zmon.dataservice.data;
 
+import de.zalando.zmon.dataservice.DataServiceMetrics;
 import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
 
-import org.apache.http.client.fluent.Executor;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.contrib.apache.http.client.ApacheClientSpanDecorator;
+import io.opentracing.contrib.apache.http.client.HttpHeadersInjectAdapter;
+import io.opentracing.propagation.Format;
+import io.opentracing.tag.Tags;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.reactor.IOReactorException;
 
-import java.util.concurrent.ThreadLocalRandom;
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.apache.http.client.fluent.Request.Post;
-
 
 /**
  * Created by mabdelhameed on 15/11/2017.
+ * <p>
+ * Writes to one url of every KairosDB write url group, chosen by {@link KairosHostSelector}. The writes to all groups are sent concurrently with a
+ * non-blocking client, a write completes once every group answered or timed out.
+ * <p>
+ * Only failures a retry can fix count as failed groups: IO errors, timeouts, 5xx and 429. Any other 4xx rejects the
+ * query itself, it is logged, counted as rejected and dropped, so neither the spool nor the host circuit treat it as an
+ * outage.
+ * <p>
+ * With gzip enabled the query is compressed once and posted as application/gzip, which KairosDB accepts on the same
+ * endpoint.
+ * <p>
+ * The tracing http client has no async variant, every post gets a client span with the same tags here.
  */
-public class KairosDataPointsQueryStore implements DataPointsQueryStore {
+public class KairosDataPointsQueryStore implements DataPointsQueryStore, Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(KairosDataPointsQueryStore.class);
 
-    private final Executor executor;
+    private static final ContentType GZIP = ContentType.create("application/gzip");
+
+    private static final ApacheClientSpanDecorator SPAN_TAGS = new ApacheClientSpanDecorator.StandardTags();
+
+    private final CloseableHttpAsyncClient client;
+    private final Tracer tracer;
     private final DataServiceConfigProperties config;
+    private final DataServiceMetrics metrics;
+    // null if disabled
+    private final GzipEncoder gzip;
+    private final List<KairosHostSelector> groups = new ArrayList<>();
+    // connect plus socket timeout, a group not answering within is counted as failed
+    private final long writeTimeoutMillis;
 
-    KairosDataPointsQueryStore(DataServiceConfigProperties config) {
+    KairosDataPointsQueryStore(DataServiceConfigProperties config, DataServiceMetrics metrics, Tracer tracer)
+            throws IOReactorException {
+        this.tracer = tracer;
         this.config = config;
+        this.metrics = metrics;
+        this.writeTimeoutMillis = config.getKairosdbTimeout() + config.getKairosdbSocketTimeout();
+        this.gzip = config.isKairosdbGzipEnabled() ? new GzipEncoder(config.getKairosdbGzipLevel()) : null;
+
+        final List<List<String>> urls = config.getKairosdbWriteUrls();
+        for (int group = 0; null != urls && group < urls.size(); group++) {
+            final KairosHostSelector selector = new KairosHostSelector(urls.get(group),
+                    config.getKairosdbHostErrorThreshold(), config.getKairosdbHostCoolDown());
+            for (KairosHostSelector.Host host : selector.getHosts()) {
+                metrics.registerKairosHost(group, host.getUrl(), host::getState, host::getLatency);
+            }
+            groups.add(selector);
+        }
 
         LOG.info("KairosDB settings connections={} socketTimeout={} timeout={}", config.getKairosdbConnections(),
                 config.getKairosdbSocketTimeout(), config.getKairosdbTimeout());
-        executor = HttpClientFactory.getExecutor(
+        client = HttpClientFactory.getAsyncHttpClient(
                 config.getKairosdbSocketTimeout(),
                 config.getKairosdbTimeout(),
                 config.getKairosdbConnections(),
@@ -38,22 +94,134 @@ public class KairosDataPointsQueryStore implements DataPointsQueryStore {
         );
     }
 
-    public int store(String query) {
-        int error_count = 0;
-        for (List<String> urls : config.getKairosdbWriteUrls()) {
-            final int index = ThreadLocalRandom.current().nextInt(urls.size());
-            final String url = urls.get(index) + "/api/v1/datapoints";
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Override
+    public int store(byte[] query) {
+        final List<CompletableFuture<Boolean>> writes = writeAll(query);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
 
+        int error_count = 0;
+        for (CompletableFuture<Boolean> write : writes) {
             try {
-                executor.execute(Post(url).bodyString(query, ContentType.APPLICATION_JSON)).discardContent();
-            } catch (IOException ex) {
+                if (!write.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    error_count += 1;
+                }
+            } catch (TimeoutException | ExecutionException ex) {
+                error_count += 1;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                error_count += 1;
+            }
+        }
+        return error_count;
+    }
+
+    private List<CompletableFuture<Boolean>> writeAll(byte[] query) {
+        final byte[] body;
+        final ContentType contentType;
+        if (null != gzip) {
+            body = gzip.encode(query);
+            contentType = GZIP;
+            metrics.updateKairosGzip(query.length, body.length);
+        } else {
+            body = query;
+            contentType = ContentType.APPLICATION_JSON;
+        }
+
+        final List<CompletableFuture<Boolean>> writes = new ArrayList<>(groups.size());
+        for (int group = 0; group < groups.size(); group++) {
+            writes.add(write(group, groups.get(group).select(), body, contentType));
+        }
+        return writes;
+    }
+
+    /**
+     * @return completes with false if the write failed and may succeed with a retry
+     */
+    private CompletableFuture<Boolean> write(int group, KairosHostSelector.Host host, byte[] body, ContentType contentType) {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        final String url = host.getUrl() + "/api/v1/datapoints";
+
+        final HttpPost post = new HttpPost(url);
+        post.setEntity(new ByteArrayEntity(body, contentType));
+        final Span span = tracer.buildSpan(post.getMethod())
+                .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+                .withTag(Tags.COMPONENT.getKey(), "apache-httpasyncclient")
+                .start();
+        SPAN_TAGS.onRequest(HttpRequestWrapper.wrap(post), null, span);
+        tracer.inject(span.context(), Format.Builtin.HTTP_HEADERS, new HttpHeadersInjectAdapter(post));
+        client.execute(post, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                SPAN_TAGS.onResponse(response, null, span);
+                span.finish();
+                final long latency = elapsedMillis(start);
+                metrics.updateKairosGroupLatency(group, latency);
+                final int status = response.getStatusLine().getStatusCode();
+                if (isRetryable(status)) {
+                    release(host, false, latency);
+                    if (config.isLogKairosdbErrors()) {
+                        LOG.error("KairosDB write failed url={} status={}", url, status);
+                    }
+                    metrics.markKairosGroupError(group);
+                    result.complete(false);
+                    return;
+                }
+                // the host answered, a rejected query says nothing about its health
+                release(host, true, latency);
+                if (status >= 400) {
+                    if (config.isLogKairosdbErrors()) {
+                        LOG.error("KairosDB rejected query, dropped url={} status={}", url, status);
+                    }
+                    metrics.markKairosGroupRejected(group);
+                }
+                result.complete(true);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                SPAN_TAGS.onError(post, null, ex, span);
+                span.finish();
+                final long latency = elapsedMillis(start);
+                metrics.updateKairosGroupLatency(group, latency);
+                release(host, false, latency);
                 if (config.isLogKairosdbErrors()) {
                     LOG.error("KairosDB write failed url={}", url, ex);
                 }
-                error_count += 1;
+                metrics.markKairosGroupError(group);
+                result.complete(false);
+            }
+
+            @Override
+            public void cancelled() {
+                span.finish();
+                release(host, false, elapsedMillis(start));
+                metrics.markKairosGroupError(group);
+                result.complete(false);
             }
+        });
+        return result;
+    }
+
+    private void release(KairosHostSelector.Host host, boolean success, long latency) {
+        if (host.release(success, latency)) {
+            LOG.warn("KairosDB host {} opened after errors, skipped for {}ms", host.getUrl(),
+                    config.getKairosdbHostCoolDown());
+            metrics.markKairosHostOpened();
         }
+    }
 
-        return error_count;
+    static boolean isRetryable(int status) {
+        return status >= 500 || status == 429;
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
     }
 }
@@ -10,6 +10,10 @@ import com.codahale.metrics.Timer;
 
 import de.zalando.zmon.dataservice.DataServiceMetrics;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
 @Component
 public class KairosDbWorkResultWriter implements WorkResultWriter {
 
@@ -44,4 +48,27 @@ public class KairosDbWorkResultWriter implements WorkResultWriter {
         }
     }
 
+    @Async(KAIROS_WRITER_EXECUTOR)
+    @Override
+    public void writeBatch(List<WriteData> batch) {
+        log.debug("write batch to KairosDB ...");
+        final List<WorkerResult> results = batch.stream()
+                .map(WriteData::getWorkerResultOptional)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+        if (!results.isEmpty()) {
+            Timer.Context c = metrics.getKairosDBTimer().time();
+            try {
+                kairosStore.store(results);
+                log.debug("... batch written to KairosDb");
+            } catch (Exception e) {
+                log.error("failed kairosdb write for batch of size={}", results.size(), e);
+                metrics.markKairosError();
+            } finally {
+                c.stop();
+            }
+        }
+    }
+
 }
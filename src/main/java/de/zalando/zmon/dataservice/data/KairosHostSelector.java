@@ -0,0 +1,187 @@
+package de.zalando.zmon.dataservice.data;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the host of one KairosDB write url group.
+ * <p>
+ * Every host keeps an EWMA of its write latency and of its error rate. Two random hosts are compared and the one with
+ * the lower latency times outstanding writes wins, so slow hosts get less traffic without starving. A host whose error
+ * rate reaches the threshold is opened and skipped for the cool-down, then a single write probes it: success closes
+ * it again, failure opens it for another cool-down. If all hosts are open the one closest to its retry is used
+ * anyway, datapoints are not dropped for lack of a healthy host.
+ */
+final class KairosHostSelector {
+
+    static final int CLOSED = 0;
+    static final int HALF_OPEN = 1;
+    static final int OPEN = 2;
+
+    // weight of the newest sample in both averages
+    private static final double ALPHA = 0.2;
+
+    private final Host[] hosts;
+
+    private final double errorThreshold;
+
+    private final long coolDownNanos;
+
+    private final LongSupplier clock;
+
+    KairosHostSelector(List<String> urls, double errorThreshold, long coolDownMillis) {
+        this(urls, errorThreshold, coolDownMillis, System::nanoTime);
+    }
+
+    KairosHostSelector(List<String> urls, double errorThreshold, long coolDownMillis, LongSupplier clock) {
+        this.hosts = new Host[urls.size()];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = new Host(urls.get(i));
+        }
+        this.errorThreshold = errorThreshold;
+        this.coolDownNanos = TimeUnit.MILLISECONDS.toNanos(coolDownMillis);
+        this.clock = clock;
+    }
+
+    Host[] getHosts() {
+        return hosts;
+    }
+
+    /**
+     * The returned host counts the write as outstanding until {@link Host#release(boolean, long)} is called.
+     */
+    Host select() {
+        final long now = clock.getAsLong();
+        final int n = hosts.length;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int a = random.nextInt(n);
+        final Host first = hosts[a];
+
+        if (n > 1) {
+            final Host second = hosts[(a + 1 + random.nextInt(n - 1)) % n];
+            final boolean firstAvailable = first.isAvailable(now);
+            final boolean secondAvailable = second.isAvailable(now);
+            final Host pick;
+            if (firstAvailable && secondAvailable) {
+                pick = first.score() <= second.score() ? first : second;
+            } else {
+                pick = firstAvailable ? first : secondAvailable ? second : null;
+            }
+            if (null != pick && pick.acquire(now)) {
+                return pick;
+            }
+        } else if (first.acquire(now)) {
+            return first;
+        }
+
+        // both choices are open, take any available host starting at a random one
+        for (int i = 0; i < n; i++) {
+            final Host host = hosts[(a + i) % n];
+            if (host.acquire(now)) {
+                return host;
+            }
+        }
+
+        Host soonest = first;
+        for (Host host : hosts) {
+            if (host.retryAt() < soonest.retryAt()) {
+                soonest = host;
+            }
+        }
+        soonest.force();
+        return soonest;
+    }
+
+    final class Host {
+
+        private final String url;
+
+        private int state = CLOSED;
+
+        private long openUntil;
+
+        private double latency;
+
+        private boolean hasLatency;
+
+        private double errorRate;
+
+        private int outstanding;
+
+        private Host(String url) {
+            this.url = url;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        synchronized int getState() {
+            return state;
+        }
+
+        synchronized double getLatency() {
+            return latency;
+        }
+
+        private synchronized boolean isAvailable(long now) {
+            return state == CLOSED || (state == OPEN && now - openUntil >= 0);
+        }
+
+        private synchronized double score() {
+            return latency * (outstanding + 1);
+        }
+
+        private synchronized long retryAt() {
+            return openUntil;
+        }
+
+        private synchronized boolean acquire(long now) {
+            if (state == HALF_OPEN || (state == OPEN && now - openUntil < 0)) {
+                return false;
+            }
+            if (state == OPEN) {
+                // this write is the probe
+                state = HALF_OPEN;
+            }
+            outstanding++;
+            return true;
+        }
+
+        private synchronized void force() {
+            outstanding++;
+        }
+
+        /**
+         * @return true if this write opened the host
+         */
+        synchronized boolean release(boolean success, long latencyMs) {
+            outstanding--;
+            latency = hasLatency ? latency + ALPHA * (latencyMs - latency) : latencyMs;
+            hasLatency = true;
+            errorRate += ALPHA * ((success ? 0 : 1) - errorRate);
+
+            if (state == HALF_OPEN) {
+                if (success) {
+                    state = CLOSED;
+                    errorRate = 0;
+                    return false;
+                }
+                open();
+                return true;
+            }
+            if (state == CLOSED && errorRate >= errorThreshold) {
+                open();
+                return true;
+            }
+            return false;
+        }
+
+        private void open() {
+            state = OPEN;
+            openUntil = clock.getAsLong() + coolDownNanos;
+        }
+    }
+}
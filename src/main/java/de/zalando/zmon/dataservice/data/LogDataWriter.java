@@ -1,5 +1,7 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +33,20 @@ class LogDataWriter implements WorkResultWriter {
         }
     }
 
+    // the default writeBatch calls write() on the bean itself, which would skip the async proxy
+    @Override
+    @Async
+    public void writeBatch(List<WriteData> batch) {
+        if (config.isLogCheckData()) {
+            batch.forEach(writeData -> logData(writeData.getData()));
+        }
+    }
+
+    @Override
+    public boolean requiresData() {
+        return config.isLogCheckData();
+    }
+
     @VisibleForTesting
     protected void logData(String data) {
         log.info("{}", data);
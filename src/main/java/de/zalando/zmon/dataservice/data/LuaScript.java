@@ -0,0 +1,130 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Lua script that is run by its SHA1 with EVALSHA, so Redis compiles and caches it once.
+ * <p>
+ * Script calls inside a pipeline are tracked by {@link Calls}, if Redis lost the script (restart, failover or
+ * SCRIPT FLUSH) it is loaded again and the failed calls are repeated, they have not been run at all.
+ */
+class LuaScript {
+
+    private static final String NO_SCRIPT = "NOSCRIPT";
+
+    private final String script;
+
+    private final String sha1;
+
+    private final byte[] sha1Bytes;
+
+    LuaScript(String resource) {
+        DefaultRedisScript<Object> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource(resource)));
+        this.script = redisScript.getScriptAsString();
+        this.sha1 = redisScript.getSha1();
+        this.sha1Bytes = SafeEncoder.encode(sha1);
+    }
+
+    String getSha1() {
+        return sha1;
+    }
+
+    String getScript() {
+        return script;
+    }
+
+    void load(Jedis jedis) {
+        jedis.scriptLoad(script);
+    }
+
+    /**
+     * Runs the script outside of a pipeline, loads it first if Redis lost it.
+     */
+    Object evalsha(Jedis jedis, int keyCount, byte[]... keysAndArgs) {
+        try {
+            return jedis.evalsha(sha1Bytes, keyCount, keysAndArgs);
+        } catch (JedisDataException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            load(jedis);
+            return jedis.evalsha(sha1Bytes, keyCount, keysAndArgs);
+        }
+    }
+
+    Calls calls() {
+        return new Calls();
+    }
+
+    static boolean isNoScript(JedisDataException e) {
+        return null != e.getMessage() && e.getMessage().startsWith(NO_SCRIPT);
+    }
+
+    /**
+     * Script calls of one pipeline.
+     */
+    class Calls {
+
+        private final List<Integer> keyCounts = new ArrayList<>();
+
+        private final List<byte[][]> params = new ArrayList<>();
+
+        private final List<Response<Object>> responses = new ArrayList<>();
+
+        void evalsha(Pipeline p, int keyCount, String... keysAndArgs) {
+            evalsha(p, keyCount, SafeEncoder.encodeMany(keysAndArgs));
+        }
+
+        void evalsha(Pipeline p, int keyCount, byte[]... keysAndArgs) {
+            keyCounts.add(keyCount);
+            params.add(keysAndArgs);
+            // binary variant, the response is not converted to a String
+            responses.add(p.evalsha(sha1Bytes, keyCount, keysAndArgs));
+        }
+
+        boolean isEmpty() {
+            return responses.isEmpty();
+        }
+
+        /**
+         * To be called after the pipeline was synced, repeats all calls that failed with NOSCRIPT.
+         *
+         * @return number of repeated calls
+         */
+        int retryMissingScript(Jedis jedis) {
+            Pipeline retry = null;
+            int retried = 0;
+            for (int i = 0; i < responses.size(); i++) {
+                try {
+                    responses.get(i).get();
+                } catch (JedisDataException e) {
+                    if (!isNoScript(e)) {
+                        // a failing script is not repeated, same as any other command of the pipeline
+                        continue;
+                    }
+                    if (null == retry) {
+                        load(jedis);
+                        retry = jedis.pipelined();
+                    }
+                    retry.evalsha(sha1Bytes, keyCounts.get(i), params.get(i));
+                    retried++;
+                }
+            }
+            if (null != retry) {
+                retry.sync();
+            }
+            return retried;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package de.zalando.zmon.dataservice.data;
 
 import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,11 +29,40 @@ class MarkWriter implements WorkResultWriter {
     @Override
     public void write(WriteData writeData) {
         LOG.debug("write metrics ...");
-        metrics.markAccount(writeData.getAccountId(), writeData.getRegion(), writeData.getData().length());
+        metrics.markAccount(writeData.getAccountId(), writeData.getRegion(), writeData.getDataSize());
         if(properties.isTrackCheckRate()) {
-            metrics.markCheck(writeData.getCheckId(), writeData.getData().length());
+            metrics.markCheck(writeData.getCheckId(), writeData.getDataSize());
         }
         LOG.debug("metrics written");
     }
 
+    /**
+     * A line of a batch may hold results of several checks, every result counts for its own check with an equal share
+     * of the line size. Lines that failed to parse or hold no results only count for the account.
+     */
+    @Async
+    @Override
+    public void writeBatch(List<WriteData> batch) {
+        LOG.debug("write metrics of batch ...");
+        for (WriteData writeData : batch) {
+            metrics.markAccount(writeData.getAccountId(), writeData.getRegion(), writeData.getDataSize());
+            if (properties.isTrackCheckRate()) {
+                markChecks(writeData);
+            }
+        }
+        LOG.debug("metrics of batch written");
+    }
+
+    private void markChecks(WriteData writeData) {
+        final List<CheckData> results = writeData.getWorkerResultOptional().map(wr -> wr.results).orElse(null);
+        if (null == results || results.isEmpty()) {
+            return;
+        }
+        final int share = writeData.getDataSize() / results.size();
+        final int remainder = writeData.getDataSize() % results.size();
+        for (int i = 0; i < results.size(); i++) {
+            metrics.markCheck(results.get(i).checkId, i == 0 ? share + remainder : share);
+        }
+    }
+
 }
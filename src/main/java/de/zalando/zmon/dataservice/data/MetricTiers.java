@@ -100,6 +100,10 @@ public class MetricTiers {
         return !isMetricEnabled(checkId);
     }
 
+    public boolean isCritical(int checkId) {
+        return criticalChecks.contains(checkId);
+    }
+
     private Map<String, Set<Integer>> getCheckTiers() throws IOException {
         final Optional<JsonNode> data = getEntityData("zmon-check-tiers");
 
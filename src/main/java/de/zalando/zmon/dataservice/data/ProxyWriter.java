@@ -58,6 +58,10 @@ public class ProxyWriter {
         }
     }
 
+    public boolean isEnabled() {
+        return null != forwardUrl;
+    }
+
     /*
     * We will reuse the original request's token for the proxy call, that saves us some setup/dependency to token management
     * */
@@ -0,0 +1,87 @@
+package de.zalando.zmon.dataservice.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds the check ids in a serialized datapoints query, the series of a check are named zmon.check.[id].
+ * <p>
+ * The query is scanned as bytes, it is not parsed.
+ */
+final class QueryCheckIds {
+
+    private static final byte[] CHECK_NAME = "\"name\":\"zmon.check.".getBytes(StandardCharsets.UTF_8);
+
+    private QueryCheckIds() {
+    }
+
+    /**
+     * @return id of the first series in the query, -1 if there is none
+     */
+    static int first(byte[] query) {
+        for (int i = indexOf(query, 0); i >= 0; i = indexOf(query, i + CHECK_NAME.length)) {
+            final int id = parse(query, i + CHECK_NAME.length);
+            if (id >= 0) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return distinct ids in ascending order, comma separated
+     */
+    static String join(byte[] query) {
+        int[] ids = new int[8];
+        int count = 0;
+        for (int i = indexOf(query, 0); i >= 0; i = indexOf(query, i + CHECK_NAME.length)) {
+            final int id = parse(query, i + CHECK_NAME.length);
+            if (id < 0) {
+                continue;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+        Arrays.sort(ids, 0, count);
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && ids[i] == ids[i - 1]) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(ids[i]);
+        }
+        return sb.toString();
+    }
+
+    // -1 if no digits follow or the id does not fit into an int
+    private static int parse(byte[] query, int from) {
+        long id = 0;
+        int i = from;
+        for (; i < query.length && query[i] >= '0' && query[i] <= '9'; i++) {
+            id = id * 10 + query[i] - '0';
+            if (id > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return i > from ? (int) id : -1;
+    }
+
+    private static int indexOf(byte[] data, int from) {
+        outer:
+        for (int i = from; i <= data.length - CHECK_NAME.length; i++) {
+            for (int j = 0; j < CHECK_NAME.length; j++) {
+                if (data[i + j] != CHECK_NAME[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -1,16 +1,27 @@
 package de.zalando.zmon.dataservice.data;
 
+import de.zalando.zmon.dataservice.DataServiceMetrics;
 import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
 import de.zalando.zmon.dataservice.config.RedisDataPointsStoreProperties;
+import io.opentracing.Tracer;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
 @Configuration
 public class QueryStoreConfig {
 
@@ -18,21 +29,140 @@ public class QueryStoreConfig {
     @ConditionalOnProperty(name = "dataservice.data_points_store_properties.enabled", havingValue = "true")
     JedisPool redisDataPointsJedisPool(final DataServiceConfigProperties dataServiceConfigProperties) {
         final RedisDataPointsStoreProperties config = dataServiceConfigProperties.getDataPointsStoreProperties();
-        final JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setTestOnBorrow(true);
-        poolConfig.setMaxTotal(config.getPoolSize());
-        return new JedisPool(poolConfig, config.getHost(), config.getPort(), config.getTimeOut());
+        return jedisPool(config, endpoints(config).get(0));
     }
 
     @Bean
     @ConditionalOnBean(name = "redisDataPointsJedisPool")
-    DataPointsQueryStore redisDataPointsQueryStore(@Qualifier("redisDataPointsJedisPool") final JedisPool jedisPool) {
-        return new RedisDataPointsQueryStore(jedisPool);
+    DataPointsQueryStore redisDataPointsQueryStore(@Qualifier("redisDataPointsJedisPool") final JedisPool jedisPool,
+                                                   final Tracer tracer,
+                                                   final DataServiceConfigProperties config,
+                                                   final DataServiceMetrics metrics,
+                                                   final Optional<DataPointsBackpressure> backpressure)
+            throws IOException {
+        final RedisDataPointsStoreProperties properties = config.getDataPointsStoreProperties();
+        final byte[] dictionary = null != properties.getZstdDictionary()
+                ? Files.readAllBytes(Paths.get(properties.getZstdDictionary())) : null;
+        final DataPointsCodec codec = DataPointsCodec.create(properties.getCodec(), properties.getCodecLevel(),
+                dictionary);
+        final List<HostAndPort> endpoints = endpoints(properties);
+        final int keys = Math.max(1, properties.getShardKeys());
+        final DataPointsQueryStore store;
+        if (properties.isStream()) {
+            if (endpoints.size() > 1 || keys > 1) {
+                throw new IllegalArgumentException("the datapoints stream can not be sharded");
+            }
+            store = new RedisStreamDataPointsQueryStore(jedisPool, tracer, codec, properties.getStreamKey(),
+                    properties.getStreamMaxLength(), properties.getStreamConsumerGroup(), metrics);
+        } else if (endpoints.size() == 1 && keys == 1) {
+            store = listStore(jedisPool, tracer, codec, properties, RedisDataPointsQueryStore.DATAPOINTS_QUEUE,
+                    metrics);
+        } else {
+            final List<ShardedDataPointsQueryStore.Shard> shards = new ArrayList<>();
+            for (int e = 0; e < endpoints.size(); e++) {
+                // the pool of the first node is the bean
+                final JedisPool pool = e == 0 ? jedisPool : jedisPool(properties, endpoints.get(e));
+                for (int k = 0; k < keys; k++) {
+                    final String queue = queue(k, keys);
+                    shards.add(new ShardedDataPointsQueryStore.Shard(endpoints.get(e) + "/" + queue, pool, queue,
+                            listStore(pool, tracer, codec, properties, queue, metrics), e > 0));
+                }
+            }
+            store = new ShardedDataPointsQueryStore(shards, properties.getShardRouting(),
+                    properties.getShardCoolDown(), metrics);
+        }
+        // below the spool, which takes the queries held back in the spool stage
+        final DataPointsQueryStore pressured = backpressure.isPresent()
+                ? new BackpressureDataPointsQueryStore(store, backpressure.get(), config.isDatapointsSpoolEnabled(),
+                        metrics)
+                : store;
+        return batching(spooling(pressured, config, metrics), config, metrics);
+    }
+
+    @Bean
+    @ConditionalOnBean(name = "redisDataPointsJedisPool")
+    @ConditionalOnProperty(name = "dataservice.data_points_store_properties.backpressure_enabled", havingValue = "true")
+    DataPointsBackpressure dataPointsBackpressure(@Qualifier("redisDataPointsJedisPool") final JedisPool jedisPool,
+                                                  final DataServiceConfigProperties config,
+                                                  final MetricTiers metricTiers,
+                                                  final DataServiceMetrics metrics) {
+        final RedisDataPointsStoreProperties properties = config.getDataPointsStoreProperties();
+        // the queues of the first node, a stream is trimmed on its own and only the memory counts
+        final List<String> queues = new ArrayList<>();
+        if (!properties.isStream()) {
+            final int keys = Math.max(1, properties.getShardKeys());
+            for (int k = 0; k < keys; k++) {
+                queues.add(queue(k, keys));
+            }
+        }
+        return new DataPointsBackpressure(jedisPool, queues, metricTiers, metrics,
+                new long[]{properties.getBackpressureSampleDepth(), properties.getBackpressureSpoolDepth(),
+                        properties.getBackpressureShedDepth()},
+                new double[]{properties.getBackpressureSampleMemory(), properties.getBackpressureSpoolMemory(),
+                        properties.getBackpressureShedMemory()},
+                properties.getBackpressureSampleRate(), properties.getBackpressureSampleInterval());
     }
 
     @Bean
     @ConditionalOnMissingBean
-    DataPointsQueryStore kairosDataPointsQueryStore(DataServiceConfigProperties config) {
-        return new KairosDataPointsQueryStore(config);
+    DataPointsQueryStore kairosDataPointsQueryStore(DataServiceConfigProperties config, DataServiceMetrics metrics,
+                                                    Tracer tracer) throws IOException {
+        return batching(spooling(new KairosDataPointsQueryStore(config, metrics, tracer), config, metrics), config,
+                metrics);
+    }
+
+    // more than one queue per node are numbered
+    private static String queue(int key, int keys) {
+        return keys == 1
+                ? RedisDataPointsQueryStore.DATAPOINTS_QUEUE
+                : RedisDataPointsQueryStore.DATAPOINTS_QUEUE + ":" + key;
+    }
+
+    private static RedisDataPointsQueryStore listStore(JedisPool pool, Tracer tracer, DataPointsCodec codec,
+                                                       RedisDataPointsStoreProperties properties, String queue,
+                                                       DataServiceMetrics metrics) {
+        final RedisPushFlusher flusher = properties.getPushFlushInterval() > 0
+                ? new RedisPushFlusher(pool, queue.getBytes(), metrics, properties.getPushFlushInterval(),
+                        properties.getPushQueueSize(), properties.getPushMaxBatch())
+                : null;
+        return new RedisDataPointsQueryStore(pool, tracer, codec, properties.isCodecEnvelope(), queue, flusher);
+    }
+
+    private static List<HostAndPort> endpoints(RedisDataPointsStoreProperties properties) {
+        final List<HostAndPort> endpoints = new ArrayList<>();
+        if (null == properties.getEndpoints() || properties.getEndpoints().isEmpty()) {
+            endpoints.add(new HostAndPort(properties.getHost(), properties.getPort()));
+            return endpoints;
+        }
+        for (String endpoint : properties.getEndpoints()) {
+            final int colon = endpoint.lastIndexOf(':');
+            endpoints.add(colon < 0
+                    ? new HostAndPort(endpoint, properties.getPort())
+                    : new HostAndPort(endpoint.substring(0, colon), Integer.parseInt(endpoint.substring(colon + 1))));
+        }
+        return endpoints;
+    }
+
+    private static JedisPool jedisPool(RedisDataPointsStoreProperties properties, HostAndPort endpoint) {
+        final JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setTestOnBorrow(true);
+        poolConfig.setMaxTotal(properties.getPoolSize());
+        return new JedisPool(poolConfig, endpoint.getHost(), endpoint.getPort(), properties.getTimeOut());
+    }
+
+    // failed writes of batches are spooled too, so the spool sits below the batching
+    private static DataPointsQueryStore spooling(DataPointsQueryStore store, DataServiceConfigProperties config,
+                                                 DataServiceMetrics metrics) throws IOException {
+        if (!config.isDatapointsSpoolEnabled()) {
+            return store;
+        }
+        final DataPointsSpool spool = new DataPointsSpool(new File(config.getDatapointsSpoolDirectory()),
+                config.getDatapointsSpoolSegmentSize(), config.getDatapointsSpoolMaxBytes());
+        return new SpoolingDataPointsQueryStore(store, spool, metrics, config.getDatapointsSpoolReplayRate());
+    }
+
+    private static DataPointsQueryStore batching(DataPointsQueryStore store, DataServiceConfigProperties config,
+                                                 DataServiceMetrics metrics) {
+        return config.isKairosdbBatchingEnabled() ? new BatchingDataPointsQueryStore(store, metrics, config) : store;
     }
 }
@@ -26,7 +26,8 @@ public class RedisConfig {
     @Bean
     RedisDataStore redisDataStore(@Qualifier("redisMainJedisPool") final JedisPool pool,
                                   @DefaultObjectMapper final ObjectMapper mapper,
-                                  final HttpEventLogger eventLogger, DataServiceMetrics metrics) {
-        return new RedisDataStore(pool, mapper, eventLogger, metrics);
+                                  final HttpEventLogger eventLogger, DataServiceMetrics metrics,
+                                  DataServiceConfigProperties config) {
+        return new RedisDataStore(pool, mapper, eventLogger, metrics, config);
     }
 }
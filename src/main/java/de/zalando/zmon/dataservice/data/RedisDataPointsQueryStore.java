@@ -13,12 +13,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
-import java.io.ByteArrayOutputStream;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -28,28 +28,84 @@ enum SpanContextFormat{TEXTMAP,BINARY}
 /**
  * Use Redis cluster as a buffer between Data-service and KairosDB.
  */
-public class RedisDataPointsQueryStore implements DataPointsQueryStore {
+public class RedisDataPointsQueryStore implements DataPointsQueryStore, Closeable {
     private final Logger LOG = getLogger(RedisDataPointsQueryStore.class);
-    private static final byte[] DATAPOINTS_QUEUE = "zmon:datapoints".getBytes();
+    static final String DATAPOINTS_QUEUE = "zmon:datapoints";
+
+    private static final byte[] NO_PREFIX = new byte[0];
 
     private final JedisPool pool;
 
+    private final byte[] queue;
+
+    private final DataPointsCodec codec;
+
+    // without envelope only gzip is possible, as it was before the envelope existed
+    private final boolean envelope;
+
+    // pushes in the background if set, otherwise every query is pushed by its writer
+    private final RedisPushFlusher flusher;
+
     @Autowired
     private Tracer tracer;
 
 
     RedisDataPointsQueryStore(final JedisPool jedisPool) {
-        this.pool = jedisPool;
+        this(jedisPool, null, DataPointsCodec.create("gzip", 0, null), false);
     }
 
     RedisDataPointsQueryStore(final JedisPool jedisPool, Tracer tracer) {
+        this(jedisPool, tracer, DataPointsCodec.create("gzip", 0, null), false);
+    }
+
+    RedisDataPointsQueryStore(final JedisPool jedisPool, Tracer tracer, DataPointsCodec codec, boolean envelope) {
+        this(jedisPool, tracer, codec, envelope, DATAPOINTS_QUEUE);
+    }
+
+    RedisDataPointsQueryStore(final JedisPool jedisPool, Tracer tracer, DataPointsCodec codec, boolean envelope,
+                              String queue) {
+        this(jedisPool, tracer, codec, envelope, queue, null);
+    }
+
+    RedisDataPointsQueryStore(final JedisPool jedisPool, Tracer tracer, DataPointsCodec codec, boolean envelope,
+                              String queue, RedisPushFlusher flusher) {
         this.pool = jedisPool;
+        this.queue = queue.getBytes();
         this.tracer = tracer;
+        this.codec = codec;
+        this.envelope = envelope || codec.id() != DataPointsCodec.GZIP;
+        this.flusher = flusher;
     }
 
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        if (null != flusher) {
+            flusher.close();
+        }
+    }
+
+    @Override
     public int store(String query) {
+        return push(() -> compress(query));
+    }
+
+    @Override
+    public int store(byte[] query) {
+        return push(() -> compress(query));
+    }
+
+    private int push(CompressedQuery query) {
+        if (null != flusher) {
+            try {
+                return flusher.offer(query.get()) ? 0 : 1;
+            } catch (IOException ex) {
+                LOG.error("failed to compress data point query", ex);
+                return 1;
+            }
+        }
         try (final Jedis jedis = pool.getResource()) {
-            jedis.lpush(DATAPOINTS_QUEUE, compress(query));
+            jedis.lpush(queue, query.get());
             return 0;
         } catch (IOException ex) {
             LOG.error("failed to compress data point query", ex);
@@ -61,35 +117,29 @@ public class RedisDataPointsQueryStore implements DataPointsQueryStore {
 
     @VisibleForTesting
     byte[] compress(String str) throws IOException {
-        final byte[] dataToCompress = str.getBytes();
-        byte[] tracePayload = buildRedisTracePayload();
+        return compress(str.getBytes());
+    }
 
-        if (tracePayload == null){
-            final ByteArrayOutputStream byteStream = new ByteArrayOutputStream(dataToCompress.length);
-            try {
-                try (GZIPOutputStream zipStream = new GZIPOutputStream(byteStream, true)) {
-                    zipStream.write(dataToCompress);
-                }
-            } finally {
-                byteStream.close();
-            }
-            return byteStream.toByteArray();
+    byte[] compress(byte[] dataToCompress) throws IOException {
+        final byte[] tracePayload = buildRedisTracePayload();
+        if (!envelope) {
+            return codec.encode(dataToCompress, null != tracePayload ? tracePayload : NO_PREFIX);
         }
 
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream(dataToCompress.length);
-        ByteArrayOutputStream payLoad = new ByteArrayOutputStream(tracePayload.length + dataToCompress.length);
-        try {
-            try (GZIPOutputStream zipStream = new GZIPOutputStream(byteStream, true)) {
-                zipStream.write(dataToCompress);
-                zipStream.close();
-                payLoad.write(tracePayload);
-                payLoad.write(byteStream.toByteArray());
-            }
-        } finally {
-            byteStream.close();
-            payLoad.close();
+        final int traceLength = null != tracePayload ? tracePayload.length : 0;
+        final byte[] prefix = new byte[3 + traceLength];
+        prefix[0] = DataPointsCodec.ENVELOPE_V1;
+        prefix[1] = codec.id();
+        prefix[2] = null != tracePayload ? DataPointsCodec.FLAG_TRACE : 0;
+        if (null != tracePayload) {
+            System.arraycopy(tracePayload, 0, prefix, 3, traceLength);
         }
-        return payLoad.toByteArray();
+        return codec.encode(dataToCompress, prefix);
+    }
+
+    @FunctionalInterface
+    private interface CompressedQuery {
+        byte[] get() throws IOException;
     }
 
     byte[] buildRedisTracePayload(){
@@ -116,6 +166,10 @@ public class RedisDataPointsQueryStore implements DataPointsQueryStore {
     }
 
     byte[] getSpanContext(String spCtxtFormat){
+        if (null == tracer.activeSpan()) {
+            // e.g. batched writes, which are not part of a request
+            return null;
+        }
         SpanContext spanContext = tracer.activeSpan().context();
 
         if (spCtxtFormat.equals(SpanContextFormat.BINARY.toString())){
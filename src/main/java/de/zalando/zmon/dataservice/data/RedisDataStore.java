@@ -1,23 +1,29 @@
 package de.zalando.zmon.dataservice.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import de.zalando.zmon.dataservice.DataServiceMetrics;
 import de.zalando.zmon.dataservice.ZMonEventType;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.data.redis.core.script.RedisScript;
-import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.scheduling.annotation.Scheduled;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
-
+import redis.clients.util.SafeEncoder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 public class RedisDataStore {
 
@@ -27,6 +33,10 @@ public class RedisDataStore {
 
     private static final String SERIALIZE_FAILED = "{\"value\": \"Serialize failed\"}";
 
+    private static final byte[] ACTIVE = SafeEncoder.encode("1");
+
+    private static final byte[] INACTIVE = SafeEncoder.encode("0");
+
     private final JedisPool pool;
 
     private final ObjectMapper mapper;
@@ -35,26 +45,52 @@ public class RedisDataStore {
 
     private final HttpEventLogger eventLogger;
 
-    private final RedisScript<Long> checkAlertScript;
+    private final LuaScript checkAlertScript;
+
+    private final LuaScript storeCheckScript;
+
+    private final boolean singleScript;
+
+    // null if disabled
+    private final ExpiringLongMap checkMemberships;
+
+    private final ExpiringLongMap entityMemberships;
+
+    // fingerprint of the last written state per alert and entity, null if disabled
+    private final ExpiringLongMap alertStates;
 
     private final DataServiceMetrics metrics;
 
     public RedisDataStore(final JedisPool pool, final ObjectMapper mapper,
                           final HttpEventLogger eventLogger, DataServiceMetrics metrics) {
+        this(pool, mapper, eventLogger, metrics, new DataServiceConfigProperties());
+    }
+
+    public RedisDataStore(final JedisPool pool, final ObjectMapper mapper,
+                          final HttpEventLogger eventLogger, DataServiceMetrics metrics, DataServiceConfigProperties config) {
         this.pool = pool;
         this.mapper = mapper;
-        this.checkAlertScript = initializeScript();
+        this.checkAlertScript = new LuaScript("redis/scripts/checkAlerts.lua");
+        this.storeCheckScript = new LuaScript("redis/scripts/storeCheck.lua");
+        this.singleScript = config.isRedisStoreScript();
+        if (config.getRedisMembershipCacheSize() > 0) {
+            final long ttl = TimeUnit.SECONDS.toMillis(config.getRedisMembershipCacheTtl());
+            this.checkMemberships = new ExpiringLongMap(config.getRedisMembershipCacheSize(), ttl);
+            this.entityMemberships = new ExpiringLongMap(config.getRedisMembershipCacheSize(), ttl);
+        } else {
+            this.checkMemberships = null;
+            this.entityMemberships = null;
+        }
+        if (config.getRedisAlertStateCacheSize() > 0) {
+            this.alertStates = new ExpiringLongMap(config.getRedisAlertStateCacheSize(),
+                    TimeUnit.SECONDS.toMillis(config.getRedisAlertRewriteInterval()));
+        } else {
+            this.alertStates = null;
+        }
         this.eventLogger = eventLogger;
         this.metrics = metrics;
     }
 
-    private static RedisScript<Long> initializeScript() {
-        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<Long>();
-        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("redis/scripts/checkAlerts.lua")));
-        redisScript.setResultType(Long.class);
-        return redisScript;
-    }
-
     public void storeTrialRun(String requestId, String id, String result) {
         try (Jedis jedis = pool.getResource()){
             String key = "zmon:trial_run:" + requestId + ":results";
@@ -90,56 +126,242 @@ public class RedisDataStore {
         }
     }
 
+    /**
+     * Creates the events of the changed alerts of a worker result that is not stored. The worker flags a transition
+     * only once, a later result does not repeat its event.
+     */
+    public void createEvents(WorkerResult wr) {
+        for (CheckData cd : wr.results) {
+            if (null == cd.alerts) {
+                continue;
+            }
+            for (AlertData alert : cd.alerts.values()) {
+                if (alert.changed) {
+                    createEvents(cd.entityId, cd.checkId, cd.getCheckResult(), alert);
+                }
+            }
+        }
+    }
+
     public void store(WorkerResult wr) {
+        store(Collections.singletonList(wr));
+    }
+
+    /**
+     * Stores all worker results with a single pipeline.
+     */
+    public void store(Collection<WorkerResult> results) {
         try (Jedis jedis = pool.getResource()){
+            store(jedis, results);
+        }
+    }
 
-            Pipeline p = jedis.pipelined();
+    /**
+     * Stores all worker results with a single pipeline on the given connection, which stays open.
+     */
+    public void store(Jedis jedis, Collection<WorkerResult> results) {
+        Pipeline p = jedis.pipelined();
+        LuaScript script = singleScript ? storeCheckScript : checkAlertScript;
+        LuaScript.Calls scriptCalls = script.calls();
 
+        for (WorkerResult wr : results) {
             for (CheckData cd : wr.results) {
-                p.sadd("zmon:checks", "" + cd.checkId);
-                p.sadd("zmon:checks:" + cd.checkId, cd.entityId);
-                String checkTs = "zmon:checks:" + cd.checkId + ":" + cd.entityId;
+                if (singleScript) {
+                    storeWithScript(p, scriptCalls, cd);
+                } else {
+                    store(p, scriptCalls, cd);
+                }
+            }
+        }
+        try {
+            p.sync();
+        } catch (RuntimeException e) {
+            // memberships and alert states written with this pipeline are not confirmed
+            clearWriteCaches();
+            throw e;
+        }
 
-                String checkValue = writeValueAsString(cd.checkResult).orElse(EMPTY_CHECK);
-                p.lpush(checkTs, checkValue);
-                p.ltrim(checkTs, 0, 2);
+        if (!scriptCalls.isEmpty()) {
+            int reloaded = scriptCalls.retryMissingScript(jedis);
+            if (reloaded > 0) {
+                LOG.info("reloaded script={} for calls={}", script.getSha1(), reloaded);
+                metrics.markRedisScriptReload();
+            }
+        }
+    }
 
-                if (null != cd.alerts) {
-                    for (AlertData alert : cd.alerts.values()) {
+    /**
+     * Number of Redis commands {@link #store(Jedis, Collection)} sends at most for the worker result, changed alerts
+     * take four commands each.
+     */
+    public int commandCount(WorkerResult wr) {
+        int commands = 0;
+        for (CheckData cd : wr.results) {
+            final int alerts = null != cd.alerts ? cd.alerts.size() : 0;
+            commands += singleScript ? 1 : 4 + 4 * alerts;
+        }
+        return commands;
+    }
 
-                        createEvents(cd.entityId, cd.checkId, cd.checkResult, alert);
+    /**
+     * Drops all cached memberships and alert states, the next results write them again. Repairs keys changed from
+     * outside.
+     */
+    @Scheduled(fixedRateString = "#{@dataServiceConfigProperties.redisMembershipCacheRefresh * 1000}")
+    public void clearWriteCaches() {
+        if (null != checkMemberships) {
+            checkMemberships.clear();
+            entityMemberships.clear();
+        }
+        if (null != alertStates) {
+            alertStates.clear();
+        }
+    }
 
-                        if (alert.active && alert.in_period) {
-                            p.sadd("zmon:alerts:" + alert.alert_id, cd.entityId);
+    private void store(Pipeline p, LuaScript.Calls alertChecks, CheckData cd) {
+        if (null == checkMemberships) {
+            p.sadd("zmon:checks", "" + cd.checkId);
+            p.sadd("zmon:checks:" + cd.checkId, cd.entityId);
+        } else {
+            addMemberships(p, cd);
+        }
+        String checkTs = "zmon:checks:" + cd.checkId + ":" + cd.entityId;
 
-                            String value = buildValue(alert, cd);
+        p.lpush(SafeEncoder.encode(checkTs), checkValue(cd));
+        p.ltrim(checkTs, 0, 2);
 
-                            p.set("zmon:alerts:" + alert.alert_id + ":" + cd.entityId, value);
+        if (null != cd.alerts) {
+            for (AlertData alert : cd.alerts.values()) {
 
-                        } else {
-                            p.srem("zmon:alerts:" + alert.alert_id, cd.entityId);
-                            p.del("zmon:alerts:" + alert.alert_id + ":" + cd.entityId);
-                        }
+                trackAlert(cd, alert);
 
-                        String captures = writeValueAsString(alert.captures).orElse(CAPTURES_NOT_SERIALIZED);
+                final boolean active = alert.active && alert.in_period;
+                final String captures = writeValueAsString(alert.captures).orElse(CAPTURES_NOT_SERIALIZED);
+                final boolean unchanged = isAlertStateUnchanged(alert, cd.entityId, active, captures);
 
-                        p.hset("zmon:alerts:" + alert.alert_id + ":entities", cd.entityId, captures);
+                if (active) {
+                    if (!unchanged) {
+                        p.sadd("zmon:alerts:" + alert.alert_id, cd.entityId);
+                    }
 
-                        p.eval("if redis.call('scard','zmon:alerts:" + alert.alert_id + "') == 0 then " +
-                                    "redis.call('srem','zmon:alert-acks', " + alert.alert_id + "); " +
-                                    "return redis.call('srem','zmon:alerts'," + alert.alert_id + ") " +
-                                "else " +
-                                    "return redis.call('sadd','zmon:alerts'," + alert.alert_id + ") " +
-                                "end");
+                    // always written, the value carries the latest check result
+                    String value = buildValue(alert, cd);
 
-                        if (alert.alert_evaluation_ts != null) {
-                            Double duration = Math.abs(System.currentTimeMillis() - alert.alert_evaluation_ts * 1000.);
-                            metrics.updateAlertDurations(duration.longValue());
-                        }
-                    }
+                    p.set("zmon:alerts:" + alert.alert_id + ":" + cd.entityId, value);
+
+                } else if (!unchanged) {
+                    p.srem("zmon:alerts:" + alert.alert_id, cd.entityId);
+                    p.del("zmon:alerts:" + alert.alert_id + ":" + cd.entityId);
+                }
+
+                if (!unchanged) {
+                    p.hset("zmon:alerts:" + alert.alert_id + ":entities", cd.entityId, captures);
+
+                    alertChecks.evalsha(p, 1, "zmon:alerts:" + alert.alert_id, String.valueOf(alert.alert_id));
                 }
             }
-            p.sync();
+        }
+    }
+
+    /**
+     * Same updates as {@link #store(Pipeline, LuaScript.Calls, CheckData)}, applied atomically by storeCheck.lua.
+     */
+    private void storeWithScript(Pipeline p, LuaScript.Calls storeChecks, CheckData cd) {
+        final int alerts = null != cd.alerts ? cd.alerts.size() : 0;
+        final String checkKey = "zmon:checks:" + cd.checkId;
+        final List<byte[]> keys = new ArrayList<>(5 + 3 * alerts);
+        keys.add(SafeEncoder.encode("zmon:checks"));
+        keys.add(SafeEncoder.encode(checkKey));
+        keys.add(SafeEncoder.encode(checkKey + ":" + cd.entityId));
+        keys.add(SafeEncoder.encode("zmon:alerts"));
+        keys.add(SafeEncoder.encode("zmon:alert-acks"));
+
+        final List<byte[]> args = new ArrayList<>(3 + 4 * alerts);
+        args.add(SafeEncoder.encode(String.valueOf(cd.checkId)));
+        args.add(SafeEncoder.encode(cd.entityId));
+        args.add(checkValue(cd));
+
+        if (null != cd.alerts) {
+            for (AlertData alert : cd.alerts.values()) {
+
+                trackAlert(cd, alert);
+
+                final boolean active = alert.active && alert.in_period;
+                final String captures = writeValueAsString(alert.captures).orElse(CAPTURES_NOT_SERIALIZED);
+                if (isAlertStateUnchanged(alert, cd.entityId, active, captures) && !active) {
+                    continue;
+                }
+                final String alertKey = "zmon:alerts:" + alert.alert_id;
+                keys.add(SafeEncoder.encode(alertKey));
+                keys.add(SafeEncoder.encode(alertKey + ":" + cd.entityId));
+                keys.add(SafeEncoder.encode(alertKey + ":entities"));
+
+                args.add(SafeEncoder.encode(String.valueOf(alert.alert_id)));
+                args.add(active ? ACTIVE : INACTIVE);
+                args.add(SafeEncoder.encode(active ? buildValue(alert, cd) : ""));
+                args.add(SafeEncoder.encode(captures));
+            }
+        }
+        final int keyCount = keys.size();
+        keys.addAll(args);
+        storeChecks.evalsha(p, keyCount, keys.toArray(new byte[keys.size()][]));
+    }
+
+    /**
+     * Compares the fingerprint of state and captures with the one last written for the alert and entity, a changed
+     * fingerprint is remembered as written. Once the rewrite interval passed the state counts as changed.
+     */
+    private boolean isAlertStateUnchanged(AlertData alert, String entityId, boolean active, String captures) {
+        if (null == alertStates) {
+            return false;
+        }
+        final long key = ExpiringLongMap.hash(alert.alert_id, entityId);
+        final long fingerprint = ExpiringLongMap.hash(active ? 1 : 0, captures);
+        if (alertStates.contains(key, fingerprint)) {
+            metrics.markRedisAlertWriteSkipped();
+            return true;
+        }
+        alertStates.put(key, fingerprint);
+        return false;
+    }
+
+    private void addMemberships(Pipeline p, CheckData cd) {
+        int skipped = 0;
+        final long checkKey = cd.checkId;
+        if (checkMemberships.containsKey(checkKey)) {
+            skipped++;
+        } else {
+            p.sadd("zmon:checks", "" + cd.checkId);
+            checkMemberships.put(checkKey);
+        }
+        final long entityKey = ExpiringLongMap.hash(cd.checkId, cd.entityId);
+        if (entityMemberships.containsKey(entityKey)) {
+            skipped++;
+        } else {
+            p.sadd("zmon:checks:" + cd.checkId, cd.entityId);
+            entityMemberships.put(entityKey);
+        }
+        if (skipped > 0) {
+            metrics.markRedisMembershipSkipped(skipped);
+        }
+    }
+
+    private byte[] checkValue(CheckData cd) {
+        if (null != cd.checkResultJson) {
+            // already compact JSON, pushed unchanged
+            return cd.checkResultJson;
+        }
+        return SafeEncoder.encode(writeValueAsString(cd.checkResult).orElse(EMPTY_CHECK));
+    }
+
+    private void trackAlert(CheckData cd, AlertData alert) {
+        if (null != eventLogger && alert.changed) {
+            createEvents(cd.entityId, cd.checkId, cd.getCheckResult(), alert);
+        }
+
+        if (alert.alert_evaluation_ts != null) {
+            Double duration = Math.abs(System.currentTimeMillis() - alert.alert_evaluation_ts * 1000.);
+            metrics.updateAlertDurations(duration.longValue());
         }
     }
 
@@ -153,11 +375,6 @@ public class RedisDataStore {
     }
 
     protected String buildValue(AlertData alert, CheckData cd) {
-        String value = SERIALIZE_FAILED;
-        ObjectNode vNode = mapper.createObjectNode();
-        vNode.set("captures", alert.captures);
-        vNode.set("downtimes", alert.downtimes);
-
         Double alertStart = null;
         if (alert.start_time_ts != null) {
             alertStart = alert.start_time_ts;
@@ -165,23 +382,38 @@ public class RedisDataStore {
             alertStart = PyString.extractDate(alert.start_time).getTime() / 1000.;
         }
 
-        vNode.put("start_time", alertStart);
-
-        vNode.set("ts", cd.checkResult.get("ts"));
-        vNode.set("td", cd.checkResult.get("td"));
-        vNode.set("worker", cd.checkResult.get("worker"));
-
-        if (cd.exception) {
-            vNode.put("exc", 1);
-        }
-
-        vNode.putPOJO("value", cd.checkResult.get("value"));
-
-        try {
-            value = mapper.writeValueAsString(vNode);
-        } catch (JsonProcessingException ex) {
+        final JsonNode checkResult = cd.getCheckResultFields("ts", "td", "worker", "value");
+
+        // written field by field, missing values end up as null
+        final StringWriter value = new StringWriter();
+        try (JsonGenerator g = mapper.getFactory().createGenerator(value)) {
+            g.writeStartObject();
+            g.writeFieldName("captures");
+            g.writeTree(alert.captures);
+            g.writeFieldName("downtimes");
+            g.writeTree(alert.downtimes);
+            g.writeFieldName("start_time");
+            if (null != alertStart) {
+                g.writeNumber(alertStart);
+            } else {
+                g.writeNull();
+            }
+            g.writeFieldName("ts");
+            g.writeTree(checkResult.get("ts"));
+            g.writeFieldName("td");
+            g.writeTree(checkResult.get("td"));
+            g.writeFieldName("worker");
+            g.writeTree(checkResult.get("worker"));
+            if (cd.exception) {
+                g.writeNumberField("exc", 1);
+            }
+            g.writeFieldName("value");
+            g.writeTree(checkResult.get("value"));
+            g.writeEndObject();
+        } catch (IOException ex) {
             LOG.error("", ex);
+            return SERIALIZE_FAILED;
         }
-        return value;
+        return value.toString();
     }
 }
@@ -0,0 +1,163 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the compressed queries of many writers to a Redis list with one variadic LPUSH.
+ * <p>
+ * Writers only queue their payload, a single thread takes them and pushes a batch once it reaches the max size or
+ * its oldest payload waited for the flush interval. A writer never waits for Redis or a pooled connection, if the
+ * queue is full its payload is dropped and {@link #offer(byte[])} returns false.
+ * <p>
+ * A failed push is repeated after the flush interval with the same batch. Until a push succeeds again new payloads are
+ * refused, so the writers see the failure: the spool takes their queries and a sharded store skips this queue. The
+ * payloads queued before the failure are kept and pushed once Redis is back.
+ * <p>
+ * On close the queued payloads get one more push, payloads still not pushed are counted as dropped.
+ */
+final class RedisPushFlusher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisPushFlusher.class);
+
+    private final JedisPool pool;
+
+    private final byte[] queue;
+
+    private final DataServiceMetrics metrics;
+
+    private final BlockingQueue<Entry> pending;
+
+    private final long intervalNanos;
+
+    private final int maxBatch;
+
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    // set by a failed push until the next push succeeds
+    private volatile boolean failing;
+
+    /**
+     * @param capacity payloads waiting for a push, more are dropped
+     * @param maxBatch payloads pushed with one LPUSH
+     */
+    RedisPushFlusher(JedisPool pool, byte[] queue, DataServiceMetrics metrics, long intervalMillis, int capacity,
+                     int maxBatch) {
+        this.pool = pool;
+        this.queue = queue;
+        this.metrics = metrics;
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxBatch = maxBatch;
+        this.flusher = new ThreadFactoryBuilder().setNameFormat("datapoints-push-flusher").setDaemon(true).build()
+                .newThread(this::run);
+        flusher.start();
+    }
+
+    /**
+     * @return false if the payload was dropped, also while pushes fail or after close
+     */
+    boolean offer(byte[] payload) {
+        if (failing || !running) {
+            return false;
+        }
+        if (pending.offer(new Entry(payload, System.nanoTime()))) {
+            return true;
+        }
+        metrics.markDataPointsPushDropped();
+        return false;
+    }
+
+    /**
+     * Pushes the queued payloads, a push failing now drops them.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final List<Entry> batch = new ArrayList<>(maxBatch);
+        try {
+            while (running || !pending.isEmpty()) {
+                final Entry first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                batch.add(first);
+                final long deadline = first.queued + intervalNanos;
+                while (batch.size() < maxBatch) {
+                    final long remaining = deadline - System.nanoTime();
+                    final Entry next = remaining > 0 && running
+                            ? pending.poll(remaining, TimeUnit.NANOSECONDS) : pending.poll();
+                    if (null == next) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                boolean pushed;
+                while (!(pushed = push(batch)) && running) {
+                    TimeUnit.NANOSECONDS.sleep(Math.max(intervalNanos, TimeUnit.MILLISECONDS.toNanos(100)));
+                }
+                if (!pushed) {
+                    LOG.error("dropping {} data point queries not pushed on close", batch.size());
+                    metrics.markDataPointsPushDropped(batch.size());
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean push(List<Entry> batch) {
+        final byte[][] payloads = new byte[batch.size()][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = batch.get(i).payload;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            jedis.lpush(queue, payloads);
+        } catch (Exception e) {
+            LOG.error("failed to push {} data point queries to the redis queue", payloads.length, e);
+            failing = true;
+            metrics.markDataPointsPushError();
+            return false;
+        }
+        failing = false;
+        final long now = System.nanoTime();
+        metrics.updateDataPointsPushBatch(payloads.length);
+        for (Entry entry : batch) {
+            metrics.updateDataPointsPushWait(TimeUnit.NANOSECONDS.toMillis(now - entry.queued));
+        }
+        return true;
+    }
+
+    private static class Entry {
+        private final byte[] payload;
+        private final long queued;
+
+        Entry(byte[] payload, long queued) {
+            this.payload = payload;
+            this.queued = queued;
+        }
+    }
+}
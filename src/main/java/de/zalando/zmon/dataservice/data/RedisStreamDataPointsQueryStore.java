@@ -0,0 +1,155 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import io.opentracing.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.SafeEncoder;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Use a Redis stream as buffer between Data-service and KairosDB, read by workers of a consumer group.
+ * <p>
+ * Every query is one stream entry with the fields
+ * <pre>
+ * data     compressed query, same format as in the list queue
+ * points   number of data points, 0 if unknown
+ * checks   ids of the checks in the query, comma separated
+ * created  time of the write in ms
+ * </pre>
+ * The stream is trimmed to about the max length on every write. Jedis has no stream commands, XADD and the length
+ * and pending entries of the consumer group are run as Lua scripts, which needs Redis 5 or newer.
+ */
+public class RedisStreamDataPointsQueryStore extends RedisDataPointsQueryStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisStreamDataPointsQueryStore.class);
+
+    private static final LuaScript XADD = new LuaScript("redis/scripts/xaddDatapoints.lua");
+
+    private static final LuaScript INFO = new LuaScript("redis/scripts/datapointsStreamInfo.lua");
+
+    private static final LuaScript CREATE_GROUP = new LuaScript("redis/scripts/createDatapointsGroup.lua");
+
+    private static final long REFRESH_INTERVAL_MILLIS = 10000;
+
+    private static final byte[] DATA = SafeEncoder.encode("data");
+
+    private static final byte[] POINTS = SafeEncoder.encode("points");
+
+    private static final byte[] CHECKS = SafeEncoder.encode("checks");
+
+    private static final byte[] CREATED = SafeEncoder.encode("created");
+
+    private final JedisPool pool;
+
+    private final byte[] stream;
+
+    private final byte[] maxLength;
+
+    // null if no consumer group is watched
+    private final String consumerGroup;
+
+    private final ScheduledExecutorService refresher;
+
+    private volatile long length;
+
+    private volatile long pending = -1;
+
+    /**
+     * @param maxLength     approximate number of entries kept in the stream
+     * @param consumerGroup group created if missing and reported as pending entries, may be null
+     */
+    RedisStreamDataPointsQueryStore(JedisPool jedisPool, Tracer tracer, DataPointsCodec codec, String stream,
+                                    long maxLength, String consumerGroup, DataServiceMetrics metrics) {
+        this(jedisPool, tracer, codec, stream, maxLength, consumerGroup, metrics, REFRESH_INTERVAL_MILLIS);
+    }
+
+    RedisStreamDataPointsQueryStore(JedisPool jedisPool, Tracer tracer, DataPointsCodec codec, String stream,
+                                    long maxLength, String consumerGroup, DataServiceMetrics metrics,
+                                    long refreshIntervalMillis) {
+        // entries are read by new consumers only, they always get the codec envelope
+        super(jedisPool, tracer, codec, true);
+        this.pool = jedisPool;
+        this.stream = SafeEncoder.encode(stream);
+        this.maxLength = SafeEncoder.encode(Long.toString(maxLength));
+        this.consumerGroup = consumerGroup;
+
+        metrics.registerDataPointsStream(() -> length, () -> pending);
+        refresher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("datapoints-stream-info").setDaemon(true).build());
+        refresher.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        refresher.shutdownNow();
+        super.close();
+    }
+
+    @Override
+    public int store(String query) {
+        return store(query.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int store(byte[] query) {
+        return store(query, 0);
+    }
+
+    @Override
+    public int store(byte[] query, int points) {
+        final byte[] data;
+        try {
+            data = compress(query);
+        } catch (IOException ex) {
+            LOG.error("failed to compress data point query", ex);
+            return 1;
+        }
+        try (final Jedis jedis = pool.getResource()) {
+            XADD.evalsha(jedis, 1, stream, maxLength,
+                    DATA, data,
+                    POINTS, SafeEncoder.encode(Integer.toString(points)),
+                    CHECKS, SafeEncoder.encode(QueryCheckIds.join(query)),
+                    CREATED, SafeEncoder.encode(Long.toString(System.currentTimeMillis())));
+            return 0;
+        } catch (Exception ex) {
+            LOG.error("failed to add data point query to the redis stream", ex);
+        }
+        return 1;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    long getPending() {
+        return pending;
+    }
+
+    void refresh() {
+        try (final Jedis jedis = pool.getResource()) {
+            final byte[] group = SafeEncoder.encode(null != consumerGroup ? consumerGroup : "");
+            if (null != consumerGroup && pending < 0) {
+                CREATE_GROUP.evalsha(jedis, 1, stream, group);
+            }
+            final List<?> info = (List<?>) INFO.evalsha(jedis, 1, stream, group);
+            length = (Long) info.get(0);
+            pending = (Long) info.get(1);
+        } catch (Exception ex) {
+            LOG.warn("failed to read the length of the datapoints stream", ex);
+        }
+    }
+}
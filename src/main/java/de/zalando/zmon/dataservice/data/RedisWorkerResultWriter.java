@@ -3,12 +3,18 @@ package de.zalando.zmon.dataservice.data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
 import de.zalando.zmon.dataservice.DataServiceMetrics;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
 @Component
+@ConditionalOnProperty(name = "dataservice.redis-coalescing-enabled", havingValue = "false", matchIfMissing = true)
 public class RedisWorkerResultWriter implements WorkResultWriter {
 
     public static final String REDIS_WRITER_EXECUTOR = "redis-writer";
@@ -39,4 +45,24 @@ public class RedisWorkerResultWriter implements WorkResultWriter {
         }
     }
 
+    @Async(REDIS_WRITER_EXECUTOR)
+    @Override
+    public void writeBatch(List<WriteData> batch) {
+        log.debug("write batch to redis ...");
+        final List<WorkerResult> results = batch.stream()
+                .map(WriteData::getWorkerResultOptional)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+        if (!results.isEmpty()) {
+            try {
+                redisDataStore.store(results);
+                log.debug("batch written to redis");
+            } catch (Exception e) {
+                log.error("failed redis write for batch of size={}", results.size(), e);
+                metrics.markRedisError();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,47 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes request bodies according to their Content-Encoding header, the decompression is streamed into the parser.
+ */
+final class RequestBodyDecoder {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private RequestBodyDecoder() {
+    }
+
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (null == contentEncoding || contentEncoding.trim().isEmpty()) {
+            return body;
+        }
+
+        // encodings are listed in the order they were applied
+        final String[] encodings = contentEncoding.split(",");
+        InputStream decoded = body;
+        for (int i = encodings.length - 1; i >= 0; --i) {
+            decoded = decodeSingle(decoded, encodings[i].trim().toLowerCase(Locale.ENGLISH));
+        }
+        return decoded;
+    }
+
+    private static InputStream decodeSingle(InputStream body, String encoding) throws IOException {
+        switch (encoding) {
+            case "identity":
+                return body;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(body, BUFFER_SIZE);
+            case "zstd":
+                return new ZstdInputStream(body);
+            default:
+                throw new UnsupportedContentEncodingException(encoding);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the number of distinct KairosDB series (entity, key and tags) of every check with a HyperLogLog sketch,
+ * and decides what to do with new series of a check over its budget.
+ * <p>
+ * Each check keeps the registers of the current window and the union with the previous window, the estimate covers
+ * one to two windows. A series is new if its rank is above the union register, this never misses a new series that
+ * changes the estimate, but a small share of new series look known and pass. Known series of a check over budget are
+ * always written, only growth is limited.
+ */
+class SeriesCardinality {
+
+    enum Action {
+        // only tracked
+        NONE,
+        // new series are not written
+        DROP,
+        // a stable share of new series is written
+        SAMPLE,
+        // new series are written without the key and path tags
+        STRIP
+    }
+
+    enum Decision {
+        KEEP, DROP, STRIP
+    }
+
+    // 2^10 registers, about 3% standard error in 1KB per register set
+    private static final int PRECISION = 10;
+
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA_MM = 0.7213 / (1 + 1.079 / REGISTERS) * REGISTERS * REGISTERS;
+
+    private final Map<Integer, Check> checks = new ConcurrentHashMap<>();
+
+    private final int defaultBudget;
+
+    private final Map<Integer, Integer> checkBudgets;
+
+    private final Action action;
+
+    // share of the 24 low hash bits
+    private final int sampleThreshold;
+
+    private final long windowMillis;
+
+    /**
+     * @param defaultBudget series per check, 0 for no budget
+     * @param checkBudgets  budgets of single checks, overriding the default
+     * @param action        one of none, drop, sample, strip
+     */
+    SeriesCardinality(int defaultBudget, Map<Integer, Integer> checkBudgets, String action, double sampleRate,
+                      long windowMillis) {
+        this.defaultBudget = defaultBudget;
+        this.checkBudgets = null != checkBudgets ? checkBudgets : Collections.emptyMap();
+        this.action = Action.valueOf(action.toUpperCase(Locale.ENGLISH));
+        this.sampleThreshold = (int) (sampleRate * (1 << 24));
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return sketch of the check, rotated to the window of now
+     */
+    Check check(int checkId, long now) {
+        Check check = checks.get(checkId);
+        if (null == check) {
+            check = checks.computeIfAbsent(checkId, id -> new Check(id, checkBudgets.getOrDefault(id, defaultBudget), now));
+        }
+        check.rotate(now);
+        return check;
+    }
+
+    /**
+     * @return estimated series of the check, null if it is not tracked
+     */
+    CheckSeries get(int checkId) {
+        final Check check = checks.get(checkId);
+        return null != check ? new CheckSeries(check.checkId, check.estimate(), check.budget) : null;
+    }
+
+    /**
+     * @return checks by estimated series, descending
+     */
+    List<CheckSeries> snapshot() {
+        final List<CheckSeries> result = new ArrayList<>(checks.size());
+        for (Check check : checks.values()) {
+            result.add(new CheckSeries(check.checkId, check.estimate(), check.budget));
+        }
+        result.sort(Comparator.comparingLong(CheckSeries::getSeries).reversed());
+        return result;
+    }
+
+    int getChecksOverBudget() {
+        int count = 0;
+        for (Check check : checks.values()) {
+            if (check.isOverBudget()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    long getMaxSeries() {
+        long max = 0;
+        for (Check check : checks.values()) {
+            max = Math.max(max, check.estimate());
+        }
+        return max;
+    }
+
+    /**
+     * Combines the hashes of the entity and the key tags into the hash of a series.
+     */
+    static long seriesHash(long entityHash, long keyHash) {
+        // murmur3 fmix64
+        long h = entityHash ^ (keyHash * 0x9e3779b97f4a7c15L);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    final class Check {
+        private final int checkId;
+        private final int budget;
+        private final byte[] current = new byte[REGISTERS];
+        private final byte[] union = new byte[REGISTERS];
+        // sum of 2^-register and empty registers of the union, kept up to date on every change
+        private double sum = REGISTERS;
+        private int zeros = REGISTERS;
+        private long windowStart;
+
+        private Check(int checkId, int budget, long now) {
+            this.checkId = checkId;
+            this.budget = budget;
+            this.windowStart = now;
+        }
+
+        synchronized Decision offer(long hash) {
+            final int index = (int) (hash >>> (64 - PRECISION));
+            final byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+
+            if (rank > union[index] && action != Action.NONE && isOverBudget()) {
+                switch (action) {
+                    case DROP:
+                        return Decision.DROP;
+                    case STRIP:
+                        return Decision.STRIP;
+                    case SAMPLE:
+                        if ((hash & 0xffffff) >= sampleThreshold) {
+                            return Decision.DROP;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            if (rank > current[index]) {
+                current[index] = rank;
+            }
+            if (rank > union[index]) {
+                if (union[index] == 0) {
+                    zeros--;
+                }
+                sum += Math.scalb(1.0, -rank) - Math.scalb(1.0, -union[index]);
+                union[index] = rank;
+            }
+            return Decision.KEEP;
+        }
+
+        synchronized long estimate() {
+            final double estimate = ALPHA_MM / sum;
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                // linear counting for small cardinalities
+                return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+            }
+            return Math.round(estimate);
+        }
+
+        boolean isOverBudget() {
+            return budget > 0 && estimate() > budget;
+        }
+
+        private synchronized void rotate(long now) {
+            if (now - windowStart < windowMillis) {
+                return;
+            }
+            // the union starts as the window that just ended
+            System.arraycopy(current, 0, union, 0, REGISTERS);
+            sum = 0;
+            zeros = 0;
+            for (byte register : union) {
+                sum += Math.scalb(1.0, -register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            Arrays.fill(current, (byte) 0);
+            windowStart = now;
+        }
+    }
+
+    static final class CheckSeries {
+        private final int checkId;
+        private final long series;
+        private final int budget;
+
+        CheckSeries(int checkId, long series, int budget) {
+            this.checkId = checkId;
+            this.series = series;
+            this.budget = budget;
+        }
+
+        @JsonProperty("check_id")
+        public int getCheckId() {
+            return checkId;
+        }
+
+        @JsonProperty("series")
+        public long getSeries() {
+            return series;
+        }
+
+        @JsonProperty("budget")
+        public int getBudget() {
+            return budget;
+        }
+
+        @JsonProperty("over_budget")
+        public boolean isOverBudget() {
+            return budget > 0 && series > budget;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Estimated KairosDB series per check, to find checks with unbounded tag values.
+ */
+@RestController
+@RequestMapping("/api/v1/kairosdb/cardinality")
+public class SeriesCardinalityController {
+
+    private final KairosDBStore kairosDBStore;
+
+    @Autowired
+    public SeriesCardinalityController(KairosDBStore kairosDBStore) {
+        this.kairosDBStore = kairosDBStore;
+    }
+
+    @RequestMapping(method = RequestMethod.GET)
+    public ResponseEntity<List<SeriesCardinality.CheckSeries>> getChecks(
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        final SeriesCardinality cardinality = kairosDBStore.getCardinality();
+        if (null == cardinality) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final List<SeriesCardinality.CheckSeries> checks = cardinality.snapshot();
+        return new ResponseEntity<>(checks.subList(0, Math.min(Math.max(0, limit), checks.size())), HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/{checkId}", method = RequestMethod.GET)
+    public ResponseEntity<SeriesCardinality.CheckSeries> getCheck(@PathVariable("checkId") int checkId) {
+        final SeriesCardinality cardinality = kairosDBStore.getCardinality();
+        if (null == cardinality) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final SeriesCardinality.CheckSeries check = cardinality.get(checkId);
+        return null != check
+                ? new ResponseEntity<>(check, HttpStatus.OK)
+                : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+}
@@ -0,0 +1,221 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Spreads datapoints queries over several Redis queues, on one or more Redis nodes.
+ * <p>
+ * A query goes to the shard of its first check or to the next shard in turn. If the shard fails, the query is written
+ * to the following shards until one accepts it, the failed shard is skipped for a cool down. If all shards are cooling
+ * down, the query is tried on its own shard anyway. The depth of every queue is read periodically and reported as
+ * gauge, together with the health of the shard.
+ * <p>
+ * Routing by check keeps the queries of a check in one queue as long as its shard is healthy. Batched queries hold
+ * many checks, they are routed by the first one.
+ */
+public class ShardedDataPointsQueryStore implements DataPointsQueryStore, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedDataPointsQueryStore.class);
+
+    private static final long REFRESH_INTERVAL_MILLIS = 10000;
+
+    enum Routing {
+        ROUND_ROBIN, CHECK
+    }
+
+    private final List<Shard> shards;
+
+    private final Routing routing;
+
+    private final long coolDownMillis;
+
+    private final DataServiceMetrics metrics;
+
+    private final LongSupplier clock;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * @param routing round-robin or check
+     */
+    ShardedDataPointsQueryStore(List<Shard> shards, String routing, long coolDownMillis, DataServiceMetrics metrics) {
+        this(shards, routing, coolDownMillis, metrics, REFRESH_INTERVAL_MILLIS, System::currentTimeMillis);
+    }
+
+    ShardedDataPointsQueryStore(List<Shard> shards, String routing, long coolDownMillis, DataServiceMetrics metrics,
+                                long refreshIntervalMillis, LongSupplier clock) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("no datapoints shards");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.routing = Routing.valueOf(routing.replace('-', '_').toUpperCase(Locale.ENGLISH));
+        this.coolDownMillis = coolDownMillis;
+        this.metrics = metrics;
+        this.clock = clock;
+
+        for (int i = 0; i < this.shards.size(); i++) {
+            final Shard shard = this.shards.get(i);
+            LOG.info("datapoints shard {}: {}", i, shard.name);
+            metrics.registerDataPointsShard(i, () -> shard.depth, () -> shard.isHealthy(clock.getAsLong()) ? 1 : 0);
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("datapoints-shard-depth").setDaemon(true).build());
+        refresher.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the stores of all shards and the pools owned by the shards.
+     */
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        refresher.shutdownNow();
+        final Map<JedisPool, Boolean> pools = new IdentityHashMap<>();
+        for (Shard shard : shards) {
+            if (shard.store instanceof Closeable) {
+                ((Closeable) shard.store).close();
+            }
+            if (shard.ownsPool) {
+                pools.put(shard.pool, Boolean.TRUE);
+            }
+        }
+        for (JedisPool pool : pools.keySet()) {
+            pool.close();
+        }
+    }
+
+    @Override
+    public int store(byte[] query) {
+        return store(query, 0);
+    }
+
+    @Override
+    public int store(byte[] query, int points) {
+        final int n = shards.size();
+        final int first = route(query);
+        final long now = clock.getAsLong();
+        boolean attempted = false;
+        for (int i = 0; i < n; i++) {
+            final Shard shard = shards.get((first + i) % n);
+            if (!shard.isHealthy(now)) {
+                continue;
+            }
+            attempted = true;
+            if (write(shard, query, points, now)) {
+                if (i > 0) {
+                    metrics.markDataPointsShardFallback();
+                }
+                return 0;
+            }
+        }
+        if (!attempted && write(shards.get(first), query, points, now)) {
+            return 0;
+        }
+        return 1;
+    }
+
+    void refresh() {
+        for (Shard shard : shards) {
+            try (Jedis jedis = shard.pool.getResource()) {
+                shard.depth = jedis.llen(shard.queue);
+            } catch (Exception ex) {
+                LOG.warn("failed to read the depth of datapoints shard {}", shard.name, ex);
+                shard.unhealthyUntil = clock.getAsLong() + coolDownMillis;
+            }
+        }
+    }
+
+    List<Shard> getShards() {
+        return shards;
+    }
+
+    private int route(byte[] query) {
+        if (routing == Routing.CHECK) {
+            final int checkId = QueryCheckIds.first(query);
+            if (checkId >= 0) {
+                return Math.floorMod(checkId, shards.size());
+            }
+        }
+        return Math.floorMod(next.getAndIncrement(), shards.size());
+    }
+
+    private boolean write(Shard shard, byte[] query, int points, long now) {
+        int errors;
+        try {
+            errors = shard.store.store(query, points);
+        } catch (RuntimeException ex) {
+            LOG.error("datapoints write to shard {} failed", shard.name, ex);
+            errors = 1;
+        }
+        if (errors > 0) {
+            LOG.warn("datapoints shard {} failed, skipping it for {}ms", shard.name, coolDownMillis);
+            shard.unhealthyUntil = now + coolDownMillis;
+            return false;
+        }
+        shard.unhealthyUntil = 0;
+        return true;
+    }
+
+    /**
+     * One queue on one Redis node.
+     */
+    static final class Shard {
+        private final String name;
+        private final JedisPool pool;
+        private final String queue;
+        private final DataPointsQueryStore store;
+        // closed with the sharded store
+        private final boolean ownsPool;
+        // -1 until read
+        private volatile long depth = -1;
+        private volatile long unhealthyUntil;
+
+        /**
+         * @param store writes to the queue on the pool
+         */
+        Shard(String name, JedisPool pool, String queue, DataPointsQueryStore store) {
+            this(name, pool, queue, store, false);
+        }
+
+        /**
+         * @param ownsPool true if the pool was created for the shards and is closed with them
+         */
+        Shard(String name, JedisPool pool, String queue, DataPointsQueryStore store, boolean ownsPool) {
+            this.name = name;
+            this.pool = pool;
+            this.queue = queue;
+            this.store = store;
+            this.ownsPool = ownsPool;
+        }
+
+        long getDepth() {
+            return depth;
+        }
+
+        boolean isHealthy(long now) {
+            return now >= unhealthyUntil;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spools queries the wrapped store failed to write and replays them in order once it accepts writes again.
+ * <p>
+ * New queries are always written directly, only failed ones are spooled, so fresh datapoints are not delayed behind a
+ * backlog. The replay stops at the first failure and is retried with the next run. It is limited to a number of bytes
+ * per second, a recovering KairosDB or Redis gets the backlog gradually next to the live traffic. Stores report only
+ * failures a retry can fix, a query rejected for good is neither spooled nor blocks the replay.
+ * <p>
+ * A query replayed to several KairosDB url groups is written again to groups that already stored it, which is
+ * harmless as KairosDB overwrites datapoints of the same series and timestamp.
+ */
+public class SpoolingDataPointsQueryStore implements DataPointsQueryStore, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpoolingDataPointsQueryStore.class);
+
+    private static final long REPLAY_INTERVAL_MILLIS = 1000;
+
+    private final DataPointsQueryStore delegate;
+
+    private final DataPointsSpool spool;
+
+    private final DataServiceMetrics metrics;
+
+    private final RateLimiter replayRate;
+
+    private final ScheduledExecutorService replayer;
+
+    private volatile boolean running = true;
+
+    SpoolingDataPointsQueryStore(DataPointsQueryStore delegate, DataPointsSpool spool, DataServiceMetrics metrics,
+                                 int replayBytesPerSecond) {
+        this(delegate, spool, metrics, replayBytesPerSecond, REPLAY_INTERVAL_MILLIS);
+    }
+
+    SpoolingDataPointsQueryStore(DataPointsQueryStore delegate, DataPointsSpool spool, DataServiceMetrics metrics,
+                                 int replayBytesPerSecond, long replayIntervalMillis) {
+        this.delegate = delegate;
+        this.spool = spool;
+        this.metrics = metrics;
+        this.replayRate = RateLimiter.create(replayBytesPerSecond);
+
+        metrics.registerDataPointsSpool(spool::getPendingQueries, spool::getPendingBytes, spool::getOldestAge);
+        replayer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("datapoints-spool-replay").setDaemon(true).build());
+        replayer.scheduleWithFixedDelay(this::replay, replayIntervalMillis, replayIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        running = false;
+        replayer.shutdown();
+        try {
+            replayer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    @Override
+    public int store(byte[] query) {
+        return store(query, 1);
+    }
+
+    /**
+     * @return errors of the direct write, also if the query was spooled
+     */
+    @Override
+    public int store(byte[] query, int points) {
+        final int errors = write(query, points);
+        if (errors > 0) {
+            spool(query, points);
+        }
+        return errors;
+    }
+
+    void replay() {
+        try {
+            DataPointsSpool.Entry entry;
+            while (running && null != (entry = spool.peek())) {
+                replayRate.acquire(Math.max(1, entry.query.length));
+                if (write(entry.query, entry.points) > 0) {
+                    return;
+                }
+                spool.commit();
+                metrics.markDataPointsReplayed(entry.query.length);
+            }
+        } catch (Exception e) {
+            LOG.error("datapoints spool replay failed", e);
+        }
+    }
+
+    private int write(byte[] query, int points) {
+        try {
+            return delegate.store(query, points);
+        } catch (RuntimeException e) {
+            LOG.error("datapoints write failed", e);
+            return 1;
+        }
+    }
+
+    private void spool(byte[] query, int points) {
+        try {
+            if (spool.append(query, points)) {
+                metrics.markDataPointsSpooled(query.length);
+                return;
+            }
+            LOG.warn("datapoints spool is full, dropping query of {} bytes", query.length);
+        } catch (IOException e) {
+            LOG.error("failed to spool datapoints query", e);
+        }
+        metrics.markDataPointsSpoolDropped();
+    }
+}
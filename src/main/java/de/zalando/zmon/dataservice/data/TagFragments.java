@@ -0,0 +1,227 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Sanitized KairosDB tags of a data point, pre-encoded as the two halves of a JSON object: the entity part
+ * <code>{"application_id":"app","entity":"host01"</code> and the key part <code>,"key":"a.b","metric":"b"}</code>.
+ * <p>
+ * Both parts are cached, the entity part by entity id and validated against the tag fields of the entity map, the
+ * key part by value key. For a hot check the tags of a data point are then copied instead of running the sanitizing
+ * regex, splitting the key and scanning the entity.
+ */
+class TagFragments {
+
+    // tags set from the entity id and value key, entity fields with these names are left out
+    private static final Set<String> GENERATED_TAGS = ImmutableSet.of("entity", "key", "metric", "sc", "sg", "path");
+
+    private static final Pattern KAIROSDB_INVALID_TAG_CHARS = Pattern.compile("[?@:=\\[\\]]");
+
+    private static final String REPLACE_CHAR = "_";
+
+    private static final JsonStringEncoder ENCODER = JsonStringEncoder.getInstance();
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String[] entityTagFields;
+
+    // null if disabled
+    private final Cache<String, EntityTags> entityTags;
+
+    private final Cache<String, KeyTags> keyTags;
+
+    private final Cache<String, KeyTags> actuatorKeyTags;
+
+    /**
+     * @param cacheSize max number of cached entities and of cached value keys, 0 to disable caching
+     */
+    TagFragments(Set<String> entityTagFields, int cacheSize) {
+        this.entityTagFields = entityTagFields.stream()
+                .filter(f -> !GENERATED_TAGS.contains(f))
+                .sorted()
+                .toArray(String[]::new);
+        if (cacheSize > 0) {
+            this.entityTags = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+            this.keyTags = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+            this.actuatorKeyTags = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        } else {
+            this.entityTags = null;
+            this.keyTags = null;
+            this.actuatorKeyTags = null;
+        }
+    }
+
+    /**
+     * @return the entity part, starts the tags object
+     */
+    String entityTags(String entityId, Map<String, String> entity) {
+        final Map<String, String> fields = null != entity ? entity : Collections.emptyMap();
+        if (null == entityTags) {
+            return new EntityTags(entityId, fieldValues(fields)).fragment;
+        }
+
+        EntityTags tags = entityTags.getIfPresent(entityId);
+        if (null == tags || !tags.matches(fields)) {
+            tags = new EntityTags(entityId, fieldValues(fields));
+            entityTags.put(entityId, tags);
+        }
+        return tags.fragment;
+    }
+
+    /**
+     * @param actuator whether the value key of an actuator metric check also holds status code and path
+     * @return the key part, ends the tags object
+     */
+    KeyTags keyTags(String key, boolean actuator) {
+        final Cache<String, KeyTags> cache = actuator ? actuatorKeyTags : keyTags;
+        if (null == cache) {
+            return new KeyTags(key, actuator);
+        }
+
+        KeyTags tags = cache.getIfPresent(key);
+        if (null == tags) {
+            tags = new KeyTags(key, actuator);
+            cache.put(key, tags);
+        }
+        return tags;
+    }
+
+    private String[] fieldValues(Map<String, String> entity) {
+        final String[] values = new String[entityTagFields.length];
+        for (int i = 0; i < entityTagFields.length; i++) {
+            values[i] = fieldValue(entity, entityTagFields[i]);
+        }
+        return values;
+    }
+
+    private static String fieldValue(Map<String, String> entity, String field) {
+        final String value = entity.get(field);
+        return null == value || value.isEmpty() ? null : value;
+    }
+
+    static String sanitize(String value) {
+        return KAIROSDB_INVALID_TAG_CHARS.matcher(value).replaceAll(REPLACE_CHAR);
+    }
+
+    static long hash(String fragment) {
+        return HASH.hashUnencodedChars(fragment).asLong();
+    }
+
+    private static void appendTag(StringBuilder fragment, String name, String value) {
+        fragment.append('"').append(ENCODER.quoteAsString(name)).append("\":\"")
+                .append(ENCODER.quoteAsString(value)).append('"');
+    }
+
+    private class EntityTags {
+        private final String[] fieldValues;
+        private final String fragment;
+
+        EntityTags(String entityId, String[] fieldValues) {
+            this.fieldValues = fieldValues;
+
+            final Map<String, String> tags = new TreeMap<>();
+            tags.put("entity", sanitize(entityId));
+            for (int i = 0; i < entityTagFields.length; i++) {
+                if (null != fieldValues[i]) {
+                    tags.put(entityTagFields[i], fieldValues[i]);
+                }
+            }
+
+            final StringBuilder b = new StringBuilder("{");
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (b.length() > 1) {
+                    b.append(',');
+                }
+                appendTag(b, tag.getKey(), tag.getValue());
+            }
+            this.fragment = b.toString();
+        }
+
+        boolean matches(Map<String, String> entity) {
+            for (int i = 0; i < entityTagFields.length; i++) {
+                if (!Objects.equals(fieldValues[i], fieldValue(entity, entityTagFields[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class KeyTags {
+        private final String fragment;
+        // without the key and path tags
+        private final String strippedFragment;
+        private final long hash;
+        private final boolean dropped;
+
+        KeyTags(String key, boolean actuator) {
+            final StringBuilder b = new StringBuilder();
+            if (null != key && !key.isEmpty()) {
+                b.append(',');
+                appendTag(b, "key", sanitize(key));
+            }
+            final StringBuilder stripped = new StringBuilder();
+
+            final String metricName = KairosDBStore.extractMetricName(key);
+            if (null != metricName) {
+                stripped.append(',');
+                appendTag(stripped, "metric", sanitize(metricName));
+            }
+
+            // handle zmon actuator metrics and extract the http status code into its own field
+            // put the first character of the status code into "status group" sg, this is only for easy kairosdb query
+            final String[] keyParts = actuator && null != key ? key.split("\\.") : new String[0];
+
+            // remove the 200 health check data points, with 1/sec * instances with elb checks they just confuse
+            this.dropped = keyParts.length >= 3 && "health".equals(keyParts[0]) && "200".equals(keyParts[2]);
+
+            if (keyParts.length >= 3) {
+                final String statusCode = keyParts[keyParts.length - 2];
+                stripped.append(',');
+                appendTag(stripped, "sc", statusCode);
+                stripped.append(',');
+                appendTag(stripped, "sg", statusCode.substring(0, 1));
+            }
+            b.append(stripped);
+            if (keyParts.length >= 4) {
+                b.append(',');
+                appendTag(b, "path", String.join(".", Arrays.asList(keyParts).subList(0, keyParts.length - 3)));
+            }
+            this.fragment = b.append('}').toString();
+            this.strippedFragment = stripped.append('}').toString();
+            this.hash = hash(fragment);
+        }
+
+        String getFragment() {
+            return fragment;
+        }
+
+        String getStrippedFragment() {
+            return strippedFragment;
+        }
+
+        long getHash() {
+            return hash;
+        }
+
+        /**
+         * @return true if data points with this key are not written at all
+         */
+        boolean isDropped() {
+            return dropped;
+        }
+    }
+}
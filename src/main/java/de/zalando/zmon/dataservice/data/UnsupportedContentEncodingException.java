@@ -0,0 +1,16 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.IOException;
+
+@ResponseStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+public class UnsupportedContentEncodingException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedContentEncodingException(String encoding) {
+        super("Unsupported Content-Encoding: " + encoding);
+    }
+}
@@ -0,0 +1,188 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Flattens the value of a check result into numeric leaves with dotted keys, e.g.
+ * <code>{"a":{"b":1,"c":"2.5","d":"x"}}</code> into <code>a.b=1</code> and <code>a.c=2.5</code>.
+ * <p>
+ * Text leaves are taken if they hold a decimal number, all other leaves are ignored. Integers fitting into a long are
+ * passed exactly, numbers not finite as double are skipped and counted. The key is built in a single growable buffer,
+ * only the key of a numeric leaf becomes a String. Not thread safe, the buffer is reused for every value passed to
+ * {@link #flatten(JsonNode, Visitor)}.
+ */
+class ValueFlattener {
+
+    // integers with more digits overflow a long, with as many digits they are compared to the limit
+    private static final int MAX_LONG_DIGITS = 19;
+
+    private static final String MAX_LONG = Long.toString(Long.MAX_VALUE);
+
+    private static final String MIN_LONG = Long.toString(Long.MIN_VALUE).substring(1);
+
+    interface Visitor {
+
+        void value(String key, long value);
+
+        void value(String key, double value);
+    }
+
+    private char[] path = new char[128];
+
+    private int nonFinite;
+
+    /**
+     * @return number of numeric leaves passed to the visitor
+     */
+    int flatten(JsonNode value, Visitor visitor) {
+        return null == value ? 0 : visit(value, 0, visitor);
+    }
+
+    /**
+     * @return number of leaves skipped as not finite since the flattener was created
+     */
+    int getNonFinite() {
+        return nonFinite;
+    }
+
+    private int visit(JsonNode node, int length, Visitor visitor) {
+        if (node.isNumber()) {
+            if (node.canConvertToLong() && node.isIntegralNumber()) {
+                visitor.value(key(length), node.longValue());
+                return 1;
+            }
+            return visitDouble(node.doubleValue(), length, visitor);
+        }
+        if (node.isTextual()) {
+            return visitText(node.textValue(), length, visitor);
+        }
+        if (node.isObject()) {
+            int count = 0;
+            final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                count += visit(field.getValue(), append(length, field.getKey()), visitor);
+            }
+            return count;
+        }
+        return 0;
+    }
+
+    private int visitText(String text, int length, Visitor visitor) {
+        final int type = numberType(text);
+        if (type < 0) {
+            return 0;
+        }
+        if (type == 0) {
+            visitor.value(key(length), parseLong(text));
+            return 1;
+        }
+        return visitDouble(Double.parseDouble(text), length, visitor);
+    }
+
+    private int visitDouble(double value, int length, Visitor visitor) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            nonFinite++;
+            return 0;
+        }
+        visitor.value(key(length), value);
+        return 1;
+    }
+
+    private int append(int length, String name) {
+        int required = length + name.length() + 1;
+        if (required > path.length) {
+            path = Arrays.copyOf(path, Math.max(required, path.length * 2));
+        }
+        if (length > 0) {
+            path[length++] = '.';
+        }
+        name.getChars(0, name.length(), path, length);
+        return length + name.length();
+    }
+
+    private String key(int length) {
+        return new String(path, 0, length);
+    }
+
+    /**
+     * Validates a decimal number like {@link java.math.BigDecimal#BigDecimal(String)} does, without throwing.
+     *
+     * @return -1 if the text is no number, 0 if it is an integer fitting into a long, 1 for any other number
+     */
+    static int numberType(String text) {
+        final int n = text.length();
+        int i = 0;
+        if (i < n && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            i++;
+        }
+        final int intStart = i;
+        while (i < n && isDigit(text.charAt(i))) {
+            i++;
+        }
+        final int intDigits = i - intStart;
+        int fractionDigits = 0;
+        boolean integer = true;
+        if (i < n && text.charAt(i) == '.') {
+            integer = false;
+            i++;
+            final int fractionStart = i;
+            while (i < n && isDigit(text.charAt(i))) {
+                i++;
+            }
+            fractionDigits = i - fractionStart;
+        }
+        if (intDigits == 0 && fractionDigits == 0) {
+            return -1;
+        }
+        if (i < n && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            integer = false;
+            i++;
+            if (i < n && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                i++;
+            }
+            final int exponentStart = i;
+            while (i < n && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == exponentStart) {
+                return -1;
+            }
+        }
+        if (i != n) {
+            return -1;
+        }
+        if (!integer || intDigits > MAX_LONG_DIGITS) {
+            return 1;
+        }
+        if (intDigits == MAX_LONG_DIGITS) {
+            final String limit = text.charAt(0) == '-' ? MIN_LONG : MAX_LONG;
+            return text.substring(intStart).compareTo(limit) <= 0 ? 0 : 1;
+        }
+        return 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // only called for texts validated by numberType
+    private static long parseLong(String text) {
+        int i = 0;
+        boolean negative = false;
+        if (text.charAt(0) == '-' || text.charAt(0) == '+') {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+        // accumulated negative, Long.MIN_VALUE has no positive counterpart
+        long value = 0;
+        for (; i < text.length(); i++) {
+            value = value * 10 - (text.charAt(i) - '0');
+        }
+        return negative ? value : -value;
+    }
+}
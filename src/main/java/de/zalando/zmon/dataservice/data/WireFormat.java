@@ -0,0 +1,54 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.MediaType;
+
+/**
+ * Encodings accepted for worker results, selected by the Content-Type of the request.
+ * <p>
+ * The binary formats carry the same document structure as JSON, they only save the tokenization of
+ * numbers and field names.
+ */
+enum WireFormat {
+
+    JSON(null),
+    SMILE(new SmileFactory()),
+    CBOR(new CBORFactory());
+
+    static final String SMILE_VALUE = "application/x-jackson-smile";
+    static final String CBOR_VALUE = "application/cbor";
+
+    private static final MediaType SMILE_TYPE = MediaType.parseMediaType(SMILE_VALUE);
+    private static final MediaType CBOR_TYPE = MediaType.parseMediaType(CBOR_VALUE);
+
+    private final JsonFactory factory;
+
+    WireFormat(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    boolean isBinary() {
+        return null != factory;
+    }
+
+    JsonFactory getFactory(ObjectMapper jsonMapper) {
+        return null != factory ? factory : jsonMapper.getFactory();
+    }
+
+    static WireFormat fromContentType(String contentType) {
+        if (null == contentType || contentType.isEmpty()) {
+            return JSON;
+        }
+        final MediaType mediaType = MediaType.parseMediaType(contentType);
+        if (SMILE_TYPE.includes(mediaType)) {
+            return SMILE;
+        }
+        if (CBOR_TYPE.includes(mediaType)) {
+            return CBOR;
+        }
+        return JSON;
+    }
+}
@@ -1,7 +1,25 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.util.List;
+
 public interface WorkResultWriter {
 
     void write(WriteData writeData);
 
+    /**
+     * Writes the worker results of one batch request, writers that can share round trips across checks should
+     * override this.
+     */
+    default void writeBatch(List<WriteData> batch) {
+        batch.forEach(this::write);
+    }
+
+    /**
+     * Writers that need the raw request body in {@link WriteData#getData()} have to return true here, otherwise the
+     * body is only streamed through the parser and never buffered.
+     */
+    default boolean requiresData() {
+        return false;
+    }
+
 }
@@ -0,0 +1,176 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Reads a {@link WorkerResult} token by token from a {@link JsonParser}.
+ * <p>
+ * The entity filter is applied as soon as the "entity_id" of a check result has been read, the remaining
+ * fields of a rejected check result are skipped without being bound. The check result itself is kept as compact
+ * JSON and not bound to a tree, see {@link CheckData#checkResultJson}.
+ */
+class WorkerResultParser {
+
+    private final ObjectReader stringReader;
+    private final ObjectReader intReader;
+    private final ObjectReader doubleReader;
+    private final ObjectReader booleanReader;
+    private final JsonFactory jsonFactory;
+    private final ObjectReader entityReader;
+    private final ObjectReader alertsReader;
+
+    WorkerResultParser(ObjectMapper mapper) {
+        this.stringReader = mapper.readerFor(String.class);
+        this.intReader = mapper.readerFor(int.class);
+        this.doubleReader = mapper.readerFor(double.class);
+        this.booleanReader = mapper.readerFor(boolean.class);
+        this.jsonFactory = mapper.getFactory();
+        this.entityReader = mapper.readerFor(new TypeReference<Map<String, String>>() {
+        });
+        this.alertsReader = mapper.readerFor(new TypeReference<Map<String, AlertData>>() {
+        });
+    }
+
+    /**
+     * Reads the next worker result, the parser has to be positioned on its first token.
+     *
+     * @return the worker result or null if the document is a JSON null
+     */
+    WorkerResult parse(JsonParser parser, Predicate<String> entityFilter) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(parser, token, JsonToken.START_OBJECT);
+
+        WorkerResult wr = new WorkerResult();
+        wr.results = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            token = parser.nextToken();
+            switch (field) {
+                case "account":
+                    wr.account = stringReader.readValue(parser);
+                    break;
+                case "team":
+                    wr.team = stringReader.readValue(parser);
+                    break;
+                case "results":
+                    parseResults(parser, token, wr, entityFilter);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return wr;
+    }
+
+    private void parseResults(JsonParser parser, JsonToken token, WorkerResult wr, Predicate<String> entityFilter) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(parser, token, JsonToken.START_ARRAY);
+
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            expect(parser, token, JsonToken.START_OBJECT);
+            final CheckData cd = parseCheckData(parser, entityFilter);
+            if (null != cd) {
+                wr.results.add(cd);
+            }
+        }
+    }
+
+    private CheckData parseCheckData(JsonParser parser, Predicate<String> entityFilter) throws IOException {
+        final CheckData cd = new CheckData();
+        boolean hasEntityId = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "time":
+                    cd.time = stringReader.readValue(parser);
+                    break;
+                case "worker":
+                    cd.worker = stringReader.readValue(parser);
+                    break;
+                case "check_id":
+                    cd.checkId = intReader.readValue(parser);
+                    break;
+                case "entity_id":
+                    cd.entityId = stringReader.readValue(parser);
+                    hasEntityId = true;
+                    if (!entityFilter.test(cd.entityId)) {
+                        skipObject(parser);
+                        return null;
+                    }
+                    break;
+                case "entity":
+                    cd.entity = entityReader.readValue(parser);
+                    break;
+                case "run_time":
+                    cd.runTime = doubleReader.readValue(parser);
+                    break;
+                case "check_result":
+                    cd.checkResultJson = copyRaw(parser);
+                    break;
+                case "exception":
+                    cd.exception = booleanReader.readValue(parser);
+                    break;
+                case "alerts":
+                    cd.alerts = alertsReader.readValue(parser);
+                    break;
+                case "is_sampled":
+                    cd.isSampled = booleanReader.readValue(parser);
+                    break;
+                case "job_metric":
+                    cd.isJobMetric = booleanReader.readValue(parser);
+                    break;
+                case "store_job_metric":
+                    cd.isStoreJobMetric = booleanReader.readValue(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (!hasEntityId && !entityFilter.test(null)) {
+            return null;
+        }
+        return cd;
+    }
+
+    private byte[] copyRaw(JsonParser parser) throws IOException {
+        final ByteArrayBuilder bytes = new ByteArrayBuilder(256);
+        try (JsonGenerator generator = jsonFactory.createGenerator(bytes)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void skipObject(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonMappingException {
+        if (actual != expected) {
+            throw JsonMappingException.from(parser, "Expected " + expected + " but got " + actual);
+        }
+    }
+}
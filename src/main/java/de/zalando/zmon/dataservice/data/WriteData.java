@@ -9,12 +9,22 @@ class WriteData {
     private final Optional<String> region;
     private final int checkId;
     private final String data;
+    private final int dataSize;
 
     WriteData(Optional<WorkerResult> workerResultOptional, String accountId, Optional<String> region, int checkId, String data) {
+        this(workerResultOptional, accountId, region, checkId, data, data.length());
+    }
+
+    /**
+     * @param data     the raw request body, null if no writer requires it
+     * @param dataSize the size of the request body in bytes
+     */
+    WriteData(Optional<WorkerResult> workerResultOptional, String accountId, Optional<String> region, int checkId, String data, int dataSize) {
         this.workerResultOptional = workerResultOptional;
         this.accountId = accountId;
         this.checkId = checkId;
         this.data = data;
+        this.dataSize = dataSize;
         this.region = region;
     }
 
@@ -34,6 +44,10 @@ class WriteData {
         return data;
     }
 
+    public int getDataSize() {
+        return dataSize;
+    }
+
     public Optional<String> getRegion() {
         return region;
     }
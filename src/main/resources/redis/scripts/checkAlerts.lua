@@ -1,6 +1,6 @@
 -- checkAlerts.lua
-local members = redis.call('smembers', KEYS[1]);
-if table.getn(members) == 0 then
+-- KEYS[1]: zmon:alerts:<alert id>, ARGV[1]: alert id
+if redis.call('scard', KEYS[1]) == 0 then
   redis.call('srem','zmon:alert-acks', ARGV[1]);
   return redis.call('srem','zmon:alerts', ARGV[1]);
 else
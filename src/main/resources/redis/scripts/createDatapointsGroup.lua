@@ -0,0 +1,10 @@
+-- createDatapointsGroup.lua
+-- creates the consumer group reading the stream from the start, creates the stream if needed
+-- KEYS: stream
+-- ARGV: consumer group
+local ok, err = pcall(redis.call, 'xgroup', 'create', KEYS[1], ARGV[1], '0', 'MKSTREAM')
+if ok then
+  return 1
+end
+-- BUSYGROUP, the group exists already
+return 0
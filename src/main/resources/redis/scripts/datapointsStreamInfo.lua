@@ -0,0 +1,10 @@
+-- datapointsStreamInfo.lua
+-- length of the stream and pending entries of the consumer group, -1 if the group does not exist
+-- KEYS: stream
+-- ARGV: consumer group
+local length = redis.call('xlen', KEYS[1])
+local ok, summary = pcall(redis.call, 'xpending', KEYS[1], ARGV[1])
+if ok then
+  return {length, summary[1]}
+end
+return {length, -1}
@@ -0,0 +1,40 @@
+-- storeCheck.lua
+-- applies all updates of one check result for one entity atomically
+-- KEYS: zmon:checks, zmon:checks:<check id>, zmon:checks:<check id>:<entity id>, zmon:alerts, zmon:alert-acks,
+--       then per alert: zmon:alerts:<alert id>, zmon:alerts:<alert id>:<entity id>, zmon:alerts:<alert id>:entities
+-- ARGV: check id, entity id, check value, then per alert: alert id, active and in period (1/0), alert value, captures
+-- All keys are declared for proxies routing by key, Redis Cluster still rejects the call as the keys do not share a
+-- hash slot. Use the pipelined commands there (dataservice.redis-store-script=false).
+local checkId = ARGV[1]
+local entityId = ARGV[2]
+
+redis.call('sadd', KEYS[1], checkId)
+redis.call('sadd', KEYS[2], entityId)
+
+redis.call('lpush', KEYS[3], ARGV[3])
+redis.call('ltrim', KEYS[3], 0, 2)
+
+local k = 6
+for i = 4, #ARGV, 4 do
+  local alertId = ARGV[i]
+  local alertKey = KEYS[k]
+  if ARGV[i + 1] == '1' then
+    redis.call('sadd', alertKey, entityId)
+    redis.call('set', KEYS[k + 1], ARGV[i + 2])
+  else
+    redis.call('srem', alertKey, entityId)
+    redis.call('del', KEYS[k + 1])
+  end
+
+  redis.call('hset', KEYS[k + 2], entityId, ARGV[i + 3])
+
+  if redis.call('scard', alertKey) == 0 then
+    redis.call('srem', KEYS[5], alertId)
+    redis.call('srem', KEYS[4], alertId)
+  else
+    redis.call('sadd', KEYS[4], alertId)
+  end
+  k = k + 3
+end
+
+return (#ARGV - 3) / 4
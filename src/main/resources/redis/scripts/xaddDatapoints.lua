@@ -0,0 +1,5 @@
+-- xaddDatapoints.lua
+-- appends one datapoints query to the stream, trimmed to about the max length (needs Redis 5)
+-- KEYS: stream
+-- ARGV: max length, then field value pairs
+return redis.call('xadd', KEYS[1], 'maxlen', '~', ARGV[1], '*', unpack(ARGV, 2))
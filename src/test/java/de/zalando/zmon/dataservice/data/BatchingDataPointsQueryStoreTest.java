@@ -0,0 +1,104 @@
+package de.zalando.zmon.dataservice.data;
+
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BatchingDataPointsQueryStoreTest {
+
+    private static final String FIRST = "[{\"name\":\"zmon.check.1\",\"tags\":{},\"datapoints\":[[1,1]]}]";
+
+    private static final String SECOND = "[{\"name\":\"zmon.check.2\",\"tags\":{},\"datapoints\":[[1,2]]},"
+            + "{\"name\":\"zmon.check.3\",\"tags\":{},\"datapoints\":[[1,3]]}]";
+
+    private DataPointsQueryStore delegate;
+
+    private DataServiceMetrics metrics;
+
+    private DataServiceConfigProperties config;
+
+    @Before
+    public void setUp() {
+        delegate = Mockito.mock(DataPointsQueryStore.class);
+        metrics = Mockito.mock(DataServiceMetrics.class);
+        config = new DataServiceConfigProperties();
+        config.setKairosdbBatchingThreads(1);
+        config.setKairosdbBatchingMaxLinger(500);
+    }
+
+    @Test
+    public void queriesOfSeveralRequestsShareOneWrite() throws Exception {
+        BatchingDataPointsQueryStore store = new BatchingDataPointsQueryStore(delegate, metrics, config);
+        store.start();
+
+        Assertions.assertThat(store.store(bytes(FIRST), 1)).isEqualTo(0);
+        Assertions.assertThat(store.store(bytes(SECOND), 2)).isEqualTo(0);
+        store.stop();
+
+        ArgumentCaptor<byte[]> query = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(delegate).store(query.capture(), Mockito.eq(3));
+        Assertions.assertThat(new String(query.getValue(), StandardCharsets.UTF_8))
+                .isEqualTo("[" + FIRST.substring(1, FIRST.length() - 1) + "," + SECOND.substring(1));
+        Mockito.verify(metrics).updateKairosBatch(2, 3, FIRST.length() + SECOND.length());
+        Mockito.verify(metrics).updateKairosBatchLatency(Mockito.anyLong());
+    }
+
+    @Test
+    public void flushOnPointLimit() throws Exception {
+        config.setKairosdbBatchingMaxPoints(2);
+        BatchingDataPointsQueryStore store = new BatchingDataPointsQueryStore(delegate, metrics, config);
+        store.start();
+
+        store.store(bytes(SECOND), 2);
+        store.store(bytes(FIRST), 1);
+        store.stop();
+
+        Mockito.verify(delegate).store(bytes(SECOND), 2);
+        Mockito.verify(delegate).store(bytes(FIRST), 1);
+    }
+
+    @Test
+    public void failedHostsReportedAsMetric() throws Exception {
+        Mockito.when(delegate.store(Mockito.any(byte[].class), Mockito.anyInt())).thenReturn(1);
+        BatchingDataPointsQueryStore store = new BatchingDataPointsQueryStore(delegate, metrics, config);
+        store.start();
+
+        store.store(bytes(FIRST), 1);
+        store.stop();
+
+        Mockito.verify(metrics).markKairosHostErrors(1);
+    }
+
+    @Test
+    public void fullQueueIsWrittenDirectly() {
+        config.setKairosdbBatchingQueueSize(1);
+        config.setKairosdbBatchingOfferTimeout(10);
+        Mockito.when(delegate.store(Mockito.any(byte[].class), Mockito.anyInt())).thenReturn(1);
+        // not started, nothing takes from the queue
+        BatchingDataPointsQueryStore store = new BatchingDataPointsQueryStore(delegate, metrics, config);
+
+        Assertions.assertThat(store.store(bytes(FIRST), 1)).isEqualTo(0);
+        Assertions.assertThat(store.store(bytes(SECOND), 2)).isEqualTo(1);
+
+        Mockito.verify(metrics).markKairosBatchOverflow();
+        Mockito.verify(delegate).store(bytes(SECOND), 2);
+    }
+
+    @Test
+    public void mergeArrays() {
+        Assertions.assertThat(new String(BatchingDataPointsQueryStore.merge(
+                Arrays.asList(bytes("[1]"), bytes("[2,3]"), bytes("[{}]")), 12), StandardCharsets.UTF_8))
+                .isEqualTo("[1,2,3,{}]");
+    }
+
+    private static byte[] bytes(String query) {
+        return query.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,123 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.ZMonEventType;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+public class CoalescingRedisWriterTest extends RedistTestSupport {
+
+    private JedisPool pool;
+
+    private DataServiceMetrics metrics;
+
+    private RedisDataStore redisDataStore;
+
+    private DataServiceConfigProperties config;
+
+    @Before
+    public void setUp() {
+        pool = new JedisPool("localhost", REDIS_SERVER.getPort());
+        metrics = Mockito.mock(DataServiceMetrics.class);
+        redisDataStore = Mockito.spy(new RedisDataStore(pool, new ObjectMapper(), null, metrics));
+        config = new DataServiceConfigProperties();
+        config.setRedisCoalescingThreads(1);
+        config.setRedisCoalescingMaxDelay(500);
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushAll();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pool.destroy();
+    }
+
+    @Test
+    public void resultsOfSeveralRequestsShareOnePipeline() throws InterruptedException {
+        CoalescingRedisWriter writer = new CoalescingRedisWriter(redisDataStore, pool, metrics, config);
+        writer.start();
+
+        WorkerResult wr = Fixture.buildWorkerResult();
+        writer.write(Fixture.writeData(Optional.of(wr)));
+        writer.writeBatch(Arrays.asList(Fixture.writeData(Optional.of(wr)), Fixture.writeData(Optional.empty())));
+        writer.write(Fixture.writeData(Optional.of(wr)));
+        writer.stop();
+
+        Mockito.verify(redisDataStore).store(Mockito.any(Jedis.class), Mockito.eq(Arrays.asList(wr, wr, wr)));
+        Mockito.verify(metrics).updateRedisBatch(3, 3 * redisDataStore.commandCount(wr));
+        Mockito.verify(metrics).updateRedisFlushLatency(Mockito.anyLong());
+        try (Jedis jedis = pool.getResource()) {
+            Assertions.assertThat(jedis.smembers("zmon:alerts")).containsOnly("0", "2");
+        }
+    }
+
+    @Test
+    public void flushOnCommandLimit() throws InterruptedException {
+        WorkerResult wr = Fixture.buildWorkerResult();
+        config.setRedisCoalescingMaxCommands(redisDataStore.commandCount(wr));
+        CoalescingRedisWriter writer = new CoalescingRedisWriter(redisDataStore, pool, metrics, config);
+        writer.start();
+
+        writer.write(Fixture.writeData(Optional.of(wr)));
+        writer.write(Fixture.writeData(Optional.of(wr)));
+        writer.stop();
+
+        Mockito.verify(redisDataStore, Mockito.times(2)).store(Mockito.any(Jedis.class), Mockito.eq(Arrays.asList(wr)));
+    }
+
+    @Test
+    public void fullQueueDropsResult() {
+        config.setRedisCoalescingQueueSize(1);
+        // not started, nothing takes from the queue
+        CoalescingRedisWriter writer = new CoalescingRedisWriter(redisDataStore, pool, metrics, config);
+
+        WorkerResult wr = Fixture.buildWorkerResult();
+        writer.write(Fixture.writeData(Optional.of(wr)));
+        writer.write(Fixture.writeData(Optional.of(wr)));
+
+        Mockito.verify(metrics).markRedisQueueOverflow();
+        Mockito.verify(redisDataStore, Mockito.never()).store(wr);
+    }
+
+    @Test
+    public void fullQueueKeepsEventsOfChangedAlerts() {
+        config.setRedisCoalescingQueueSize(1);
+        HttpEventLogger eventLogger = Mockito.mock(HttpEventLogger.class);
+        redisDataStore = Mockito.spy(new RedisDataStore(pool, new ObjectMapper(), eventLogger, metrics));
+        CoalescingRedisWriter writer = new CoalescingRedisWriter(redisDataStore, pool, metrics, config);
+
+        WorkerResult queued = Fixture.buildWorkerResult();
+        WorkerResult dropped = Fixture.buildWorkerResult();
+        writer.write(Fixture.writeData(Optional.of(queued)));
+        writer.write(Fixture.writeData(Optional.of(dropped)));
+
+        Mockito.verify(redisDataStore, Mockito.never()).createEvents(queued);
+        Mockito.verify(redisDataStore).createEvents(dropped);
+        // alerts 0 and 2 of every check started
+        Mockito.verify(eventLogger, Mockito.times(2 * dropped.results.size())).log(Mockito.eq(ZMonEventType.ALERT_ENTITY_STARTED),
+                Mockito.<JsonNode>anyVararg());
+    }
+
+    @Test
+    public void commandCountOfPipelinedWrites() {
+        WorkerResult wr = Fixture.buildWorkerResult();
+        int alerts = 0;
+        for (CheckData cd : wr.results) {
+            alerts += cd.alerts.size();
+        }
+        // sadd, sadd, lpush and ltrim per check, sadd/srem, set/del, hset and the alert script per alert
+        Assertions.assertThat(redisDataStore.commandCount(wr)).isEqualTo(4 * wr.results.size() + 4 * alerts);
+    }
+}
@@ -0,0 +1,146 @@
+package de.zalando.zmon.dataservice.data;
+
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Status;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DataPointsBackpressureTest {
+
+    private static final String INFO = "# Memory\r\nused_memory:800\r\nused_memory_human:800B\r\nmaxmemory:1000\r\n";
+
+    private final JedisPool pool = mock(JedisPool.class);
+
+    private final MetricTiers metricTiers = mock(MetricTiers.class);
+
+    private final DataServiceMetrics metrics = mock(DataServiceMetrics.class);
+
+    private final DataPointsBackpressure backpressure = new DataPointsBackpressure(pool,
+            Arrays.asList("zmon:datapoints:0", "zmon:datapoints:1"), metricTiers, metrics,
+            new long[]{100, 500, 1000}, new double[]{0.6, 0.75, 0.9}, 0.5, 60000);
+
+    @After
+    public void tearDown() {
+        backpressure.close();
+    }
+
+    @Test
+    public void stageByDepthOrMemory() {
+        backpressure.update(50, 0.1);
+        assertThat(backpressure.getStage()).isEqualTo(DataPointsBackpressure.Stage.NORMAL);
+        backpressure.update(100, 0.1);
+        assertThat(backpressure.getStage()).isEqualTo(DataPointsBackpressure.Stage.SAMPLE);
+        backpressure.update(50, 0.8);
+        assertThat(backpressure.getStage()).isEqualTo(DataPointsBackpressure.Stage.SPOOL);
+        backpressure.update(5000, 0.1);
+        assertThat(backpressure.getStage()).isEqualTo(DataPointsBackpressure.Stage.SHED);
+        backpressure.update(0, 0);
+        assertThat(backpressure.getStage()).isEqualTo(DataPointsBackpressure.Stage.NORMAL);
+    }
+
+    @Test
+    public void samplesNonCriticalChecks() {
+        when(metricTiers.isCritical(anyInt())).thenReturn(false);
+        when(metricTiers.isCritical(1)).thenReturn(true);
+        assertThat(backpressure.isSampledOut(2)).isFalse();
+
+        backpressure.update(100, 0);
+        int sampledOut = 0;
+        for (int checkId = 2; checkId < 2002; checkId++) {
+            if (backpressure.isSampledOut(checkId)) {
+                sampledOut++;
+                // stable for a check
+                assertThat(backpressure.isSampledOut(checkId)).isTrue();
+            }
+        }
+        assertThat(sampledOut).isBetween(850, 1150);
+        assertThat(backpressure.isSampledOut(1)).isFalse();
+    }
+
+    @Test
+    public void samplingContinuesInSpool() {
+        when(metricTiers.isCritical(anyInt())).thenReturn(false);
+        backpressure.update(100, 0);
+        final List<Integer> sampledOut = new ArrayList<>();
+        for (int checkId = 0; checkId < 100; checkId++) {
+            if (backpressure.isSampledOut(checkId)) {
+                sampledOut.add(checkId);
+            }
+        }
+        assertThat(sampledOut).isNotEmpty();
+
+        backpressure.update(500, 0);
+        assertThat(backpressure.getStage()).isEqualTo(DataPointsBackpressure.Stage.SPOOL);
+        for (int checkId = 0; checkId < 100; checkId++) {
+            assertThat(backpressure.isSampledOut(checkId)).as("check " + checkId)
+                    .isEqualTo(sampledOut.contains(checkId));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void samplesDepthAndMemory() {
+        final Jedis jedis = mock(Jedis.class);
+        final Pipeline pipeline = mock(Pipeline.class);
+        final Response<Long> first = mock(Response.class);
+        final Response<Long> second = mock(Response.class);
+        final Response<String> info = mock(Response.class);
+        when(pool.getResource()).thenReturn(jedis);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pipeline.llen("zmon:datapoints:0")).thenReturn(first);
+        when(pipeline.llen("zmon:datapoints:1")).thenReturn(second);
+        when(pipeline.info("memory")).thenReturn(info);
+        when(first.get()).thenReturn(300L);
+        when(second.get()).thenReturn(250L);
+        when(info.get()).thenReturn(INFO);
+
+        backpressure.sample();
+
+        // depth 550 is SPOOL, memory 0.8 too
+        assertThat(backpressure.getStage()).isEqualTo(DataPointsBackpressure.Stage.SPOOL);
+        assertThat(backpressure.health().getStatus()).isEqualTo(Status.UP);
+        assertThat(backpressure.health().getDetails()).containsEntry("stage", "spool").containsEntry("depth", 550L);
+        assertThat(DataPointsBackpressure.memoryRatio("used_memory:5\r\nmaxmemory:0\r\n")).isEqualTo(0);
+    }
+
+    @Test
+    public void storeSpoolsOrShedsQueries() throws IOException {
+        final DataPointsQueryStore delegate = mock(DataPointsQueryStore.class);
+        final BackpressureDataPointsQueryStore spooled = new BackpressureDataPointsQueryStore(delegate, backpressure,
+                true, metrics);
+        final BackpressureDataPointsQueryStore unspooled = new BackpressureDataPointsQueryStore(delegate, backpressure,
+                false, metrics);
+
+        backpressure.update(100, 0);
+        spooled.store(new byte[1], 1);
+        verify(delegate).store(any(byte[].class), anyInt());
+
+        backpressure.update(500, 0);
+        assertThat(spooled.store(new byte[1], 1)).isEqualTo(1);
+        verify(metrics).markDataPointsBackpressureSpooled();
+        assertThat(unspooled.store(new byte[1], 1)).isEqualTo(0);
+        verify(metrics).markDataPointsBackpressureShed();
+
+        backpressure.update(1000, 0);
+        assertThat(spooled.store(new byte[1], 1)).isEqualTo(0);
+        verify(delegate).store(any(byte[].class), anyInt());
+        verify(delegate, never()).store(any(byte[].class));
+    }
+}
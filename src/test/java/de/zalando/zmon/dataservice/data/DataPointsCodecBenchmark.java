@@ -0,0 +1,124 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of datapoints queries for the Redis queue per codec. "gzip-stream" is the former implementation with a
+ * new GZIPOutputStream per query, kept here as baseline. The compression ratio of every codec is printed in the setup.
+ * <p>
+ * Not part of the test suite, start with main() from the IDE or the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataPointsCodecBenchmark {
+
+    private static final int QUERIES = 32;
+
+    @Param({"gzip-stream", "gzip", "lz4", "zstd", "zstd-dict"})
+    String codec;
+
+    // data points per query
+    @Param({"100", "2000"})
+    int points;
+
+    private final List<byte[]> queries = new ArrayList<>();
+
+    private DataPointsCodec dataPointsCodec;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(query(random, points));
+        }
+
+        if (!"gzip-stream".equals(codec)) {
+            byte[] dictionary = null;
+            if ("zstd-dict".equals(codec)) {
+                // trained on other queries than the measured ones
+                final List<byte[]> samples = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    samples.add(query(random, 100));
+                }
+                dictionary = DataPointsCodec.trainZstdDictionary(samples, 16 * 1024);
+            }
+            dataPointsCodec = DataPointsCodec.create(codec.startsWith("zstd") ? "zstd" : codec, 0, dictionary);
+        }
+
+        long raw = 0;
+        long compressed = 0;
+        for (byte[] query : queries) {
+            raw += query.length;
+            compressed += compress(query).length;
+        }
+        System.out.printf("%n%s points=%d ratio=%.1f%n", codec, points, (double) raw / compressed);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return compress(queries.get(next++ & (QUERIES - 1)));
+    }
+
+    private byte[] compress(byte[] query) throws IOException {
+        if (null == dataPointsCodec) {
+            final ByteArrayOutputStream byteStream = new ByteArrayOutputStream(query.length);
+            try (GZIPOutputStream zipStream = new GZIPOutputStream(byteStream, true)) {
+                zipStream.write(query);
+            }
+            return byteStream.toByteArray();
+        }
+        return dataPointsCodec.encode(query, new byte[0]);
+    }
+
+    // actuator metrics of a few applications, shaped like the queries written by KairosDBStore
+    private static byte[] query(Random random, int points) {
+        final DataPointsSerializer serializer = new DataPointsSerializer();
+        final long ts = 1490000000000L + random.nextInt(1000) * 60_000L;
+        final String[] fields = {"count", "mRate", "m1Rate", "99th", "75th", "median"};
+        for (int i = 0; i < points; i++) {
+            final int app = random.nextInt(20);
+            final String entityTags = "{\"application_id\":\"app-" + app + "\",\"entity\":\"app-" + app + "-"
+                    + random.nextInt(10) + "[aws:123456789012:eu-central-1]\",\"stack_name\":\"app-" + app + "\"";
+            final String path = "api.resource-" + random.nextInt(30);
+            final String status = random.nextInt(10) < 8 ? "200" : "404";
+            final String field = fields[random.nextInt(fields.length)];
+            final String keyTags = ",\"key\":\"GET." + path + "." + status + "." + field + "\",\"metric\":\"" + field
+                    + "\",\"sc\":\"" + status + "\",\"sg\":\"" + status.charAt(0) + "\",\"path\":\"GET." + path + "\"}";
+            if ("count".equals(field)) {
+                serializer.add("zmon.check.1", entityTags, keyTags, ts, (long) random.nextInt(100000));
+            } else {
+                serializer.add("zmon.check.1", entityTags, keyTags, ts, random.nextDouble() * 100);
+            }
+        }
+        try {
+            return serializer.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DataPointsCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
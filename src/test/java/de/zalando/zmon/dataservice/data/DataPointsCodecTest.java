@@ -0,0 +1,96 @@
+package de.zalando.zmon.dataservice.data;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.noop.NoopTracerFactory;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class DataPointsCodecTest {
+
+    private byte[] query;
+
+    @Before
+    public void setUp() throws IOException {
+        query = IOUtils.toByteArray(getClass().getResourceAsStream("kairosdbQuery.json"));
+    }
+
+    @Test
+    public void roundTripOfAllCodecs() throws IOException {
+        final byte[] prefix = {1, 2, 3};
+        for (String name : new String[]{"gzip", "lz4", "zstd"}) {
+            for (int level : new int[]{0, 9}) {
+                DataPointsCodec codec = DataPointsCodec.create(name, level, null);
+                byte[] encoded = codec.encode(query, prefix);
+
+                assertThat(Arrays.copyOf(encoded, 3)).isEqualTo(prefix);
+                assertThat(encoded.length).as(name).isLessThan(query.length);
+                assertThat(codec.decode(encoded, 3)).as(name).isEqualTo(query);
+            }
+        }
+    }
+
+    @Test
+    public void zstdWithDictionary() throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            samples.add(new String(query, StandardCharsets.UTF_8).replace("server1", "server" + i)
+                    .replace("1359788", String.valueOf(1359788 + i)).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] dictionary = DataPointsCodec.trainZstdDictionary(samples, 4096);
+
+        DataPointsCodec plain = DataPointsCodec.create("zstd", 0, null);
+        DataPointsCodec trained = DataPointsCodec.create("zstd", 0, dictionary);
+        byte[] encoded = trained.encode(query, new byte[0]);
+
+        assertThat(encoded.length).isLessThan(plain.encode(query, new byte[0]).length / 2);
+        assertThat(trained.decode(encoded, 0)).isEqualTo(query);
+    }
+
+    @Test
+    public void redisEntryWithoutEnvelopeIsPlainGzip() throws IOException {
+        RedisDataPointsQueryStore store = new RedisDataPointsQueryStore(mock(JedisPool.class), NoopTracerFactory.create());
+        byte[] entry = store.compress(query);
+
+        assertThat(entry[0]).isEqualTo((byte) 0x1f);
+        assertThat(entry[1]).isEqualTo((byte) 0x8b);
+    }
+
+    @Test
+    public void redisEntryWithEnvelope() throws IOException {
+        MockTracer tracer = new MockTracer();
+        DataPointsCodec codec = DataPointsCodec.create("lz4", 0, null);
+        RedisDataPointsQueryStore store = new RedisDataPointsQueryStore(mock(JedisPool.class), tracer, codec, false);
+
+        byte[] entry = store.compress(query);
+        assertThat(entry[0]).isEqualTo(DataPointsCodec.ENVELOPE_V1);
+        assertThat(entry[1]).isEqualTo(DataPointsCodec.LZ4);
+        assertThat(entry[2]).isEqualTo((byte) 0);
+        assertThat(codec.decode(entry, 3)).isEqualTo(query);
+
+        Span span = tracer.buildSpan("redisEntryWithEnvelope").start();
+        try (Scope scope = tracer.scopeManager().activate(span, false)) {
+            entry = store.compress(query);
+        } finally {
+            span.finish();
+        }
+        assertThat(entry[2]).isEqualTo(DataPointsCodec.FLAG_TRACE);
+        // trace format byte and length of the span context
+        assertThat(entry[3]).isEqualTo((byte) 0);
+        int traceLength = ByteBuffer.wrap(entry, 4, 4).getInt();
+        assertThat(codec.decode(entry, 3 + 1 + 4 + traceLength)).isEqualTo(query);
+    }
+}
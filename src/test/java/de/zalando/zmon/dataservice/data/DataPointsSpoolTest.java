@@ -0,0 +1,99 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class DataPointsSpoolTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReplayedInOrderAcrossSegments() throws IOException {
+        DataPointsSpool spool = new DataPointsSpool(folder.getRoot(), 64, 0);
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertThat(spool.append(bytes("[" + i + "]"), i)).isTrue();
+        }
+        // 16 byte header plus 3 bytes payload, three records per segment
+        Assertions.assertThat(segments()).hasSize(4);
+        Assertions.assertThat(spool.getPendingQueries()).isEqualTo(10);
+        Assertions.assertThat(spool.getPendingBytes()).isEqualTo(30);
+
+        for (int i = 0; i < 10; i++) {
+            DataPointsSpool.Entry entry = spool.peek();
+            Assertions.assertThat(new String(entry.query, StandardCharsets.UTF_8)).isEqualTo("[" + i + "]");
+            Assertions.assertThat(entry.points).isEqualTo(i);
+            // not consumed before commit
+            Assertions.assertThat(spool.peek().query).isEqualTo(entry.query);
+            spool.commit();
+        }
+
+        Assertions.assertThat(spool.peek()).isNull();
+        Assertions.assertThat(spool.getPendingQueries()).isEqualTo(0);
+        Assertions.assertThat(spool.getOldestAge()).isEqualTo(0);
+        // the last segment is kept for appends
+        Assertions.assertThat(segments()).hasSize(1);
+    }
+
+    @Test
+    public void pendingRecordsSurviveRestart() throws IOException {
+        DataPointsSpool spool = new DataPointsSpool(folder.getRoot(), 64, 0);
+        spool.append(bytes("[1]"), 1);
+        spool.append(bytes("[2]"), 1);
+        spool.append(bytes("[3]"), 1);
+        spool.append(bytes("[4]"), 1);
+        spool.peek();
+        spool.commit();
+        spool.close();
+
+        DataPointsSpool recovered = new DataPointsSpool(folder.getRoot(), 64, 0);
+        Assertions.assertThat(recovered.getPendingQueries()).isEqualTo(3);
+        Assertions.assertThat(new String(recovered.peek().query, StandardCharsets.UTF_8)).isEqualTo("[2]");
+
+        recovered.append(bytes("[5]"), 1);
+        for (String expected : new String[]{"[2]", "[3]", "[4]", "[5]"}) {
+            Assertions.assertThat(new String(recovered.peek().query, StandardCharsets.UTF_8)).isEqualTo(expected);
+            recovered.commit();
+        }
+        Assertions.assertThat(recovered.peek()).isNull();
+    }
+
+    @Test
+    public void fullSpoolRejectsAppends() throws IOException {
+        DataPointsSpool spool = new DataPointsSpool(folder.getRoot(), 64, 128);
+        for (int i = 0; i < 6; i++) {
+            Assertions.assertThat(spool.append(bytes("[" + i + "]"), 1)).isTrue();
+        }
+        Assertions.assertThat(spool.append(bytes("[6]"), 1)).isFalse();
+
+        // replaying frees the first segment
+        for (int i = 0; i < 4; i++) {
+            spool.peek();
+            spool.commit();
+        }
+        Assertions.assertThat(spool.append(bytes("[6]"), 1)).isTrue();
+    }
+
+    @Test
+    public void largeQueryGetsOwnSegment() throws IOException {
+        DataPointsSpool spool = new DataPointsSpool(folder.getRoot(), 64, 0);
+        byte[] large = new byte[1000];
+        spool.append(large, 100);
+
+        Assertions.assertThat(spool.peek().query).isEqualTo(large);
+    }
+
+    private File[] segments() {
+        return folder.getRoot().listFiles();
+    }
+
+    private static byte[] bytes(String query) {
+        return query.getBytes(StandardCharsets.UTF_8);
+    }
+}
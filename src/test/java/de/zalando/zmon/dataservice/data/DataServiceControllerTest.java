@@ -1,6 +1,9 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,6 +26,8 @@ import org.springframework.test.context.ContextConfiguration;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import de.zalando.zmon.dataservice.AbstractControllerTest;
 import de.zalando.zmon.dataservice.DataServiceMetrics;
@@ -102,6 +107,103 @@ public class DataServiceControllerTest extends AbstractControllerTest {
         Mockito.verify(metrics, Mockito.atLeast(1)).markParseError();
     }
 
+    @Test
+    public void extractFromStreamFiltersAccount() {
+        String data = "{\"results\":[{\"entity_id\":\"a[aws:stups]\"},{\"entity_id\":\"b[aws:other]\"}]}";
+        Optional<WorkerResult> wrOptional = controller.extractAndFilterStream(
+                new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), "stups", 13);
+        Assertions.assertThat(wrOptional.get().results).hasSize(1);
+        Assertions.assertThat(wrOptional.get().results.get(0).entityId).isEqualTo("a[aws:stups]");
+        Mockito.verify(metrics).markRate(2);
+    }
+
+    @Test
+    public void extractFromEmptyStream() {
+        Optional<WorkerResult> wrOptional = controller.extractAndFilterStream(new ByteArrayInputStream(new byte[0]), "stups", 13);
+        Assertions.assertThat(wrOptional.isPresent()).isFalse();
+        Mockito.verify(metrics, Mockito.atLeast(1)).markParseError();
+    }
+
+    @Test
+    public void extractBatchFromStream() {
+        String data = "{\"results\":[{\"check_id\":1,\"entity_id\":\"a[aws:stups]\"}]}\n"
+                + "{\"results\":[{\"check_id\":2,\"entity_id\":\"b[aws:stups]\"}]}\n";
+        List<WriteData> batch = controller.extractBatchStream(
+                new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), "stups", Optional.of("eu"));
+        Assertions.assertThat(batch).hasSize(2);
+        Assertions.assertThat(batch.get(0).getCheckId()).isEqualTo(1);
+        Assertions.assertThat(batch.get(1).getCheckId()).isEqualTo(2);
+        Assertions.assertThat(batch.get(0).getDataSize()).isEqualTo(data.indexOf('\n'));
+        Assertions.assertThat(batch.get(1).getRegion()).isEqualTo(Optional.of("eu"));
+        Mockito.verify(metrics, Mockito.never()).markParseError();
+    }
+
+    @Test
+    public void extractBatchKeepsRecordsBeforeParseError() {
+        String data = "{\"results\":[{\"check_id\":1,\"entity_id\":\"a[aws:stups]\"}]}\n{\"results\":[";
+        List<WriteData> batch = controller.extractBatchStream(
+                new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), "stups", Optional.empty());
+        Assertions.assertThat(batch).hasSize(1);
+        Mockito.verify(metrics).markParseError();
+    }
+
+    @Test
+    public void extractSmileSameAsJson() throws IOException {
+        assertSameAsJson(WireFormat.SMILE, new ObjectMapper(new SmileFactory()));
+    }
+
+    @Test
+    public void extractCborSameAsJson() throws IOException {
+        assertSameAsJson(WireFormat.CBOR, new ObjectMapper(new CBORFactory()));
+    }
+
+    @Test
+    public void transcodeSmileBatchToJson() throws IOException {
+        String data = "{\"results\":[{\"check_id\":1,\"entity_id\":\"a[aws:stups]\"}]}\n"
+                + "{\"results\":[{\"check_id\":2,\"entity_id\":\"b[aws:stups]\",\"check_result\":{\"value\":1.5}}]}";
+        ObjectMapper smile = new ObjectMapper(new SmileFactory());
+        byte[] encoded = concat(smile.writeValueAsBytes(customObjectMapper.readTree(data.split("\n")[0])),
+                smile.writeValueAsBytes(customObjectMapper.readTree(data.split("\n")[1])));
+
+        Assertions.assertThat(controller.toJson(encoded, WireFormat.SMILE, 0)).isEqualTo(data);
+
+        List<WriteData> batch = controller.extractBatchStream(new ByteArrayInputStream(encoded), WireFormat.SMILE, "stups", Optional.empty());
+        Assertions.assertThat(batch).hasSize(2);
+        Assertions.assertThat(batch.get(1).getCheckId()).isEqualTo(2);
+        Assertions.assertThat(batch.get(0).getDataSize()).isPositive();
+        Mockito.verify(metrics, Mockito.never()).markParseError();
+    }
+
+    @Test
+    public void wireFormatFromContentType() {
+        Assertions.assertThat(WireFormat.fromContentType(null)).isEqualTo(WireFormat.JSON);
+        Assertions.assertThat(WireFormat.fromContentType("application/json;charset=UTF-8")).isEqualTo(WireFormat.JSON);
+        Assertions.assertThat(WireFormat.fromContentType("application/x-jackson-smile")).isEqualTo(WireFormat.SMILE);
+        Assertions.assertThat(WireFormat.fromContentType("application/cbor; q=1")).isEqualTo(WireFormat.CBOR);
+    }
+
+    private void assertSameAsJson(WireFormat format, ObjectMapper binaryMapper) throws IOException {
+        String json = resourceToString(jsonResource("workerResult"));
+        byte[] encoded = binaryMapper.writeValueAsBytes(customObjectMapper.readTree(json));
+
+        Optional<WorkerResult> fromJson = controller.extractAndFilterStream(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "dc:local", 13);
+        Optional<WorkerResult> fromBinary = controller.extractAndFilterStream(
+                new ByteArrayInputStream(encoded), format, "dc:local", 13);
+
+        Assertions.assertThat(fromBinary.get().results).isNotEmpty();
+        Assertions.assertThat(customObjectMapper.writeValueAsString(fromBinary.get()))
+                .isEqualTo(customObjectMapper.writeValueAsString(fromJson.get()));
+        Assertions.assertThat(customObjectMapper.readTree(controller.toJson(encoded, format, 13)))
+                .isEqualTo(customObjectMapper.readTree(json));
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
     @Test
     public void tialRunWithException() {
         DataServiceController controllerSpy = Mockito.spy(controller);
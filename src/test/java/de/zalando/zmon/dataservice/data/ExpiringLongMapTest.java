@@ -0,0 +1,71 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpiringLongMapTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void expiresAfterTtl() {
+        ExpiringLongMap cache = new ExpiringLongMap(10, 100, now::get);
+        cache.put(1);
+
+        assertThat(cache.containsKey(1)).isTrue();
+        assertThat(cache.containsKey(2)).isFalse();
+
+        now.addAndGet(100);
+        assertThat(cache.containsKey(1)).isFalse();
+
+        cache.put(1);
+        assertThat(cache.containsKey(1)).isTrue();
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void clearedWhenFull() {
+        ExpiringLongMap cache = new ExpiringLongMap(1000, 100, now::get);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(ExpiringLongMap.hash(i, "entity-" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertThat(cache.containsKey(ExpiringLongMap.hash(i, "entity-" + i))).isTrue();
+        }
+        assertThat(cache.containsKey(ExpiringLongMap.hash(1, "entity-2"))).isFalse();
+
+        cache.put(ExpiringLongMap.hash(1000, "entity-1000"));
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.containsKey(ExpiringLongMap.hash(0, "entity-0"))).isFalse();
+        assertThat(cache.containsKey(ExpiringLongMap.hash(1000, "entity-1000"))).isTrue();
+    }
+
+    @Test
+    public void zeroAndNegativeKeys() {
+        ExpiringLongMap cache = new ExpiringLongMap(10, 100, now::get);
+        cache.put(0);
+        cache.put(-1);
+        assertThat(cache.containsKey(0)).isTrue();
+        assertThat(cache.containsKey(-1)).isTrue();
+        assertThat(cache.containsKey(1)).isFalse();
+    }
+
+    @Test
+    public void valueMustMatch() {
+        ExpiringLongMap cache = new ExpiringLongMap(10, 100, now::get);
+        cache.put(7, 42);
+
+        assertThat(cache.contains(7, 42)).isTrue();
+        assertThat(cache.contains(7, 43)).isFalse();
+
+        cache.put(7, 43);
+        assertThat(cache.contains(7, 42)).isFalse();
+        assertThat(cache.contains(7, 43)).isTrue();
+
+        now.addAndGet(100);
+        assertThat(cache.contains(7, 43)).isFalse();
+    }
+}
@@ -0,0 +1,49 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.io.ByteStreams;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class GzipEncoderTest {
+
+    private final GzipEncoder encoder = new GzipEncoder(6);
+
+    @Test
+    public void encodedBodyIsValidGzip() throws IOException {
+        StringBuilder query = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            query.append("{\"name\":\"zmon.check.1\",\"tags\":{\"entity\":\"host-").append(i)
+                    .append("\",\"key\":\"cpu\"},\"datapoints\":[[1490000000000,").append(i).append("]]},");
+        }
+        query.setCharAt(query.length() - 1, ']');
+        byte[] data = query.toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] encoded = encoder.encode(data);
+
+        Assertions.assertThat(encoded.length).isLessThan(data.length / 10);
+        Assertions.assertThat(decode(encoded)).isEqualTo(data);
+        // the deflater of this thread is reused
+        Assertions.assertThat(decode(encoder.encode(data))).isEqualTo(data);
+    }
+
+    @Test
+    public void incompressibleAndEmptyBodies() throws IOException {
+        byte[] random = new byte[64 * 1024];
+        new Random(42).nextBytes(random);
+
+        Assertions.assertThat(decode(encoder.encode(random))).isEqualTo(random);
+        Assertions.assertThat(decode(encoder.encode(new byte[0]))).isEmpty();
+    }
+
+    private static byte[] decode(byte[] encoded) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
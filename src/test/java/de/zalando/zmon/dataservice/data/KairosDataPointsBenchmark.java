@@ -0,0 +1,150 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.NumericNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.collect.ImmutableMap;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flattening and serializing of actuator check results to a KairosDB query. The map based flattening is the former
+ * implementation, kept here as baseline. Run with the gc profiler to see allocation per worker result.
+ * <p>
+ * Not part of the test suite, start with main() from the IDE or the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KairosDataPointsBenchmark {
+
+    // endpoints per check result, each with 3 status codes and 7 timer/meter values
+    @Param({"10", "100"})
+    int endpoints;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private JsonNode value;
+
+    private WorkerResult workerResult;
+
+    private KairosDBStore store;
+
+    @Setup
+    public void setUp() throws IOException {
+        value = actuatorValue(endpoints);
+
+        DataServiceConfigProperties config = new DataServiceConfigProperties();
+        config.setKairosdbEnabled(true);
+        config.setActuatorMetricChecks(Collections.singletonList(1));
+        config.setResultSizeWarning(Integer.MAX_VALUE);
+        config.setResultSizeMetricThreshold(Integer.MAX_VALUE);
+        store = new KairosDBStore(config, Mockito.mock(DataServiceMetrics.class), query -> 0,
+                Mockito.mock(MetricTiers.class));
+
+        workerResult = new WorkerResult();
+        workerResult.results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            CheckData cd = new CheckData();
+            cd.checkId = 1;
+            cd.entityId = "app-" + i + "[aws:1234567890:eu-central-1]";
+            cd.entity = ImmutableMap.of("application_id", "app", "stack_name", "app-" + i, "type", "instance");
+            ObjectNode checkResult = mapper.createObjectNode();
+            checkResult.put("ts", 1490000000.5);
+            checkResult.set("value", value);
+            cd.checkResultJson = mapper.writeValueAsBytes(checkResult);
+            workerResult.results.add(cd);
+        }
+    }
+
+    @Benchmark
+    public Map<String, NumericNode> flattenToMap() {
+        final Map<String, NumericNode> values = new HashMap<>();
+        fillFlatValueMap(values, "", value);
+        return values;
+    }
+
+    @Benchmark
+    public int flattenWithVisitor(Blackhole blackhole) {
+        return new ValueFlattener().flatten(value, new ValueFlattener.Visitor() {
+            @Override
+            public void value(String key, long value) {
+                blackhole.consume(key);
+                blackhole.consume(value);
+            }
+
+            @Override
+            public void value(String key, double value) {
+                blackhole.consume(key);
+                blackhole.consume(value);
+            }
+        });
+    }
+
+    @Benchmark
+    public void storeWorkerResult() {
+        store.store(workerResult);
+    }
+
+    // the former KairosDBStore.fillFlatValueMap
+    private static void fillFlatValueMap(Map<String, NumericNode> values, String prefix, JsonNode base) {
+        if (base instanceof NumericNode) {
+            values.put(prefix, (NumericNode) base);
+        } else if (base instanceof TextNode) {
+            try {
+                values.put(prefix, new DecimalNode(new BigDecimal(base.textValue())));
+            } catch (NumberFormatException ex) {
+                // Ignore
+            }
+        } else if (base instanceof ObjectNode) {
+            Iterator<String> i = base.fieldNames();
+            while (i.hasNext()) {
+                String k = i.next();
+                fillFlatValueMap(values, prefix.length() == 0 ? k : prefix + "." + k, base.get(k));
+            }
+        }
+    }
+
+    // shaped like the zmon actuator metrics check: endpoint, status code, timer/meter values
+    private ObjectNode actuatorValue(int count) {
+        ObjectNode value = mapper.createObjectNode();
+        for (int i = 0; i < count; i++) {
+            ObjectNode endpoint = value.with(i % 2 == 0 ? "GET" : "POST").putObject("api.resource-" + i);
+            for (String status : new String[]{"200", "404", "500"}) {
+                endpoint.putObject(status).put("count", 12345 + i).put("mRate", 1.2345 * i).put("m1Rate", 0.987 * i)
+                        .put("99th", 12.5 + i).put("75th", "4.25").put("median", 2.5 + i).put("mean", "n/a");
+            }
+        }
+        value.putObject("health").putObject("GET").putObject("200").put("count", 3);
+        return value;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(KairosDataPointsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
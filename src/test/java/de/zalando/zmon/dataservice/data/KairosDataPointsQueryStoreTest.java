@@ -0,0 +1,145 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.tag.Tags;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+
+public class KairosDataPointsQueryStoreTest {
+
+    private static final byte[] QUERY = "[{\"name\":\"zmon.check.1\",\"tags\":{},\"datapoints\":[[1,1]]}]"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final WireMockRule first = new WireMockRule(10083);
+
+    @Rule
+    public final WireMockRule second = new WireMockRule(10084);
+
+    private final DataServiceMetrics metrics = Mockito.mock(DataServiceMetrics.class);
+
+    private final DataServiceConfigProperties config = new DataServiceConfigProperties();
+
+    private final MockTracer tracer = new MockTracer();
+
+    private KairosDataPointsQueryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        config.setKairosdbWriteUrls(ImmutableList.of(
+                ImmutableList.of("http://localhost:10083"),
+                ImmutableList.of("http://localhost:10084")));
+        config.setKairosdbSocketTimeout(1000);
+        store = new KairosDataPointsQueryStore(config, metrics, tracer);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void groupsAreWrittenConcurrently() {
+        for (WireMockRule server : new WireMockRule[]{first, second}) {
+            server.stubFor(post(urlPathEqualTo("/api/v1/datapoints"))
+                    .willReturn(aResponse().withStatus(204).withFixedDelay(300)));
+        }
+
+        final long start = System.currentTimeMillis();
+        Assertions.assertThat(store.store(QUERY)).isEqualTo(0);
+        Assertions.assertThat(System.currentTimeMillis() - start).isLessThan(600);
+
+        first.verify(postRequestedFor(urlPathEqualTo("/api/v1/datapoints"))
+                .withHeader("Content-Type", containing("application/json"))
+                .withRequestBody(equalToJson(new String(QUERY, StandardCharsets.UTF_8))));
+        second.verify(postRequestedFor(urlPathEqualTo("/api/v1/datapoints")));
+        Mockito.verify(metrics).updateKairosGroupLatency(Mockito.eq(0), Mockito.anyLong());
+        Mockito.verify(metrics).updateKairosGroupLatency(Mockito.eq(1), Mockito.anyLong());
+        Mockito.verify(metrics, Mockito.never()).markKairosGroupError(Mockito.anyInt());
+    }
+
+    @Test
+    public void failedAndTimedOutGroupsAreCounted() throws Exception {
+        first.stubFor(post(urlPathEqualTo("/api/v1/datapoints")).willReturn(aResponse().withStatus(500)));
+        second.stubFor(post(urlPathEqualTo("/api/v1/datapoints"))
+                .willReturn(aResponse().withStatus(204).withFixedDelay(3000)));
+
+        Assertions.assertThat(store.store(QUERY)).isEqualTo(2);
+        Mockito.verify(metrics).markKairosGroupError(0);
+
+        second.resetMappings();
+        second.stubFor(post(urlPathEqualTo("/api/v1/datapoints")).willReturn(aResponse().withStatus(204)));
+        Assertions.assertThat(store.store(QUERY)).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectedQueriesAreDroppedNotFailed() {
+        first.stubFor(post(urlPathEqualTo("/api/v1/datapoints")).willReturn(aResponse().withStatus(400)));
+        second.stubFor(post(urlPathEqualTo("/api/v1/datapoints")).willReturn(aResponse().withStatus(429)));
+
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertThat(store.store(QUERY)).isEqualTo(1);
+        }
+
+        Mockito.verify(metrics, Mockito.times(20)).markKairosGroupRejected(0);
+        Mockito.verify(metrics, Mockito.never()).markKairosGroupError(0);
+        Mockito.verify(metrics, Mockito.atLeastOnce()).markKairosGroupError(1);
+        // only the group answering 429 opens its host
+        Mockito.verify(metrics, Mockito.times(1)).markKairosHostOpened();
+    }
+
+    @Test
+    public void everyPostIsTraced() {
+        first.stubFor(post(urlPathEqualTo("/api/v1/datapoints")).willReturn(aResponse().withStatus(204)));
+        second.stubFor(post(urlPathEqualTo("/api/v1/datapoints")).willReturn(aResponse().withStatus(500)));
+
+        store.store(QUERY);
+
+        final List<MockSpan> spans = tracer.finishedSpans();
+        Assertions.assertThat(spans).hasSize(2);
+        for (MockSpan span : spans) {
+            Assertions.assertThat(span.operationName()).isEqualTo("POST");
+            Assertions.assertThat(span.tags()).containsEntry(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT);
+        }
+        Assertions.assertThat(spans).extracting(span -> span.tags().get(Tags.HTTP_STATUS.getKey()))
+                .containsOnly(204, 500);
+        first.verify(postRequestedFor(urlPathEqualTo("/api/v1/datapoints")).withHeader("traceid", matching(".+")));
+    }
+
+    @Test
+    public void gzipCompressedBody() throws Exception {
+        store.close();
+        config.setKairosdbGzipEnabled(true);
+        store = new KairosDataPointsQueryStore(config, metrics, tracer);
+        for (WireMockRule server : new WireMockRule[]{first, second}) {
+            server.stubFor(post(urlPathEqualTo("/api/v1/datapoints")).willReturn(aResponse().withStatus(204)));
+        }
+
+        Assertions.assertThat(store.store(QUERY)).isEqualTo(0);
+
+        first.verify(postRequestedFor(urlPathEqualTo("/api/v1/datapoints"))
+                .withHeader("Content-Type", containing("application/gzip")));
+        byte[] body = first.findAll(postRequestedFor(urlPathEqualTo("/api/v1/datapoints"))).get(0).getBody();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            Assertions.assertThat(ByteStreams.toByteArray(in)).isEqualTo(QUERY);
+        }
+        Mockito.verify(metrics).updateKairosGzip(Mockito.eq(QUERY.length), Mockito.eq(body.length));
+    }
+}
@@ -1,21 +1,36 @@
 package de.zalando.zmon.dataservice.data;
 
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import de.zalando.zmon.dataservice.AbstractControllerTest;
 import de.zalando.zmon.dataservice.DataServiceMetrics;
 import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.test.context.ContextConfiguration;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static de.zalando.zmon.dataservice.data.Fixture.buildWorkerResult;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.verify;
@@ -41,6 +56,8 @@ public class KairosDbStoreTest extends AbstractControllerTest {
 
     @Before
     public void setUp() {
+        // the mocks are shared by all tests of the context
+        reset(dataPointsQueryStore, metrics);
         wireMockRule.stubFor(post(urlPathEqualTo("/api/v1/datapoints"))
                 .willReturn(aResponse().withStatus(200).withBody("{}").withFixedDelay(200)));
     }
@@ -49,7 +66,7 @@ public class KairosDbStoreTest extends AbstractControllerTest {
     public void writeWorkerResult() {
         KairosDBStore kairosDb = new KairosDBStore(config, metrics, dataPointsQueryStore, metricTiers);
         kairosDb.store(buildWorkerResult());
-        verify(dataPointsQueryStore, atMost(1)).store(anyString());
+        verify(dataPointsQueryStore, atMost(1)).store(any(byte[].class), anyInt());
         verify(metrics, never()).markKairosError();
         verify(metrics, never()).markKairosHostErrors(anyLong());
     }
@@ -61,9 +78,95 @@ public class KairosDbStoreTest extends AbstractControllerTest {
             kairosDb.store(wr);
             verify(metrics, never()).incKairosDBDataPoints(anyLong());
             verify(dataPointsQueryStore, never()).store(anyString());
+            verify(dataPointsQueryStore, never()).store(any(byte[].class));
+            verify(dataPointsQueryStore, never()).store(any(byte[].class), anyInt());
         }
     }
 
+    @Test
+    public void writeQueryJson() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        WorkerResult wr = new WorkerResult();
+        wr.results = new ArrayList<>();
+        wr.results.add(checkData(7, "{\"ts\":1490000000.5,\"value\":{\"a\":1,\"b\":{\"c\":\"2.5\"},\"d\":\"x\"}}"));
+        wr.results.add(checkData(8, "{\"ts\":1490000001,\"value\":{\"api\":{\"orders\":{\"404\":{\"count\":3}}},"
+                + "\"health\":{\"GET\":{\"200\":{\"count\":9}}}}}"));
+
+        KairosDBStore kairosDb = new KairosDBStore(config, metrics, dataPointsQueryStore, metricTiers);
+        kairosDb.store(wr);
+
+        ArgumentCaptor<byte[]> query = ArgumentCaptor.forClass(byte[].class);
+        verify(dataPointsQueryStore).store(query.capture(), eq(3));
+        Map<String, JsonNode> points = new TreeMap<>();
+        for (JsonNode point : mapper.readTree(query.getValue())) {
+            points.put(point.get("name").asText() + ":" + point.get("tags").get("key").asText(), point);
+        }
+
+        assertThat(points.keySet()).containsExactly("zmon.check.7:a", "zmon.check.7:b.c", "zmon.check.8:api.orders.404.count");
+        assertThat(points.get("zmon.check.7:a").toString()).isEqualTo("{\"name\":\"zmon.check.7\","
+                + "\"tags\":{\"application_id\":\"app\",\"entity\":\"host_aws_1_\",\"key\":\"a\",\"metric\":\"a\"},"
+                + "\"datapoints\":[[1490000000500,1]]}");
+        assertThat(points.get("zmon.check.7:b.c").get("datapoints").toString()).isEqualTo("[[1490000000500,2.5]]");
+        JsonNode actuatorTags = points.get("zmon.check.8:api.orders.404.count").get("tags");
+        assertThat(actuatorTags.get("sc").asText()).isEqualTo("404");
+        assertThat(actuatorTags.get("sg").asText()).isEqualTo("4");
+        assertThat(actuatorTags.get("path").asText()).isEqualTo("api");
+        verify(metrics).incKairosDBDataPoints(3);
+    }
+
+    @Test
+    public void groupPointsOfSameSeries() throws IOException {
+        WorkerResult first = new WorkerResult();
+        first.results = new ArrayList<>();
+        first.results.add(checkData(9, "{\"ts\":1490000000,\"value\":{\"a\":1,\"b\":2}}"));
+        first.results.add(checkData(9, "{\"ts\":1490000060,\"value\":{\"a\":3}}"));
+        WorkerResult second = new WorkerResult();
+        second.results = new ArrayList<>();
+        second.results.add(checkData(9, "{\"ts\":1490000120,\"value\":{\"a\":5}}"));
+
+        KairosDBStore kairosDb = new KairosDBStore(config, metrics, dataPointsQueryStore, metricTiers);
+        kairosDb.store(Arrays.asList(first, second));
+
+        ArgumentCaptor<byte[]> query = ArgumentCaptor.forClass(byte[].class);
+        verify(dataPointsQueryStore).store(query.capture(), eq(4));
+        JsonNode series = new ObjectMapper().readTree(query.getValue());
+        assertThat(series.size()).isEqualTo(2);
+        assertThat(series.get(0).get("tags").get("key").asText()).isEqualTo("a");
+        assertThat(series.get(0).get("datapoints").toString())
+                .isEqualTo("[[1490000000000,1],[1490000060000,3],[1490000120000,5]]");
+        assertThat(series.get(1).get("datapoints").toString()).isEqualTo("[[1490000000000,2]]");
+        verify(metrics).incKairosDBDataPoints(4);
+        verify(metrics).incKairosDBSeries(2);
+    }
+
+    @Test
+    public void skipChecksSampledOutByBackpressure() throws IOException {
+        WorkerResult wr = new WorkerResult();
+        wr.results = new ArrayList<>();
+        wr.results.add(checkData(7, "{\"ts\":1490000000,\"value\":1}"));
+        wr.results.add(checkData(8, "{\"ts\":1490000000,\"value\":2}"));
+        DataPointsBackpressure backpressure = mock(DataPointsBackpressure.class);
+        when(backpressure.isSampledOut(7)).thenReturn(true);
+
+        KairosDBStore kairosDb = new KairosDBStore(config, metrics, dataPointsQueryStore, metricTiers);
+        kairosDb.setBackpressure(backpressure);
+        kairosDb.store(wr);
+
+        ArgumentCaptor<byte[]> query = ArgumentCaptor.forClass(byte[].class);
+        verify(dataPointsQueryStore).store(query.capture(), eq(1));
+        assertThat(new ObjectMapper().readTree(query.getValue()).get(0).get("name").asText()).isEqualTo("zmon.check.8");
+        verify(metrics).markDataPointsBackpressureSampled();
+    }
+
+    private static CheckData checkData(int checkId, String checkResult) throws IOException {
+        CheckData cd = new CheckData();
+        cd.checkId = checkId;
+        cd.entityId = "host[aws:1]";
+        cd.entity = ImmutableMap.of("application_id", "app", "key", "ignored");
+        cd.checkResultJson = checkResult.getBytes(StandardCharsets.UTF_8);
+        return cd;
+    }
+
     @Configuration
     static class TestConfig {
 
@@ -73,6 +176,7 @@ public class KairosDbStoreTest extends AbstractControllerTest {
             props.setKairosdbWriteUrls(ImmutableList.of(ImmutableList.of("http://localhost:10081")));
             props.setLogKairosdbRequests(true);
             props.setLogKairosdbErrors(true);
+            props.setActuatorMetricChecks(ImmutableList.of(8));
             return props;
         }
 
@@ -1,5 +1,6 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.util.Arrays;
 import java.util.Optional;
 
 import org.junit.After;
@@ -52,6 +53,15 @@ public class KairosDbWorkResultWriterTest {
         Mockito.verify(metrics, Mockito.never()).markKairosError();
     }
 
+    @Test
+    public void batchIsStoredOnce() {
+        KairosDbWorkResultWriter writer = new KairosDbWorkResultWriter(kairosDbStore, metrics);
+        writer.writeBatch(Arrays.asList(Fixture.writeData(Optional.of(wrMock)), Fixture.writeData(Optional.empty()),
+                Fixture.writeData(Optional.of(wrMock))));
+        Mockito.verify(kairosDbStore, Mockito.times(1)).store(Arrays.asList(wrMock, wrMock));
+        Mockito.verify(kairosDbStore, Mockito.never()).store(Mockito.any(WorkerResult.class));
+    }
+
     @Test
     public void nonEmptyOptionalWithStoreException() {
         Mockito.doThrow(new RuntimeException("test")).when(kairosDbStore).store(Mockito.any(WorkerResult.class));
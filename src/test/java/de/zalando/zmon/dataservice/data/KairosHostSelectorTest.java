@@ -0,0 +1,90 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.google.common.collect.ImmutableList;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class KairosHostSelectorTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final KairosHostSelector selector = new KairosHostSelector(
+            ImmutableList.of("http://a", "http://b", "http://c"), 0.5, 1000, clock::get);
+
+    @Test
+    public void slowHostGetsLessTraffic() {
+        final Map<String, Integer> picks = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            final KairosHostSelector.Host host = selector.select();
+            picks.merge(host.getUrl(), 1, Integer::sum);
+            host.release(true, host.getUrl().equals("http://c") ? 500 : 10);
+        }
+        // c only wins if it is compared with itself, which never happens
+        Assertions.assertThat(picks.getOrDefault("http://c", 0)).isLessThan(100);
+        Assertions.assertThat(picks.get("http://a")).isGreaterThan(1000);
+        Assertions.assertThat(picks.get("http://b")).isGreaterThan(1000);
+    }
+
+    @Test
+    public void failingHostIsOpenedAndProbedAfterCoolDown() {
+        final KairosHostSelector.Host c = selector.getHosts()[2];
+        boolean opened = false;
+        while (!opened) {
+            final KairosHostSelector.Host host = selector.select();
+            opened = host.release(host != c, 10);
+        }
+        Assertions.assertThat(c.getState()).isEqualTo(KairosHostSelector.OPEN);
+
+        for (int i = 0; i < 1000; i++) {
+            final KairosHostSelector.Host host = selector.select();
+            Assertions.assertThat(host).isNotSameAs(c);
+            host.release(true, 10);
+        }
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        KairosHostSelector.Host probe = null;
+        for (int i = 0; i < 1000 && probe != c; i++) {
+            probe = selector.select();
+            if (probe != c) {
+                probe.release(true, 10);
+            }
+        }
+        Assertions.assertThat(probe).isSameAs(c);
+        Assertions.assertThat(c.getState()).isEqualTo(KairosHostSelector.HALF_OPEN);
+
+        // only one probe at a time
+        for (int i = 0; i < 100; i++) {
+            final KairosHostSelector.Host host = selector.select();
+            Assertions.assertThat(host).isNotSameAs(c);
+            host.release(true, 10);
+        }
+
+        Assertions.assertThat(c.release(true, 10)).isFalse();
+        Assertions.assertThat(c.getState()).isEqualTo(KairosHostSelector.CLOSED);
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        final KairosHostSelector single = new KairosHostSelector(ImmutableList.of("http://a"), 0.5, 1000, clock::get);
+        final KairosHostSelector.Host a = single.getHosts()[0];
+        while (a.getState() != KairosHostSelector.OPEN) {
+            single.select().release(false, 10);
+        }
+
+        // no healthy host left, the open one is still written to
+        Assertions.assertThat(single.select()).isSameAs(a);
+        a.release(true, 10);
+        Assertions.assertThat(a.getState()).isEqualTo(KairosHostSelector.OPEN);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        Assertions.assertThat(single.select()).isSameAs(a);
+        Assertions.assertThat(a.getState()).isEqualTo(KairosHostSelector.HALF_OPEN);
+        Assertions.assertThat(a.release(false, 10)).isTrue();
+        Assertions.assertThat(a.getState()).isEqualTo(KairosHostSelector.OPEN);
+    }
+}
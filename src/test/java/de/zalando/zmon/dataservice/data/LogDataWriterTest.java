@@ -1,14 +1,19 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.springframework.scheduling.annotation.Async;
 
 import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
 
+import static org.junit.Assert.assertTrue;
+
 public class LogDataWriterTest {
 
     private LogDataWriter writer;
@@ -40,4 +45,12 @@ public class LogDataWriterTest {
         Mockito.verify(spy, Mockito.times(1)).logData(Mockito.anyString());
     }
 
+    @Test
+    public void logBatch() throws Exception {
+        config.setLogCheckData(true);
+        spy.writeBatch(Arrays.asList(Fixture.writeData(Optional.empty()), Fixture.writeData(Optional.empty())));
+        Mockito.verify(spy, Mockito.times(2)).logData(Mockito.anyString());
+        assertTrue(LogDataWriter.class.getMethod("writeBatch", List.class).isAnnotationPresent(Async.class));
+    }
+
 }
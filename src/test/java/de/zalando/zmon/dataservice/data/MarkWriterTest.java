@@ -1,5 +1,8 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
@@ -7,9 +10,12 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.springframework.scheduling.annotation.Async;
 
 import de.zalando.zmon.dataservice.DataServiceMetrics;
 
+import static org.junit.Assert.assertTrue;
+
 public class MarkWriterTest {
     private DataServiceMetrics metrics;
     private DataServiceConfigProperties properties;
@@ -41,6 +47,32 @@ public class MarkWriterTest {
         verify();
     }
 
+    @Test
+    public void markEveryCheckOfBatchLine() throws Exception {
+        MarkWriter writer = new MarkWriter(properties, metrics);
+        WorkerResult wr = new WorkerResult();
+        wr.results = new ArrayList<>();
+        for (int checkId : new int[]{7, 8, 8}) {
+            CheckData cd = new CheckData();
+            cd.checkId = checkId;
+            wr.results.add(cd);
+        }
+        WriteData line = new WriteData(Optional.of(wr), "stups", Optional.empty(), 7, null, 10);
+        WriteData unparsed = new WriteData(Optional.empty(), "stups", Optional.empty(), 0, null, 5);
+
+        writer.writeBatch(Arrays.asList(line, unparsed));
+
+        Mockito.verify(metrics, Mockito.times(2)).markAccount(Mockito.anyString(), Mockito.anyObject(), Mockito.anyInt());
+        Mockito.verify(metrics).markCheck(7, 4);
+        Mockito.verify(metrics, Mockito.times(2)).markCheck(8, 3);
+        Mockito.verify(metrics, Mockito.never()).markCheck(Mockito.eq(0), Mockito.anyInt());
+    }
+
+    @Test
+    public void batchIsAsync() throws Exception {
+        assertTrue(MarkWriter.class.getMethod("writeBatch", List.class).isAnnotationPresent(Async.class));
+    }
+
     protected void verify() {
         Mockito.verify(metrics, Mockito.times(1)).markAccount(Mockito.anyString(), Mockito.anyObject(), Mockito.anyInt());
         Mockito.verify(metrics, Mockito.times(1)).markCheck(Mockito.anyInt(), Mockito.anyInt());
@@ -0,0 +1,36 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryCheckIdsTest {
+
+    private static final byte[] QUERY = ("[{\"name\":\"zmon.check.12\",\"tags\":{\"entity\":\"a\"},\"datapoints\":[[1,1]]},"
+            + "{\"name\":\"zmon.check.3\",\"tags\":{\"entity\":\"a\"},\"datapoints\":[[1,1]]},"
+            + "{\"name\":\"zmon.check.12\",\"tags\":{\"entity\":\"b\"},\"datapoints\":[[1,1],[2,2]]}]")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] NO_ID = "[{\"name\":\"zmon.check.x\"}]".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] OVERFLOW = ("[{\"name\":\"zmon.check.3000000000\"},"
+            + "{\"name\":\"zmon.check.2147483647\"}]").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void join() {
+        assertThat(QueryCheckIds.join(QUERY)).isEqualTo("3,12");
+        assertThat(QueryCheckIds.join("[]".getBytes(StandardCharsets.UTF_8))).isEmpty();
+        assertThat(QueryCheckIds.join(NO_ID)).isEmpty();
+        assertThat(QueryCheckIds.join(OVERFLOW)).isEqualTo("2147483647");
+    }
+
+    @Test
+    public void first() {
+        assertThat(QueryCheckIds.first(QUERY)).isEqualTo(12);
+        assertThat(QueryCheckIds.first("[]".getBytes(StandardCharsets.UTF_8))).isEqualTo(-1);
+        assertThat(QueryCheckIds.first(NO_ID)).isEqualTo(-1);
+        assertThat(QueryCheckIds.first(OVERFLOW)).isEqualTo(2147483647);
+    }
+}
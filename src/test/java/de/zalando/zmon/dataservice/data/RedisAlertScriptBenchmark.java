@@ -0,0 +1,116 @@
+package de.zalando.zmon.dataservice.data;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.SocketUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.embedded.RedisServer;
+import redis.embedded.RedisServerBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former inline EVAL, with the alert id pasted into the script, against EVALSHA of checkAlerts.lua.
+ * <p>
+ * At the end of each trial the Redis side cost is printed: script cache memory (used_memory_lua), server CPU
+ * time and the usec per call from the command stats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisAlertScriptBenchmark {
+
+    private static final int ALERTS_PER_PIPELINE = 100;
+
+    @Param({"10000"})
+    int distinctAlerts;
+
+    private RedisServer server;
+
+    private Jedis jedis;
+
+    private LuaScript script;
+
+    private int next;
+
+    private double cpuBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final int port = SocketUtils.findAvailableTcpPort();
+        server = new RedisServerBuilder().port(port).build();
+        server.start();
+        jedis = new Jedis("localhost", port);
+        script = new LuaScript("redis/scripts/checkAlerts.lua");
+        script.load(jedis);
+        cpuBefore = usedCpu();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println("used_memory_lua: " + info("memory", "used_memory_lua"));
+        System.out.println("used_cpu (sys+user) seconds: " + (usedCpu() - cpuBefore));
+        System.out.println("cmdstat_eval: " + info("commandstats", "cmdstat_eval"));
+        System.out.println("cmdstat_evalsha: " + info("commandstats", "cmdstat_evalsha"));
+        jedis.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public void inlineEval() {
+        final Pipeline p = jedis.pipelined();
+        for (int i = 0; i < ALERTS_PER_PIPELINE; i++) {
+            final int alertId = nextAlertId();
+            p.eval("if redis.call('scard','zmon:alerts:" + alertId + "') == 0 then " +
+                        "redis.call('srem','zmon:alert-acks', " + alertId + "); " +
+                        "return redis.call('srem','zmon:alerts'," + alertId + ") " +
+                    "else " +
+                        "return redis.call('sadd','zmon:alerts'," + alertId + ") " +
+                    "end");
+        }
+        p.sync();
+    }
+
+    @Benchmark
+    public void evalsha() {
+        final Pipeline p = jedis.pipelined();
+        final LuaScript.Calls calls = script.calls();
+        for (int i = 0; i < ALERTS_PER_PIPELINE; i++) {
+            final int alertId = nextAlertId();
+            calls.evalsha(p, 1, "zmon:alerts:" + alertId, String.valueOf(alertId));
+        }
+        p.sync();
+        calls.retryMissingScript(jedis);
+    }
+
+    private int nextAlertId() {
+        next = (next + 1) % distinctAlerts;
+        return next;
+    }
+
+    private double usedCpu() {
+        return Double.parseDouble(info("cpu", "used_cpu_sys")) + Double.parseDouble(info("cpu", "used_cpu_user"));
+    }
+
+    private String info(String section, String field) {
+        for (String line : jedis.info(section).split("\r\n")) {
+            if (line.startsWith(field + ":")) {
+                return line.substring(field.length() + 1);
+            }
+        }
+        return "n/a";
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RedisAlertScriptBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
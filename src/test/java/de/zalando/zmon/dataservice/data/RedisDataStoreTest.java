@@ -3,11 +3,20 @@ package de.zalando.zmon.dataservice.data;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
 
-public class RedisDataStoreTest {
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class RedisDataStoreTest extends RedistTestSupport {
 
     @Autowired
     private DataServiceMetrics metrics;
@@ -23,4 +32,152 @@ public class RedisDataStoreTest {
         String value = ds.buildValue(new AlertData(), cd);
         Assertions.assertThat(value).contains("\"value\":\"foobar\"");
     }
+
+    @Test
+    public void testSerializeValueFromRawCheckResult() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        RedisDataStore ds = new RedisDataStore(null, mapper, null, metrics);
+        AlertData alert = new AlertData();
+        alert.captures = mapper.readTree("{\"x\":1}");
+        alert.start_time_ts = 1.5;
+
+        CheckData tree = new CheckData();
+        tree.exception = true;
+        tree.checkResult = mapper.readTree("{\"ts\":1.2,\"worker\":\"w1\",\"value\":{\"a\":[1,2.5]},\"other\":{}}");
+        CheckData raw = new CheckData();
+        raw.exception = true;
+        raw.checkResultJson = mapper.writeValueAsBytes(tree.checkResult);
+
+        Assertions.assertThat(ds.buildValue(alert, raw)).isEqualTo(ds.buildValue(alert, tree))
+                .isEqualTo("{\"captures\":{\"x\":1},\"downtimes\":null,\"start_time\":1.5,\"ts\":1.2,\"td\":null,"
+                        + "\"worker\":\"w1\",\"exc\":1,\"value\":{\"a\":[1,2.5]}}");
+    }
+
+    @Test
+    public void testAlertScriptReloadedAfterFlush() {
+        DataServiceMetrics metricsMock = Mockito.mock(DataServiceMetrics.class);
+        JedisPool pool = new JedisPool("localhost", REDIS_SERVER.getPort());
+        RedisDataStore ds = new RedisDataStore(pool, new ObjectMapper(), null, metricsMock);
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushAll();
+            jedis.scriptFlush();
+
+            ds.store(Fixture.buildWorkerResult());
+
+            Assertions.assertThat(jedis.smembers("zmon:alerts")).containsOnly("0", "2");
+            Assertions.assertThat(jedis.scriptExists(new LuaScript("redis/scripts/checkAlerts.lua").getSha1())).isTrue();
+            Mockito.verify(metricsMock, Mockito.times(1)).markRedisScriptReload();
+
+            // loaded now, no further reload
+            ds.store(Fixture.buildWorkerResult());
+            Mockito.verify(metricsMock, Mockito.times(1)).markRedisScriptReload();
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void testSingleScriptSameAsCommands() {
+        DataServiceMetrics metricsMock = Mockito.mock(DataServiceMetrics.class);
+        JedisPool pool = new JedisPool("localhost", REDIS_SERVER.getPort());
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushAll();
+            WorkerResult wr = Fixture.buildWorkerResult();
+            wr.results.get(0).alerts.get("ad_0").active = false;
+
+            new RedisDataStore(pool, new ObjectMapper(), null, metricsMock).store(Arrays.asList(wr, wr));
+            Map<String, Object> expected = dump(jedis);
+
+            jedis.flushAll();
+            DataServiceConfigProperties config = new DataServiceConfigProperties();
+            config.setRedisStoreScript(true);
+            new RedisDataStore(pool, new ObjectMapper(), null, metricsMock, config).store(Arrays.asList(wr, wr));
+
+            Assertions.assertThat(expected).containsKeys("zmon:checks", "zmon:alerts", "zmon:alerts:2:ENTITY_0");
+            Assertions.assertThat(dump(jedis)).isEqualTo(expected);
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void testMembershipCacheSkipsKnownMembers() {
+        DataServiceMetrics metricsMock = Mockito.mock(DataServiceMetrics.class);
+        JedisPool pool = new JedisPool("localhost", REDIS_SERVER.getPort());
+        DataServiceConfigProperties config = new DataServiceConfigProperties();
+        config.setRedisMembershipCacheSize(100);
+        RedisDataStore ds = new RedisDataStore(pool, new ObjectMapper(), null, metricsMock, config);
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushAll();
+            ds.store(Fixture.buildWorkerResult());
+            Assertions.assertThat(jedis.smembers("zmon:checks:1")).containsOnly("ENTITY_1");
+
+            jedis.del("zmon:checks", "zmon:checks:1");
+            ds.store(Fixture.buildWorkerResult());
+            Assertions.assertThat(jedis.exists("zmon:checks:1")).isFalse();
+            Mockito.verify(metricsMock, Mockito.times(5)).markRedisMembershipSkipped(2);
+
+            ds.clearWriteCaches();
+            ds.store(Fixture.buildWorkerResult());
+            Assertions.assertThat(jedis.smembers("zmon:checks")).containsOnly("0", "1", "2", "3", "4");
+            Assertions.assertThat(jedis.smembers("zmon:checks:1")).containsOnly("ENTITY_1");
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void testAlertStateCacheSkipsUnchangedAlerts() {
+        DataServiceMetrics metricsMock = Mockito.mock(DataServiceMetrics.class);
+        JedisPool pool = new JedisPool("localhost", REDIS_SERVER.getPort());
+        DataServiceConfigProperties config = new DataServiceConfigProperties();
+        config.setRedisAlertStateCacheSize(100);
+        RedisDataStore ds = new RedisDataStore(pool, new ObjectMapper(), null, metricsMock, config);
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushAll();
+            ds.store(Fixture.buildWorkerResult());
+            Assertions.assertThat(jedis.smembers("zmon:alerts:0")).hasSize(5);
+
+            jedis.del("zmon:alerts:0", "zmon:alerts:0:entities", "zmon:alerts:0:ENTITY_0");
+            ds.store(Fixture.buildWorkerResult());
+            Mockito.verify(metricsMock, Mockito.times(15)).markRedisAlertWriteSkipped();
+            Assertions.assertThat(jedis.exists("zmon:alerts:0")).isFalse();
+            Assertions.assertThat(jedis.exists("zmon:alerts:0:entities")).isFalse();
+            // the value of an active alert is written anyway
+            Assertions.assertThat(jedis.exists("zmon:alerts:0:ENTITY_0")).isTrue();
+
+            WorkerResult changed = Fixture.buildWorkerResult();
+            changed.results.get(0).alerts.get("ad_0").active = false;
+            ds.store(changed);
+            Assertions.assertThat(jedis.exists("zmon:alerts:0:ENTITY_0")).isFalse();
+            Assertions.assertThat(jedis.hkeys("zmon:alerts:0:entities")).containsOnly("ENTITY_0");
+
+            ds.clearWriteCaches();
+            ds.store(Fixture.buildWorkerResult());
+            Assertions.assertThat(jedis.smembers("zmon:alerts:0")).hasSize(5);
+            Assertions.assertThat(jedis.hkeys("zmon:alerts:0:entities")).hasSize(5);
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    private static Map<String, Object> dump(Jedis jedis) {
+        Map<String, Object> values = new TreeMap<>();
+        for (String key : jedis.keys("zmon:*")) {
+            switch (jedis.type(key)) {
+                case "set":
+                    values.put(key, jedis.smembers(key));
+                    break;
+                case "list":
+                    values.put(key, jedis.lrange(key, 0, -1));
+                    break;
+                case "hash":
+                    values.put(key, jedis.hgetAll(key));
+                    break;
+                default:
+                    values.put(key, jedis.get(key));
+            }
+        }
+        return values;
+    }
 }
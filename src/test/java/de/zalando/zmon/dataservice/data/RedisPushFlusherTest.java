@@ -0,0 +1,140 @@
+package de.zalando.zmon.dataservice.data;
+
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RedisPushFlusherTest {
+
+    private static final byte[] QUEUE = "zmon:datapoints".getBytes();
+
+    private final JedisPool pool = mock(JedisPool.class);
+
+    private final Jedis jedis = mock(Jedis.class);
+
+    private final DataServiceMetrics metrics = mock(DataServiceMetrics.class);
+
+    private RedisPushFlusher flusher;
+
+    @Before
+    public void setUp() {
+        when(pool.getResource()).thenReturn(jedis);
+    }
+
+    @After
+    public void tearDown() {
+        flusher.close();
+    }
+
+    @Test
+    public void pushesPayloadsOfManyWritersAtOnce() {
+        flusher = new RedisPushFlusher(pool, QUEUE, metrics, 200, 100, 50);
+        for (int i = 0; i < 10; i++) {
+            assertThat(flusher.offer(new byte[]{(byte) i})).isTrue();
+        }
+
+        final ArgumentCaptor<byte[]> payloads = ArgumentCaptor.forClass(byte[].class);
+        verify(jedis, timeout(2000)).lpush(eq(QUEUE), payloads.capture());
+        assertThat(payloads.getAllValues()).hasSize(10);
+        verify(metrics, timeout(1000)).updateDataPointsPushBatch(10);
+        verify(metrics, timeout(1000).times(10)).updateDataPointsPushWait(any(Long.class));
+    }
+
+    @Test
+    public void dropsIfFull() throws Exception {
+        // the flusher waits for the first push
+        final CountDownLatch blocked = new CountDownLatch(1);
+        when(jedis.lpush(eq(QUEUE), any(byte[].class))).thenAnswer(invocation -> {
+            blocked.await(5, TimeUnit.SECONDS);
+            return 1L;
+        });
+        flusher = new RedisPushFlusher(pool, QUEUE, metrics, 0, 2, 1);
+        assertThat(flusher.offer(new byte[]{0})).isTrue();
+        verify(jedis, timeout(2000)).lpush(eq(QUEUE), any(byte[].class));
+
+        assertThat(flusher.offer(new byte[]{1})).isTrue();
+        assertThat(flusher.offer(new byte[]{2})).isTrue();
+        assertThat(flusher.offer(new byte[]{3})).isFalse();
+        verify(metrics).markDataPointsPushDropped();
+        blocked.countDown();
+    }
+
+    @Test
+    public void repeatsFailedPush() {
+        when(jedis.lpush(eq(QUEUE), any(byte[].class)))
+                .thenThrow(new JedisConnectionException("down"))
+                .thenReturn(1L);
+        flusher = new RedisPushFlusher(pool, QUEUE, metrics, 10, 10, 10);
+        flusher.offer(new byte[]{0});
+
+        verify(jedis, timeout(2000).times(2)).lpush(eq(QUEUE), any(byte[].class));
+        verify(metrics, atLeastOnce()).markDataPointsPushError();
+        verify(metrics, timeout(1000)).updateDataPointsPushBatch(1);
+    }
+
+    @Test
+    public void refusesPayloadsWhilePushesFail() {
+        when(jedis.lpush(eq(QUEUE), any(byte[].class)))
+                .thenThrow(new JedisConnectionException("down"))
+                .thenThrow(new JedisConnectionException("down"))
+                .thenReturn(1L);
+        flusher = new RedisPushFlusher(pool, QUEUE, metrics, 200, 10, 10);
+        final RedisDataPointsQueryStore store = new RedisDataPointsQueryStore(pool, new MockTracer(),
+                DataPointsCodec.create("lz4", 0, null), true, "zmon:datapoints", flusher);
+        assertThat(store.store("[]")).isEqualTo(0);
+
+        verify(metrics, timeout(2000)).markDataPointsPushError();
+        assertThat(store.store("[]")).isEqualTo(1);
+
+        // the first payload was kept and pushed once redis is back
+        verify(metrics, timeout(2000)).updateDataPointsPushBatch(1);
+        assertThat(store.store("[]")).isEqualTo(0);
+    }
+
+    @Test
+    public void countsPayloadsNotPushedOnClose() {
+        when(jedis.lpush(eq(QUEUE), any(byte[].class))).thenThrow(new JedisConnectionException("down"));
+        flusher = new RedisPushFlusher(pool, QUEUE, metrics, 0, 10, 10);
+        flusher.offer(new byte[]{0});
+        verify(metrics, timeout(2000)).markDataPointsPushError();
+
+        flusher.close();
+
+        verify(metrics).markDataPointsPushDropped(1);
+        assertThat(flusher.offer(new byte[]{1})).isFalse();
+    }
+
+    @Test
+    public void storeQueuesCompressedQuery() throws Exception {
+        flusher = new RedisPushFlusher(pool, QUEUE, metrics, 10, 10, 10);
+        final RedisDataPointsQueryStore store = new RedisDataPointsQueryStore(pool, new MockTracer(),
+                DataPointsCodec.create("lz4", 0, null), true, "zmon:datapoints", flusher);
+
+        assertThat(store.store("[]")).isEqualTo(0);
+
+        final ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(jedis, timeout(2000)).lpush(eq(QUEUE), payload.capture());
+        assertThat(payload.getValue()[0]).isEqualTo(DataPointsCodec.ENVELOPE_V1);
+        // the writer did not take a connection
+        verify(pool, times(1)).getResource();
+    }
+}
@@ -0,0 +1,133 @@
+package de.zalando.zmon.dataservice.data;
+
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RedisStreamDataPointsQueryStoreTest {
+
+    private static final String QUERY = "[{\"name\":\"zmon.check.12\",\"tags\":{\"entity\":\"a\"},\"datapoints\":[[1,1]]},"
+            + "{\"name\":\"zmon.check.3\",\"tags\":{\"entity\":\"a\"},\"datapoints\":[[1,1]]},"
+            + "{\"name\":\"zmon.check.12\",\"tags\":{\"entity\":\"b\"},\"datapoints\":[[1,1],[2,2]]}]";
+
+    private static final String XADD_SHA1 = new LuaScript("redis/scripts/xaddDatapoints.lua").getSha1();
+
+    private static final String INFO_SHA1 = new LuaScript("redis/scripts/datapointsStreamInfo.lua").getSha1();
+
+    private final JedisPool pool = mock(JedisPool.class);
+
+    private final Jedis jedis = mock(Jedis.class);
+
+    private final DataServiceMetrics metrics = mock(DataServiceMetrics.class);
+
+    // arguments of the XADD script calls, the sha1 first
+    private final List<Object[]> calls = new CopyOnWriteArrayList<>();
+
+    private RedisStreamDataPointsQueryStore store;
+
+    @Before
+    public void setUp() {
+        when(pool.getResource()).thenReturn(jedis);
+        when(jedis.evalsha(any(byte[].class), anyInt(), Matchers.<byte[]>anyVararg())).thenAnswer(invocation -> {
+            final Object[] args = invocation.getArguments();
+            final String sha1 = SafeEncoder.encode((byte[]) args[0]);
+            if (sha1.equals(INFO_SHA1)) {
+                return Arrays.asList(42L, 7L);
+            }
+            if (sha1.equals(XADD_SHA1)) {
+                calls.add(args);
+            }
+            return 1L;
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (null != store) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void addsQueryWithMetadata() throws Exception {
+        store = new RedisStreamDataPointsQueryStore(pool, new MockTracer(), DataPointsCodec.create("lz4", 0, null),
+                "zmon:datapoints:stream", 1000, null, metrics, 60000);
+
+        assertThat(store.store(QUERY.getBytes(StandardCharsets.UTF_8), 4)).isEqualTo(0);
+
+        assertThat(calls).hasSize(1);
+        final Object[] args = calls.get(0);
+        assertThat(args[1]).isEqualTo(1);
+        assertThat(string(args[2])).isEqualTo("zmon:datapoints:stream");
+        assertThat(string(args[3])).isEqualTo("1000");
+        assertThat(string(args[4])).isEqualTo("data");
+        final byte[] data = (byte[]) args[5];
+        assertThat(data[0]).isEqualTo(DataPointsCodec.ENVELOPE_V1);
+        assertThat(data[1]).isEqualTo(DataPointsCodec.LZ4);
+        assertThat(new String(DataPointsCodec.create("lz4", 0, null).decode(data, 3), StandardCharsets.UTF_8))
+                .isEqualTo(QUERY);
+        assertThat(string(args[6])).isEqualTo("points");
+        assertThat(string(args[7])).isEqualTo("4");
+        assertThat(string(args[8])).isEqualTo("checks");
+        assertThat(string(args[9])).isEqualTo("3,12");
+        assertThat(string(args[10])).isEqualTo("created");
+    }
+
+    @Test
+    public void failedWriteIsCounted() {
+        store = new RedisStreamDataPointsQueryStore(pool, new MockTracer(), DataPointsCodec.create("gzip", 0, null),
+                "zmon:datapoints:stream", 1000, null, metrics, 60000);
+        when(pool.getResource()).thenThrow(new JedisConnectionException("down"));
+
+        assertThat(store.store(QUERY)).isEqualTo(1);
+    }
+
+    @Test
+    public void loadsLostScript() {
+        store = new RedisStreamDataPointsQueryStore(pool, new MockTracer(), DataPointsCodec.create("gzip", 0, null),
+                "zmon:datapoints:stream", 1000, null, metrics, 60000);
+        doThrow(new JedisDataException("NOSCRIPT No matching script"))
+                .doReturn(SafeEncoder.encode("1-0"))
+                .when(jedis).evalsha(any(byte[].class), anyInt(), Matchers.<byte[]>anyVararg());
+
+        assertThat(store.store(QUERY)).isEqualTo(0);
+        verify(jedis).scriptLoad(new LuaScript("redis/scripts/xaddDatapoints.lua").getScript());
+    }
+
+    @Test
+    public void refreshesLengthAndPending() {
+        store = new RedisStreamDataPointsQueryStore(pool, new MockTracer(), DataPointsCodec.create("gzip", 0, null),
+                "zmon:datapoints:stream", 1000, "kairosdb-writers", metrics, 60000);
+        store.refresh();
+
+        assertThat(store.getLength()).isEqualTo(42);
+        assertThat(store.getPending()).isEqualTo(7);
+        verify(metrics).registerDataPointsStream(any(), any());
+    }
+
+    private static String string(Object arg) {
+        return SafeEncoder.encode((byte[]) arg);
+    }
+}
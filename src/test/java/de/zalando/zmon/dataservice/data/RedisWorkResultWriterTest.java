@@ -1,5 +1,6 @@
 package de.zalando.zmon.dataservice.data;
 
+import java.util.Arrays;
 import java.util.Optional;
 
 import org.junit.After;
@@ -41,6 +42,14 @@ public class RedisWorkResultWriterTest {
         Mockito.verify(redisDataStore, Mockito.times(1)).store(Mockito.any(WorkerResult.class));
     }
 
+    @Test
+    public void testBatchUsesOnePipeline() {
+        RedisWorkerResultWriter writer = new RedisWorkerResultWriter(redisDataStore, metrics);
+        writer.writeBatch(Arrays.asList(Fixture.writeData(Optional.of(wrMock)), Fixture.writeData(Optional.of(wrMock))));
+        Mockito.verify(redisDataStore, Mockito.times(1)).store(Arrays.asList(wrMock, wrMock));
+        Mockito.verify(redisDataStore, Mockito.never()).store(Mockito.any(WorkerResult.class));
+    }
+
     @Test
     public void testOptionalPresentStoreThrowsException() {
         Mockito.doThrow(new RuntimeException("test")).when(redisDataStore).store(Mockito.any(WorkerResult.class));
@@ -0,0 +1,64 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestBodyDecoderTest {
+
+    private static final String BODY = "{\"account\":\"123\",\"results\":[]}";
+
+    @Test
+    public void noEncoding() throws IOException {
+        assertThat(decode(BODY.getBytes(StandardCharsets.UTF_8), null)).isEqualTo(BODY);
+        assertThat(decode(BODY.getBytes(StandardCharsets.UTF_8), "identity")).isEqualTo(BODY);
+    }
+
+    @Test
+    public void gzip() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(decode(out.toByteArray(), "gzip")).isEqualTo(BODY);
+    }
+
+    @Test
+    public void zstd() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream zstd = new ZstdOutputStream(out)) {
+            zstd.write(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(decode(out.toByteArray(), "ZSTD")).isEqualTo(BODY);
+    }
+
+    @Test
+    public void stackedEncodings() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream zstd = new ZstdOutputStream(new GZIPOutputStream(out))) {
+            zstd.write(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(decode(out.toByteArray(), "zstd, gzip")).isEqualTo(BODY);
+    }
+
+    @Test(expected = UnsupportedContentEncodingException.class)
+    public void unsupportedEncoding() throws IOException {
+        decode(BODY.getBytes(StandardCharsets.UTF_8), "br");
+    }
+
+    private static String decode(byte[] body, String encoding) throws IOException {
+        try (InputStream in = RequestBodyDecoder.decode(new ByteArrayInputStream(body), encoding)) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class SeriesCardinalityTest {
+
+    private static final long HOUR = 3_600_000;
+
+    @Test
+    public void estimateDistinctSeries() {
+        SeriesCardinality cardinality = new SeriesCardinality(0, null, "none", 0, HOUR);
+        SeriesCardinality.Check check = cardinality.check(1, 0);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50_000; i++) {
+                assertThat(check.offer(series("host-" + (i % 500), "key." + i))).isEqualTo(SeriesCardinality.Decision.KEEP);
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            cardinality.check(2, 0).offer(series("host", "key." + i));
+        }
+
+        assertThat((double) check.estimate()).isCloseTo(50_000, within(5_000.0));
+        assertThat(cardinality.check(2, 0).estimate()).isEqualTo(20);
+        assertThat(cardinality.snapshot()).extracting(SeriesCardinality.CheckSeries::getCheckId).containsExactly(1, 2);
+        assertThat(cardinality.get(2).getSeries()).isEqualTo(20);
+        assertThat(cardinality.get(3)).isNull();
+        assertThat(cardinality.getMaxSeries()).isEqualTo(check.estimate());
+        assertThat(cardinality.getChecksOverBudget()).isEqualTo(0);
+    }
+
+    @Test
+    public void dropNewSeriesOverBudget() {
+        SeriesCardinality cardinality = new SeriesCardinality(100, null, "drop", 0, HOUR);
+        SeriesCardinality.Check check = cardinality.check(1, 0);
+        final List<Long> known = new ArrayList<>();
+        for (int i = 0; !check.isOverBudget(); i++) {
+            known.add(series("host", "known." + i));
+            assertThat(check.offer(known.get(i))).isEqualTo(SeriesCardinality.Decision.KEEP);
+        }
+        assertThat(cardinality.getChecksOverBudget()).isEqualTo(1);
+
+        int dropped = 0;
+        for (int i = 0; i < 1000; i++) {
+            // known series always pass
+            assertThat(check.offer(known.get(i % known.size()))).isEqualTo(SeriesCardinality.Decision.KEEP);
+            if (check.offer(series("host", "new." + i)) == SeriesCardinality.Decision.DROP) {
+                dropped++;
+            }
+        }
+        assertThat(dropped).isGreaterThan(700);
+        assertThat(check.estimate()).isLessThan(300);
+    }
+
+    @Test
+    public void stripAndSampleNewSeries() {
+        SeriesCardinality cardinality = new SeriesCardinality(0, ImmutableMap.of(1, 10, 2, 10), "sample", 0.25, HOUR);
+        for (int i = 0; i < 20; i++) {
+            cardinality.check(1, 0).offer(series("host", "known." + i));
+        }
+        int kept = 0;
+        for (int i = 0; i < 4000; i++) {
+            if (cardinality.check(1, 0).offer(series("host", "new." + i)) == SeriesCardinality.Decision.KEEP) {
+                kept++;
+            }
+        }
+        // a quarter, plus new series hidden by the registers the sampled ones filled
+        assertThat(kept).isBetween(1000, 2500);
+
+        SeriesCardinality strip = new SeriesCardinality(10, Collections.emptyMap(), "strip", 0, HOUR);
+        for (int i = 0; i < 20; i++) {
+            strip.check(1, 0).offer(series("host", "known." + i));
+        }
+        assertThat(strip.check(1, 0).offer(series("host", "new.1"))).isEqualTo(SeriesCardinality.Decision.STRIP);
+    }
+
+    @Test
+    public void seriesOfOldWindowsAreForgotten() {
+        SeriesCardinality cardinality = new SeriesCardinality(0, null, "none", 0, HOUR);
+        for (int i = 0; i < 100; i++) {
+            cardinality.check(1, 0).offer(series("host", "first." + i));
+        }
+        // the previous window still counts
+        assertThat(cardinality.check(1, HOUR).estimate()).isBetween(95L, 105L);
+        cardinality.check(1, HOUR).offer(series("host", "second"));
+        assertThat(cardinality.check(1, 2 * HOUR).estimate()).isEqualTo(1);
+    }
+
+    @Test
+    public void serializeSnapshot() throws Exception {
+        SeriesCardinality cardinality = new SeriesCardinality(1, null, "none", 0, HOUR);
+        cardinality.check(7, 0).offer(series("host", "a"));
+        cardinality.check(7, 0).offer(series("host", "b"));
+
+        assertThat(new ObjectMapper().writeValueAsString(cardinality.snapshot()))
+                .isEqualTo("[{\"check_id\":7,\"series\":2,\"budget\":1,\"over_budget\":true}]");
+    }
+
+    private static long series(String entity, String key) {
+        return SeriesCardinality.seriesHash(TagFragments.hash("{\"entity\":\"" + entity + "\""),
+                TagFragments.hash(",\"key\":\"" + key + "\"}"));
+    }
+}
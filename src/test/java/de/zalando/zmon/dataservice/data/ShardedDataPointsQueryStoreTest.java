@@ -0,0 +1,162 @@
+package de.zalando.zmon.dataservice.data;
+
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import org.junit.After;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ShardedDataPointsQueryStoreTest {
+
+    private final DataServiceMetrics metrics = mock(DataServiceMetrics.class);
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private final List<DataPointsQueryStore> stores = new ArrayList<>();
+
+    private final List<JedisPool> pools = new ArrayList<>();
+
+    private ShardedDataPointsQueryStore store;
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void roundRobin() {
+        store = sharded(3, "round-robin");
+        for (int i = 0; i < 6; i++) {
+            assertThat(store.store(query(1), 1)).isEqualTo(0);
+        }
+        for (DataPointsQueryStore shard : stores) {
+            verify(shard, times(2)).store(any(byte[].class), eq(1));
+        }
+    }
+
+    @Test
+    public void routesByFirstCheck() {
+        store = sharded(3, "check");
+        store.store(query(7), 1);
+        store.store(query(7), 1);
+        store.store(query(5), 1);
+
+        verify(stores.get(1), times(2)).store(any(byte[].class), anyInt());
+        verify(stores.get(2)).store(any(byte[].class), anyInt());
+        verify(stores.get(0), never()).store(any(byte[].class), anyInt());
+    }
+
+    @Test
+    public void fallsBackAndSkipsFailedShard() {
+        store = sharded(3, "check");
+        when(stores.get(1).store(any(byte[].class), anyInt())).thenReturn(1);
+
+        assertThat(store.store(query(1), 1)).isEqualTo(0);
+        verify(stores.get(2)).store(any(byte[].class), anyInt());
+        verify(metrics).markDataPointsShardFallback();
+
+        // cooling down, not tried again
+        assertThat(store.store(query(1), 1)).isEqualTo(0);
+        verify(stores.get(1)).store(any(byte[].class), anyInt());
+        verify(stores.get(2), times(2)).store(any(byte[].class), anyInt());
+
+        // tried again after the cool down
+        now.addAndGet(10000);
+        store.store(query(1), 1);
+        verify(stores.get(1), times(2)).store(any(byte[].class), anyInt());
+    }
+
+    @Test
+    public void failsIfAllShardsFail() {
+        store = sharded(2, "round-robin");
+        for (DataPointsQueryStore shard : stores) {
+            when(shard.store(any(byte[].class), anyInt())).thenReturn(1);
+        }
+        assertThat(store.store(query(1), 1)).isEqualTo(1);
+
+        // all cooling down, the query is still tried on one shard
+        assertThat(store.store(query(1), 1)).isEqualTo(1);
+        verify(stores.get(0), times(1)).store(any(byte[].class), anyInt());
+        verify(stores.get(1), times(2)).store(any(byte[].class), anyInt());
+    }
+
+    @Test
+    public void routesOverflowingCheckIdsRoundRobin() {
+        store = sharded(3, "check");
+        final byte[] query = ("[{\"name\":\"zmon.check.3000000000\",\"tags\":{},\"datapoints\":[[1,1]]}]")
+                .getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 3; i++) {
+            assertThat(store.store(query, 1)).isEqualTo(0);
+        }
+        for (DataPointsQueryStore shard : stores) {
+            verify(shard).store(any(byte[].class), eq(1));
+        }
+    }
+
+    @Test
+    public void closesOnlyOwnedPools() throws IOException {
+        final JedisPool bean = mock(JedisPool.class);
+        final JedisPool created = mock(JedisPool.class);
+        final List<ShardedDataPointsQueryStore.Shard> shards = new ArrayList<>();
+        for (JedisPool pool : new JedisPool[]{bean, bean, created, created}) {
+            shards.add(new ShardedDataPointsQueryStore.Shard("shard", pool, "zmon:datapoints",
+                    mock(DataPointsQueryStore.class), pool == created));
+        }
+        store = new ShardedDataPointsQueryStore(shards, "round-robin", 5000, metrics, 60000, now::get);
+
+        store.close();
+
+        verify(bean, never()).close();
+        verify(created).close();
+    }
+
+    @Test
+    public void refreshesDepth() {
+        store = sharded(2, "round-robin");
+        final Jedis jedis = mock(Jedis.class);
+        when(pools.get(0).getResource()).thenReturn(jedis);
+        when(jedis.llen("zmon:datapoints:0")).thenReturn(17L);
+        when(pools.get(1).getResource()).thenThrow(new RuntimeException("down"));
+
+        store.refresh();
+
+        assertThat(store.getShards().get(0).getDepth()).isEqualTo(17);
+        assertThat(store.getShards().get(0).isHealthy(now.get())).isTrue();
+        assertThat(store.getShards().get(1).getDepth()).isEqualTo(-1);
+        assertThat(store.getShards().get(1).isHealthy(now.get())).isFalse();
+        verify(metrics, times(2)).registerDataPointsShard(anyInt(), any(), any());
+    }
+
+    private ShardedDataPointsQueryStore sharded(int count, String routing) {
+        final List<ShardedDataPointsQueryStore.Shard> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final DataPointsQueryStore shard = mock(DataPointsQueryStore.class);
+            final JedisPool pool = mock(JedisPool.class);
+            stores.add(shard);
+            pools.add(pool);
+            shards.add(new ShardedDataPointsQueryStore.Shard("shard-" + i, pool, "zmon:datapoints:" + i, shard));
+        }
+        return new ShardedDataPointsQueryStore(shards, routing, 5000, metrics, 60000, now::get);
+    }
+
+    private static byte[] query(int checkId) {
+        return ("[{\"name\":\"zmon.check." + checkId + "\",\"tags\":{\"entity\":\"a\"},\"datapoints\":[[1,1]]}]")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,75 @@
+package de.zalando.zmon.dataservice.data;
+
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+
+public class SpoolingDataPointsQueryStoreTest {
+
+    private static final byte[] FIRST = "[1]".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SECOND = "[2]".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final DataPointsQueryStore delegate = Mockito.mock(DataPointsQueryStore.class);
+
+    private final DataServiceMetrics metrics = Mockito.mock(DataServiceMetrics.class);
+
+    private DataPointsSpool spool;
+
+    private SpoolingDataPointsQueryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        spool = new DataPointsSpool(folder.getRoot(), 1024, 0);
+        // replay is triggered by the tests
+        store = new SpoolingDataPointsQueryStore(delegate, spool, metrics, 1_000_000, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void failedWritesAreReplayedInOrder() {
+        Mockito.when(delegate.store(Mockito.any(byte[].class), Mockito.anyInt())).thenReturn(1);
+        Assertions.assertThat(store.store(FIRST, 1)).isEqualTo(1);
+        Assertions.assertThat(store.store(SECOND, 2)).isEqualTo(1);
+        Assertions.assertThat(spool.getPendingQueries()).isEqualTo(2);
+        Mockito.verify(metrics, Mockito.times(2)).markDataPointsSpooled(3);
+
+        // still down, the replay stops at the first query
+        store.replay();
+        Assertions.assertThat(spool.getPendingQueries()).isEqualTo(2);
+
+        Mockito.reset(delegate);
+        store.replay();
+
+        InOrder order = Mockito.inOrder(delegate);
+        order.verify(delegate).store(FIRST, 1);
+        order.verify(delegate).store(SECOND, 2);
+        Assertions.assertThat(spool.getPendingQueries()).isEqualTo(0);
+        Mockito.verify(metrics, Mockito.times(2)).markDataPointsReplayed(3);
+    }
+
+    @Test
+    public void successfulAndThrowingWrites() {
+        Assertions.assertThat(store.store(FIRST, 1)).isEqualTo(0);
+        Assertions.assertThat(spool.getPendingQueries()).isEqualTo(0);
+
+        Mockito.when(delegate.store(SECOND, 1)).thenThrow(new IllegalStateException("down"));
+        Assertions.assertThat(store.store(SECOND, 1)).isEqualTo(1);
+        Assertions.assertThat(spool.getPendingQueries()).isEqualTo(1);
+    }
+}
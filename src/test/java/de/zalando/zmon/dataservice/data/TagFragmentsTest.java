@@ -0,0 +1,77 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import de.zalando.zmon.dataservice.DataServiceMetrics;
+import de.zalando.zmon.dataservice.config.DataServiceConfigProperties;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class TagFragmentsTest {
+
+    private final TagFragments fragments = new TagFragments(ImmutableSet.of("stack_name", "application_id", "key"), 100);
+
+    @Test
+    public void sameTagsAsGetTags() throws IOException {
+        DataServiceConfigProperties config = new DataServiceConfigProperties();
+        KairosDBStore store = new KairosDBStore(config, mock(DataServiceMetrics.class),
+                mock(DataPointsQueryStore.class), mock(MetricTiers.class));
+        Map<String, String> entity = entity("zmon-data-service");
+        entity.put("stack_name", "data-service");
+        String key = "fragment.fjo:rd/c@rt?hide_footer=true";
+
+        String tags = fragments.entityTags("host01[aws:1234]", entity) + fragments.keyTags(key, false).getFragment();
+
+        Map<?, ?> parsed = new ObjectMapper().readValue(tags, Map.class);
+        assertThat(parsed).isEqualTo(store.getTags(key, "host01[aws:1234]", entity));
+    }
+
+    @Test
+    public void cachedUntilEntityTagsChange() {
+        String first = fragments.entityTags("host01", entity("app-1"));
+        assertThat(fragments.entityTags("host01", entity("app-1"))).isSameAs(first);
+
+        // fields which are no tags do not matter
+        Map<String, String> other = entity("app-1");
+        other.put("ip", "10.0.0.1");
+        assertThat(fragments.entityTags("host01", other)).isSameAs(first);
+
+        assertThat(fragments.entityTags("host01", entity("app-2")))
+                .isEqualTo("{\"application_id\":\"app-2\",\"entity\":\"host01\"");
+    }
+
+    @Test
+    public void actuatorKeyTags() {
+        TagFragments.KeyTags tags = fragments.keyTags("api.orders.404.count", true);
+        assertThat(tags.isDropped()).isFalse();
+        assertThat(tags.getFragment()).isEqualTo(",\"key\":\"api.orders.404.count\",\"metric\":\"count\","
+                + "\"sc\":\"404\",\"sg\":\"4\",\"path\":\"api\"}");
+        assertThat(tags.getStrippedFragment()).isEqualTo(",\"metric\":\"count\",\"sc\":\"404\",\"sg\":\"4\"}");
+        assertThat(fragments.keyTags("api.orders.404.count", false).getFragment())
+                .isEqualTo(",\"key\":\"api.orders.404.count\",\"metric\":\"count\"}");
+
+        assertThat(fragments.keyTags("health.GET.200.count", true).isDropped()).isTrue();
+        assertThat(fragments.keyTags("health.GET.200.count", false).isDropped()).isFalse();
+    }
+
+    @Test
+    public void withoutCache() {
+        TagFragments uncached = new TagFragments(ImmutableSet.of("application_id"), 0);
+        assertThat(uncached.entityTags("host01", entity("app-1")))
+                .isEqualTo(fragments.entityTags("host01", entity("app-1")));
+        assertThat(uncached.keyTags("a.b", false).getFragment()).isEqualTo(",\"key\":\"a.b\",\"metric\":\"b\"}");
+    }
+
+    private static Map<String, String> entity(String applicationId) {
+        Map<String, String> entity = new HashMap<>();
+        entity.put("application_id", applicationId);
+        entity.put("key", "ignored");
+        return entity;
+    }
+}
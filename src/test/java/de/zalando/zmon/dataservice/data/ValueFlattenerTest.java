@@ -0,0 +1,93 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class ValueFlattenerTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ValueFlattener flattener = new ValueFlattener();
+
+    @Test
+    public void flattenNumericLeaves() throws IOException {
+        Map<String, Object> values = flatten("{\"a\":{\"b\":1,\"c\":\"2.5\",\"d\":\"x\",\"e\":[1],\"f\":true,\"g\":null},"
+                + "\"h\":-3.25,\"i\":\"-42\",\"j\":12345678901234567890,\"k\":{}}");
+
+        assertThat(values).containsExactly(entry("a.b", 1L), entry("a.c", 2.5), entry("h", -3.25), entry("i", -42L),
+                entry("j", 12345678901234567890.0));
+    }
+
+    @Test
+    public void flattenPlainValue() throws IOException {
+        assertThat(flatten("7")).containsExactly(entry("", 7L));
+        assertThat(flatten("\"no number\"")).isEmpty();
+    }
+
+    @Test
+    public void longKeysGrowBuffer() throws IOException {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            name.append("segment");
+        }
+        Map<String, Object> values = flatten("{\"" + name + "\":{\"" + name + "\":1},\"short\":2}");
+
+        assertThat(values).containsExactly(entry(name + "." + name, 1L), entry("short", 2L));
+    }
+
+    @Test
+    public void integersOfNineteenDigitsAreExact() throws IOException {
+        Map<String, Object> values = flatten("{\"a\":\"9223372036854775807\",\"b\":\"-9223372036854775808\","
+                + "\"c\":\"+1234567890123456789\",\"d\":\"9223372036854775808\"}");
+
+        assertThat(values).containsExactly(entry("a", Long.MAX_VALUE), entry("b", Long.MIN_VALUE),
+                entry("c", 1234567890123456789L), entry("d", 9223372036854775808.0));
+    }
+
+    @Test
+    public void skipNonFiniteNumbers() throws IOException {
+        Map<String, Object> values = flatten("{\"a\":1e400,\"b\":\"-1e400\",\"c\":1.5}");
+
+        assertThat(values).containsExactly(entry("c", 1.5));
+        assertThat(flattener.getNonFinite()).isEqualTo(2);
+    }
+
+    @Test
+    public void numberTypeLikeBigDecimal() {
+        for (String number : new String[]{"0", "+1", "-1", "123456789012345678", "1234567890123456789",
+                "9223372036854775807", "-9223372036854775808"}) {
+            assertThat(ValueFlattener.numberType(number)).as(number).isEqualTo(0);
+        }
+        for (String number : new String[]{"1.", ".5", "-0.5", "1e3", "1E+3", "2.5e-3", "9223372036854775808",
+                "-9223372036854775809", "12345678901234567890"}) {
+            assertThat(ValueFlattener.numberType(number)).as(number).isEqualTo(1);
+        }
+        for (String text : new String[]{"", "-", ".", "e3", "1e", "1e+", " 1", "1 ", "NaN", "Infinity", "0x10", "1.2.3", "1d"}) {
+            assertThat(ValueFlattener.numberType(text)).as(text).isEqualTo(-1);
+        }
+    }
+
+    private Map<String, Object> flatten(String json) throws IOException {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        final int count = flattener.flatten(mapper.readTree(json), new ValueFlattener.Visitor() {
+            @Override
+            public void value(String key, long value) {
+                values.put(key, value);
+            }
+
+            @Override
+            public void value(String key, double value) {
+                values.put(key, value);
+            }
+        });
+        assertThat(count).isEqualTo(values.size());
+        return values;
+    }
+}
@@ -0,0 +1,122 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import de.zalando.zmon.dataservice.config.ObjectMapperConfig;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing of one worker result request per wire format, run with the gc profiler to see allocation per request.
+ * <p>
+ * Not part of the test suite, start with main() from the IDE or the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkerResultFormatBenchmark {
+
+    @Param({"10", "100"})
+    int results;
+
+    private final ObjectMapper mapper = new ObjectMapperConfig().customObjectMapper();
+
+    private final WorkerResultParser parser = new WorkerResultParser(mapper);
+
+    private final JsonFactory smileFactory = new SmileFactory();
+
+    private final JsonFactory cborFactory = new CBORFactory();
+
+    private String json;
+    private byte[] jsonBytes;
+    private byte[] smile;
+    private byte[] cbor;
+
+    @Setup
+    public void setUp() throws IOException {
+        JsonNode document = workerResult(results);
+        json = mapper.writeValueAsString(document);
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        smile = new ObjectMapper(smileFactory).writeValueAsBytes(document);
+        cbor = new ObjectMapper(cborFactory).writeValueAsBytes(document);
+    }
+
+    @Benchmark
+    public WorkerResult jsonDataBinding() throws IOException {
+        return mapper.readValue(json, WorkerResult.class);
+    }
+
+    @Benchmark
+    public WorkerResult jsonStream() throws IOException {
+        return parse(mapper.getFactory(), jsonBytes);
+    }
+
+    @Benchmark
+    public WorkerResult smileStream() throws IOException {
+        return parse(smileFactory, smile);
+    }
+
+    @Benchmark
+    public WorkerResult cborStream() throws IOException {
+        return parse(cborFactory, cbor);
+    }
+
+    private WorkerResult parse(JsonFactory factory, byte[] data) throws IOException {
+        try (JsonParser jp = factory.createParser(data)) {
+            jp.nextToken();
+            return parser.parse(jp, entityId -> true);
+        }
+    }
+
+    // actuator like check results, mostly numeric leaves
+    private ObjectNode workerResult(int count) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("account", "aws:1234567890");
+        root.put("team", "stups");
+        ArrayNode array = root.putArray("results");
+        for (int i = 0; i < count; i++) {
+            ObjectNode cd = array.addObject();
+            cd.put("time", "2017-01-01T00:00:00Z");
+            cd.put("worker", "worker-" + (i % 4));
+            cd.put("check_id", 1000 + i);
+            cd.put("entity_id", "app-" + i + "[aws:1234567890:eu-central-1]");
+            cd.putObject("entity").put("id", "app-" + i).put("type", "instance");
+            cd.put("run_time", 0.125 + i);
+            cd.put("exception", false);
+            ObjectNode value = cd.putObject("check_result").putObject("value");
+            for (String endpoint : new String[]{"GET_health", "GET_api_data", "PUT_api_data", "POST_api_batch"}) {
+                ObjectNode e = value.putObject(endpoint);
+                for (String status : new String[]{"200", "404", "500"}) {
+                    e.putObject(status).put("count", 12345 + i).put("mRate", 1.2345 * i).put("m1Rate", 0.987 * i)
+                            .put("99th", 12.5 + i).put("75th", 4.25 + i).put("median", 2.5 + i).put("mean", 3.75 + i);
+                }
+            }
+            cd.putObject("alerts").putObject(String.valueOf(i)).put("alert_id", i).put("active", false)
+                    .put("changed", false).put("in_period", true).put("exception", false);
+        }
+        return root;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WorkerResultFormatBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
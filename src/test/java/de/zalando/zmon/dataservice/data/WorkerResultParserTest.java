@@ -0,0 +1,98 @@
+package de.zalando.zmon.dataservice.data;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.zalando.zmon.dataservice.Resources;
+import de.zalando.zmon.dataservice.config.ObjectMapperConfig;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WorkerResultParserTest implements Resources {
+
+    private final ObjectMapper mapper = new ObjectMapperConfig().customObjectMapper();
+
+    private final WorkerResultParser parser = new WorkerResultParser(mapper);
+
+    @Test
+    public void parseSameAsDataBinding() throws IOException {
+        final String json = resourceToString(jsonResource("workerResult"));
+
+        final WorkerResult expected = mapper.readValue(json, WorkerResult.class);
+        final WorkerResult parsed = parse(json, x -> true);
+
+        assertThat(mapper.writeValueAsString(parsed)).isEqualTo(mapper.writeValueAsString(expected));
+    }
+
+    @Test
+    public void rejectedResultsAreSkipped() throws IOException {
+        final String json = "{\"account\":\"123\",\"results\":["
+                + "{\"check_id\":1,\"entity_id\":\"foo[aws:123]\",\"check_result\":{\"value\":1},\"unknown\":[1,{\"a\":2}]},"
+                + "{\"check_id\":2,\"entity_id\":\"bar[aws:456]\",\"check_result\":{\"value\":2},\"alerts\":{\"1\":{\"alert_id\":1}}},"
+                + "{\"check_id\":3,\"check_result\":{\"value\":3}}"
+                + "],\"team\":\"stups\"}";
+
+        final WorkerResult wr = parse(json, x -> null != x && x.contains("aws:123"));
+
+        assertThat(wr.account).isEqualTo("123");
+        assertThat(wr.team).isEqualTo("stups");
+        assertThat(wr.results).hasSize(1);
+        assertThat(wr.results.get(0).checkId).isEqualTo(1);
+        assertThat(wr.results.get(0).getCheckResult().get("value").asInt()).isEqualTo(1);
+    }
+
+    @Test
+    public void checkResultKeptAsCompactJson() throws IOException {
+        final String json = resourceToString(jsonResource("workerResult"));
+
+        final WorkerResult expected = mapper.readValue(json, WorkerResult.class);
+        final WorkerResult parsed = parse(json, x -> true);
+
+        for (int i = 0; i < expected.results.size(); i++) {
+            assertThat(parsed.results.get(i).checkResult).isNull();
+            assertThat(new String(parsed.results.get(i).checkResultJson, StandardCharsets.UTF_8))
+                    .isEqualTo(mapper.writeValueAsString(expected.results.get(i).checkResult));
+        }
+    }
+
+    @Test
+    public void checkResultFieldsDecodedOnDemand() throws IOException {
+        final String json = "{\"results\":[{\"check_result\":{\"td\":0.5,\"value\":{\"a\":1.50,\"b\":[1,2]},\"ts\":1490000000.5}}]}";
+
+        final CheckData cd = parse(json, x -> true).results.get(0);
+
+        assertThat(new String(cd.checkResultJson, StandardCharsets.UTF_8))
+                .isEqualTo("{\"td\":0.5,\"value\":{\"a\":1.5,\"b\":[1,2]},\"ts\":1.4900000005E9}");
+        final JsonNode fields = cd.getCheckResultFields("ts", "value", "worker");
+        assertThat(fields.size()).isEqualTo(2);
+        assertThat(fields.get("ts").asDouble()).isEqualTo(1490000000.5);
+        assertThat(fields.get("value")).isEqualTo(cd.getCheckResult().get("value"));
+    }
+
+    @Test
+    public void nullDocument() throws IOException {
+        assertThat(parse("null", x -> true)).isNull();
+    }
+
+    @Test
+    public void nullResults() throws IOException {
+        assertThat(parse("{\"results\":null}", x -> true).results).isEmpty();
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedDocument() throws IOException {
+        parse("{\"results\":[{\"check_id\":1", x -> true);
+    }
+
+    private WorkerResult parse(String json, Predicate<String> filter) throws IOException {
+        try (JsonParser jp = mapper.getFactory().createParser(json)) {
+            jp.nextToken();
+            return parser.parse(jp, filter);
+        }
+    }
+}